@@ -0,0 +1,102 @@
+/*
+ * In-Game Account Switcher is a third-party mod for Minecraft Java Edition that
+ * allows you to change your logged in account in-game, without restarting it.
+ *
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+// This is the JMH benchmarks buildscript. It compiles the version-independent
+// core ("src/_legacy/_shared") without Minecraft and runs the benchmarks from
+// "src/jmh/java" against it. The results are written to "build/results/jmh".
+// Pass "-Pjmh.includes=<regex>" to run only the matching benchmarks.
+// See "settings.gradle.kts" for the Gradle configuration.
+
+// Plugins.
+plugins {
+    id("java")
+    alias(libs.plugins.jmh)
+}
+
+// Language. (the core must stay compatible with the oldest supported Minecraft)
+val javaTarget = 17
+val javaVersion = JavaVersion.toVersion(javaTarget)
+java {
+    sourceCompatibility = javaVersion
+    targetCompatibility = javaVersion
+    toolchain.languageVersion = JavaLanguageVersion.of(javaTarget)
+}
+
+// Metadata.
+group = "ru.vidtu.ias"
+description = "JMH benchmarks for the In-Game Account Switcher core."
+
+// Compile the core as-is.
+sourceSets["main"].java.srcDir(rootDir.resolve("../src/_legacy/_shared"))
+
+// Repositories for dependencies.
+repositories {
+    mavenCentral()
+}
+
+// Dependencies.
+dependencies {
+    // Annotations.
+    compileOnly(libs.jetbrains.annotations)
+    compileOnly(libs.error.prone.annotations)
+    "jmhCompileOnly"(libs.jetbrains.annotations)
+
+    // Provided by Minecraft at runtime.
+    implementation(libs.gson)
+    implementation(libs.slf4j)
+
+    // JMH.
+    "jmhImplementation"(libs.jmh.core)
+    "jmhAnnotationProcessor"(libs.jmh.generator)
+}
+
+tasks.withType<JavaCompile> {
+    // Compile with UTF-8.
+    options.encoding = "UTF-8"
+
+    // Set the compatible Java target.
+    options.release = javaTarget
+}
+
+jmh {
+    // Versions.
+    jmhVersion = libs.versions.jmh
+
+    // Measure allocation rate along with time.
+    profilers.add("gc")
+
+    // Keep the runs short enough to be practical, the PBKDF2 operations take hundreds of milliseconds.
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    timeOnIteration = "5s"
+    warmup = "5s"
+
+    // Run headless, with the predictable KDF calibration.
+    jvmArgsAppend.addAll("-Djava.awt.headless=true", "-Dias.kdf.targetMillis=500")
+
+    // Filter benchmarks, if requested.
+    findProperty("jmh.includes")?.let { includes.add("${it}") }
+
+    // Human-readable and machine-readable results.
+    resultFormat = "JSON"
+    humanOutputFile = layout.buildDirectory.file("results/jmh/human.txt")
+}
@@ -0,0 +1,49 @@
+/*
+ * In-Game Account Switcher is a third-party mod for Minecraft Java Edition that
+ * allows you to change your logged in account in-game, without restarting it.
+ *
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+// This is the standalone Gradle entrypoint for the JMH benchmarks. It is not
+// included into the Stonecutter build, so the benchmarks can be compiled and
+// run headless, without Minecraft or any loader on the classpath.
+// Run with "./gradlew -p bench jmh" from the root directory.
+// See "build.gradle.kts" for the benchmarks configuration.
+
+// Plugins.
+pluginManagement {
+    repositories {
+        gradlePluginPortal()
+    }
+}
+
+plugins {
+    id("org.gradle.toolchains.foojay-resolver-convention") version "1.0.0"
+}
+
+// Reuse the root version catalog.
+dependencyResolutionManagement {
+    versionCatalogs {
+        create("libs") {
+            from(files("../gradle/libs.versions.toml"))
+        }
+    }
+}
+
+// Project.
+rootProject.name = "In-Game Account Switcher Benchmarks"
@@ -0,0 +1,181 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.crypt;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-operation cost of the account crypts with the warm key cache,
+ * i.e. the cost of every login and token refresh after the first one.
+ *
+ * @author VidTu
+ * @see KdfBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CryptBenchmark {
+    /**
+     * Benchmarked crypt.
+     */
+    @Param({"dummy", "password_v1", "password_v2", "hardware_v1", "hardware_v3", "hardware_v4"})
+    public String crypt;
+
+    /**
+     * Token pair size, see {@link #tokens(String)}.
+     */
+    @Param({"short", "typical", "long"})
+    public String tokens;
+
+    /**
+     * Crypt instance.
+     */
+    private Crypt instance;
+
+    /**
+     * Decrypted tokens, in the account data format.
+     */
+    private byte[] decrypted;
+
+    /**
+     * Encrypted tokens.
+     */
+    private byte[] encrypted;
+
+    /**
+     * Prepares the crypt and the payloads, deriving (and caching) the key once.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        this.instance = switch (this.crypt) {
+            case "dummy" -> DummyCrypt.INSTANCE;
+            case "password_v1" -> new PasswordCrypt("IAS benchmark password", 1);
+            case "password_v2" -> new PasswordCrypt("IAS benchmark password");
+            case "hardware_v1" -> HardwareCrypt.INSTANCE_V1;
+            case "hardware_v3" -> HardwareCrypt.INSTANCE_V3;
+            case "hardware_v4" -> HardwareCrypt.INSTANCE_V4;
+            default -> throw new IllegalArgumentException("Unknown crypt: " + this.crypt);
+        };
+        this.decrypted = tokens(this.tokens);
+        this.encrypted = this.instance.encrypt(this.decrypted);
+    }
+
+    /**
+     * Wipes the cached keys, so the trials don't affect each other.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        KeyCache.clear();
+    }
+
+    /**
+     * Encrypts the tokens.
+     *
+     * @return Encrypted tokens
+     */
+    @Benchmark
+    public byte @NotNull [] encrypt() {
+        return this.instance.encrypt(this.decrypted);
+    }
+
+    /**
+     * Decrypts the tokens.
+     *
+     * @return Decrypted tokens
+     */
+    @Benchmark
+    public byte @NotNull [] decrypt() {
+        return this.instance.decrypt(this.encrypted);
+    }
+
+    /**
+     * Creates the random token pair of the real-world size, encoded as the account data.
+     * Sizes are based on the MCA (Minecraft access JWT) and MSR (Microsoft refresh) tokens:
+     * <ul>
+     *     <li>{@code short} - 350 and 450 chars, older MCA tokens</li>
+     *     <li>{@code typical} - 1500 and 500 chars, current MCA tokens</li>
+     *     <li>{@code long} - 3000 and 1000 chars, tokens with the large claim sets</li>
+     * </ul>
+     *
+     * @param size Token pair size
+     * @return Encoded tokens
+     * @throws IllegalArgumentException If the size is unknown
+     */
+    static byte @NotNull [] tokens(@NotNull String size) {
+        int access;
+        int refresh;
+        switch (size) {
+            case "short" -> {
+                access = 350;
+                refresh = 450;
+            }
+            case "typical" -> {
+                access = 1500;
+                refresh = 500;
+            }
+            case "long" -> {
+                access = 3000;
+                refresh = 1000;
+            }
+            default -> throw new IllegalArgumentException("Unknown token size: " + size);
+        }
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream(access + refresh + 4);
+             DataOutputStream out = new DataOutputStream(byteOut)) {
+            out.writeUTF(token(access));
+            out.writeUTF(token(refresh));
+            return byteOut.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode tokens.", e);
+        }
+    }
+
+    /**
+     * Creates the random Base64URL-like token.
+     *
+     * @param length Token length
+     * @return Random token
+     */
+    @NotNull
+    private static String token(int length) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.";
+        SecureRandom random = new SecureRandom();
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
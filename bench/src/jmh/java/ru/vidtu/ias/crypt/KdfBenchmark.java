@@ -0,0 +1,125 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.crypt;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cold (first usage) costs of the crypts: the PBKDF2 key derivation
+ * and the "hardware ID" collection. Every invocation starts with the empty caches.
+ *
+ * @author VidTu
+ * @see CryptBenchmark
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class KdfBenchmark {
+    /**
+     * Calibrated key derivation parameters.
+     */
+    private Kdf current;
+
+    /**
+     * Decrypted tokens, in the account data format.
+     */
+    private byte[] decrypted;
+
+    /**
+     * Key salt.
+     */
+    private byte[] salt;
+
+    /**
+     * AES IV.
+     */
+    private byte[] iv;
+
+    /**
+     * Prepares the parameters and the payload.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        this.current = Kdf.current();
+        this.decrypted = CryptBenchmark.tokens("typical");
+        SecureRandom random = new SecureRandom();
+        this.salt = new byte[Kdf.LEGACY.saltLength()];
+        random.nextBytes(this.salt);
+        this.iv = new byte[16];
+        random.nextBytes(this.iv);
+    }
+
+    /**
+     * Wipes the cached keys and the "hardware ID" before every invocation.
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        KeyCache.clear();
+        HardwareCrypt.INSTANCE_V3.invalidate();
+        HardwareCrypt.INSTANCE_V4.invalidate();
+    }
+
+    /**
+     * Encrypts the tokens with the uncached key, derived using {@link Kdf#LEGACY}.
+     *
+     * @return Encrypted tokens
+     */
+    @Benchmark
+    public byte @NotNull [] pbkdfAesEncryptLegacy() {
+        return Crypt.pbkdfAesEncrypt(this.decrypted, "IAS benchmark password", this.salt, this.iv, Kdf.LEGACY);
+    }
+
+    /**
+     * Encrypts the tokens with the uncached key, derived using {@link Kdf#current()}.
+     *
+     * @return Encrypted tokens
+     */
+    @Benchmark
+    public byte @NotNull [] pbkdfAesEncryptCurrent() {
+        return Crypt.pbkdfAesEncrypt(this.decrypted, "IAS benchmark password", this.salt, this.iv, this.current);
+    }
+
+    /**
+     * Collects the legacy (serial) "hardware ID".
+     */
+    @Benchmark
+    public void hardwarePasswordLegacy() {
+        HardwareCrypt.INSTANCE_V3.prewarm();
+    }
+
+    /**
+     * Collects the concurrent "hardware ID" digest.
+     */
+    @Benchmark
+    public void hardwarePasswordV4() {
+        HardwareCrypt.INSTANCE_V4.prewarm();
+    }
+}
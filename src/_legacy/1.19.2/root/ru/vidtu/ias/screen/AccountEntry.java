@@ -118,7 +118,7 @@ final class AccountEntry extends ObjectSelectionList.Entry<AccountEntry> {
         int color;
         // Mods break user non-nullness.
         //noinspection ConstantValue
-        if (user == null || !this.account.name().equalsIgnoreCase(user.getName())) {
+        if (user == null || !this.list.named(user.getName()).contains(this.account)) {
             color = 0xFF_FF_FF_FF;
         } else if (this.account.uuid().equals(user.getGameProfile().getId())) {
             color = 0xFF_00_FF_00;
@@ -131,6 +131,9 @@ public final class ConfigScreen extends Screen implements LastPassRenderCallback
         // Bruh.
         assert this.minecraft != null;
 
+        // Wait for the config, so the defaults are not shown and saved instead.
+        IAS.awaitConfig();
+
         // Disabled check.
         if (IAS.disabled()) {
             this.minecraft.setScreen(new AlertScreen(this::onClose, Component.translatable("ias.disabled.title").withStyle(ChatFormatting.RED),
@@ -350,6 +353,14 @@ public final class ConfigScreen extends Screen implements LastPassRenderCallback
         });
         this.addRenderableWidget(box);
 
+        // Password Vault.
+        box = new LegacyCheckbox(this.font, 5, 212, Component.translatable("ias.config.passwordVault"), new LegacyTooltip(this, this.font, Component.translatable("ias.config.passwordVault.tip"), 250), IASConfig.passwordVault, value -> IASConfig.passwordVault = value);
+        this.addRenderableWidget(box);
+
+        // Background Refresh.
+        box = new LegacyCheckbox(this.font, 10 + box.getWidth(), 212, Component.translatable("ias.config.backgroundRefresh"), new LegacyTooltip(this, this.font, Component.translatable("ias.config.backgroundRefresh.tip"), 250), IASConfig.backgroundRefresh, value -> IASConfig.backgroundRefresh = value);
+        this.addRenderableWidget(box);
+
         // Add done button.
         this.addRenderableWidget(new Button(this.width / 2 - 100, this.height - 24, 200, 20, CommonComponents.GUI_DONE, btn -> this.onClose()));
     }
@@ -44,6 +44,7 @@ import ru.vidtu.ias.auth.microsoft.MSAuthServer;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.crypt.Crypt;
 import ru.vidtu.ias.crypt.PasswordCrypt;
+import ru.vidtu.ias.crypt.VaultCrypt;
 import ru.vidtu.ias.legacy.LastPassRenderCallback;
 import ru.vidtu.ias.legacy.LegacyTooltip;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
@@ -186,7 +187,7 @@ final class MicrosoftPopupScreen extends Screen implements CreateHandler, LastPa
                 if (value.isBlank()) return;
 
                 // Complete the future.
-                this.crypt = new PasswordCrypt(value);
+                this.crypt = IASConfig.passwordVault ? VaultCrypt.of(value) : new PasswordCrypt(value);
                 this.password = null;
                 this.cryptPasswordTip = null;
 
@@ -205,7 +206,7 @@ final class MicrosoftPopupScreen extends Screen implements CreateHandler, LastPa
                 if (value.isBlank()) return;
 
                 // Complete the future.
-                this.crypt = new PasswordCrypt(value);
+                this.crypt = IASConfig.passwordVault ? VaultCrypt.of(value) : new PasswordCrypt(value);
                 this.password = null;
                 this.cryptPasswordTip = null;
 
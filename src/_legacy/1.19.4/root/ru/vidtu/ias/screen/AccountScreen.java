@@ -36,8 +36,10 @@ import ru.vidtu.ias.IAS;
 import ru.vidtu.ias.account.Account;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.config.IASStorage;
+import ru.vidtu.ias.crypt.HardwareCrypt;
 import ru.vidtu.ias.legacy.Skin;
 import ru.vidtu.ias.legacy.SkinWidget;
+import ru.vidtu.ias.utils.IHttp;
 
 public final class AccountScreen extends Screen {
     /**
@@ -100,6 +102,9 @@ public final class AccountScreen extends Screen {
         // Bruh.
         assert this.minecraft != null;
 
+        // Wait for the accounts.
+        IAS.awaitStorage();
+
         // Disabled check.
         if (IAS.disabled()) {
             this.minecraft.setScreen(new AlertScreen(this::onClose, Component.translatable("ias.disabled.title").withStyle(ChatFormatting.RED),
@@ -124,6 +129,9 @@ public final class AccountScreen extends Screen {
             return;
         }
 
+        // Pre-warm the connections to the auth servers.
+        IHttp.prewarm();
+
         // Add search widget.
         this.search = new EditBox(this.font, this.width / 2 - 75, 11, 150, 20, this.search, Component.translatable("ias.accounts.search"));
         this.search.setHint(this.search.getMessage().copy().withStyle(ChatFormatting.DARK_GRAY));
@@ -315,6 +323,36 @@ public final class AccountScreen extends Screen {
             return true;
         }
 
+        // CTRL+E to re-encrypt all accounts into their preferred crypts. (CTRL+Shift+E to hardware crypt)
+        if (key == GLFW.GLFW_KEY_E && Screen.hasControlDown()) {
+            this.list.recryptAll(Screen.hasShiftDown() ? HardwareCrypt.INSTANCE_V4 : null);
+            return true;
+        }
+
+        // CTRL+P to re-encrypt all accounts with the new password.
+        if (key == GLFW.GLFW_KEY_P && Screen.hasControlDown()) {
+            this.list.recryptAllToPassword();
+            return true;
+        }
+
+        // CTRL+U to refresh all accounts.
+        if (key == GLFW.GLFW_KEY_U && Screen.hasControlDown()) {
+            this.list.refreshAll();
+            return true;
+        }
+
+        // CTRL+I to import accounts.
+        if (key == GLFW.GLFW_KEY_I && Screen.hasControlDown()) {
+            this.list.importAll();
+            return true;
+        }
+
+        // CTRL+X to export accounts with the password. (CTRL+Shift+X to hardware crypt)
+        if (key == GLFW.GLFW_KEY_X && Screen.hasControlDown()) {
+            this.list.exportAll(Screen.hasShiftDown() ? HardwareCrypt.INSTANCE_V4 : null);
+            return true;
+        }
+
         // CTRL+R or Numpad Asterisk to edit.
         if ((key == GLFW.GLFW_KEY_R && Screen.hasControlDown()) || key == GLFW.GLFW_KEY_KP_MULTIPLY) {
             this.list.edit();
@@ -122,6 +122,9 @@ public final class ConfigScreen extends Screen {
         // Bruh.
         assert this.minecraft != null;
 
+        // Wait for the config, so the defaults are not shown and saved instead.
+        IAS.awaitConfig();
+
         // Disabled check.
         if (IAS.disabled()) {
             this.minecraft.setScreen(new AlertScreen(this::onClose, Component.translatable("ias.disabled.title").withStyle(ChatFormatting.RED),
@@ -392,6 +395,18 @@ public final class ConfigScreen extends Screen {
         box.setTooltipDelay(250);
         this.addRenderableWidget(box);
 
+        // Password Vault.
+        box = new LegacyCheckbox(this.font, 5, 212, Component.translatable("ias.config.passwordVault"), IASConfig.passwordVault, value -> IASConfig.passwordVault = value);
+        box.setTooltip(Tooltip.create(Component.translatable("ias.config.passwordVault.tip")));
+        box.setTooltipDelay(250);
+        this.addRenderableWidget(box);
+
+        // Background Refresh.
+        box = new LegacyCheckbox(this.font, 10 + box.getWidth(), 212, Component.translatable("ias.config.backgroundRefresh"), IASConfig.backgroundRefresh, value -> IASConfig.backgroundRefresh = value);
+        box.setTooltip(Tooltip.create(Component.translatable("ias.config.backgroundRefresh.tip")));
+        box.setTooltipDelay(250);
+        this.addRenderableWidget(box);
+
         // Add done button.
         this.addRenderableWidget(Button.builder(CommonComponents.GUI_DONE, btn -> this.onClose())
                 .bounds(this.width / 2 - 100, this.height - 24, 200, 20)
@@ -43,6 +43,7 @@ import ru.vidtu.ias.auth.microsoft.MSAuthServer;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.crypt.Crypt;
 import ru.vidtu.ias.crypt.PasswordCrypt;
+import ru.vidtu.ias.crypt.VaultCrypt;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
 
 import java.util.Locale;
@@ -177,7 +178,7 @@ final class MicrosoftPopupScreen extends Screen implements CreateHandler {
                 if (value.isBlank()) return;
 
                 // Complete the future.
-                this.crypt = new PasswordCrypt(value);
+                this.crypt = IASConfig.passwordVault ? VaultCrypt.of(value) : new PasswordCrypt(value);
                 this.password = null;
                 this.cryptPasswordTip = null;
 
@@ -197,7 +198,7 @@ final class MicrosoftPopupScreen extends Screen implements CreateHandler {
                 if (value.isBlank()) return;
 
                 // Complete the future.
-                this.crypt = new PasswordCrypt(value);
+                this.crypt = IASConfig.passwordVault ? VaultCrypt.of(value) : new PasswordCrypt(value);
                 this.password = null;
                 this.cryptPasswordTip = null;
 
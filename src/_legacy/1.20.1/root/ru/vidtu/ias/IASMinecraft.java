@@ -50,8 +50,10 @@ import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.account.AccountRefresher;
 import ru.vidtu.ias.auth.LoginData;
 import ru.vidtu.ias.config.IASConfig;
+import ru.vidtu.ias.config.StorageSaver;
 import ru.vidtu.ias.extension.MinecraftExtension;
 import ru.vidtu.ias.mixins.MinecraftAccessor;
 import ru.vidtu.ias.screen.AccountScreen;
@@ -75,6 +77,11 @@ public final class IASMinecraft {
      */
     public static final SystemToast.SystemToastIds NICK_WARN = SystemToast.SystemToastIds.UNSECURE_SERVER_WARNING;
 
+    /**
+     * Toast for storage save error.
+     */
+    public static final SystemToast.SystemToastIds STORAGE_ERROR = SystemToast.SystemToastIds.PACK_COPY_FAILURE;
+
     /**
      * Main mod UI sprite.
      */
@@ -125,6 +132,22 @@ public final class IASMinecraft {
 
         // Initialize the IAS.
         IAS.init(gameDir, configDir);
+
+        // Refresh the tokens in background only while in menus.
+        AccountRefresher.idle(() -> {
+            Minecraft minecraft = Minecraft.getInstance();
+            return minecraft.level == null && minecraft.getConnection() == null;
+        });
+
+        // Report background storage save failures.
+        StorageSaver.listener(t -> {
+            Minecraft minecraft = Minecraft.getInstance();
+            minecraft.execute(() -> {
+                ToastComponent toasts = minecraft.getToasts();
+                if (toasts.getToast(SystemToast.class, STORAGE_ERROR) != null) return;
+                toasts.addToast(SystemToast.multiline(minecraft, STORAGE_ERROR, Component.literal("In-Game Account Switcher"), Component.translatable("ias.error.storage")));
+            });
+        });
     }
 
     /**
@@ -136,6 +159,9 @@ public final class IASMinecraft {
      */
     @SuppressWarnings({"ChainOfInstanceofChecks", "ConstantValue"}) // <- Abstraction for Minecraft is not possible, mods break user non-nullness.
     public static void onInit(Minecraft minecraft, Screen screen, Consumer<Button> buttonAdder) {
+        // Wait for the config. (usually loaded long before the first screen)
+        IAS.awaitConfig();
+
         // Add title button.
         if (IASConfig.titleButton && screen instanceof TitleScreen) {
             // Calculate the position.
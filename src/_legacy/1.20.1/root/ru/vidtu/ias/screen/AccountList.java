@@ -23,23 +23,29 @@ import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.minecraft.MinecraftProfileTexture;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.ObjectSelectionList;
+import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vidtu.ias.IAS;
 import ru.vidtu.ias.account.Account;
+import ru.vidtu.ias.account.AccountRecrypt;
+import ru.vidtu.ias.account.AccountRefresher;
+import ru.vidtu.ias.account.AccountTransfer;
 import ru.vidtu.ias.account.OfflineAccount;
 import ru.vidtu.ias.auth.LoginData;
 import ru.vidtu.ias.config.IASStorage;
+import ru.vidtu.ias.crypt.Crypt;
 import ru.vidtu.ias.legacy.Skin;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Predicate;
 
 /**
  * Account GUI list.
@@ -62,6 +68,21 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
      */
     private final AccountScreen screen;
 
+    /**
+     * Name of the user for which the {@link #named} accounts have been looked up, {@code null} if none.
+     */
+    private String namedUser;
+
+    /**
+     * Registry version of the {@link #named} accounts.
+     */
+    private long namedVersion;
+
+    /**
+     * Accounts with the {@link #namedUser} name, ignoring the case, {@code null} if not looked up.
+     */
+    private List<Account> named;
+
     /**
      * Creates a new accounts list widget.
      *
@@ -170,33 +191,92 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
         if (onComplete != null) onComplete.run();
     }
 
+    /**
+     * Re-encrypts all Microsoft accounts.
+     *
+     * @param target Target crypt, {@code null} to migrate every account to its preferred crypt
+     */
+    void recryptAll(Crypt target) {
+        // Initialize and set the progress screen.
+        LoginPopupScreen recrypt = new LoginPopupScreen(this.screen, Component.translatable("ias.recrypt"));
+        this.minecraft.setScreen(recrypt);
+
+        // Start re-encryption.
+        AccountRecrypt.recryptAll(target, recrypt);
+    }
+
+    /**
+     * Re-encrypts all accounts with the new password.
+     */
+    void recryptAllToPassword() {
+        // Initialize and set the progress screen.
+        LoginPopupScreen recrypt = new LoginPopupScreen(this.screen, Component.translatable("ias.recrypt"));
+        this.minecraft.setScreen(recrypt);
+
+        // Start re-encryption.
+        AccountRecrypt.recryptAllToPassword(recrypt);
+    }
+
+    /**
+     * Refreshes all Microsoft accounts.
+     */
+    void refreshAll() {
+        // Initialize and set the progress screen.
+        LoginPopupScreen refresh = new LoginPopupScreen(this.screen, Component.translatable("ias.refresh"));
+        this.minecraft.setScreen(refresh);
+
+        // Start refresh.
+        AccountRefresher.refreshAll(refresh);
+    }
+
+    /**
+     * Imports the accounts from the default transfer files in the game directory.
+     */
+    void importAll() {
+        // Initialize and set the progress screen.
+        LoginPopupScreen transfer = new LoginPopupScreen(this.screen, Component.translatable("ias.transfer.import"));
+        this.minecraft.setScreen(transfer);
+
+        // Start import.
+        Path dir = this.minecraft.gameDirectory.toPath();
+        AccountTransfer.importAll(List.of(dir.resolve(AccountTransfer.LINES_FILE), dir.resolve(AccountTransfer.JSON_FILE),
+                dir.resolve(AccountTransfer.BUNDLE_FILE)), transfer);
+    }
+
+    /**
+     * Exports the accounts into the default transfer files in the game directory.
+     *
+     * @param target Bundle crypt, {@code null} to encrypt the bundle with the password
+     */
+    void exportAll(Crypt target) {
+        // Initialize and set the progress screen.
+        LoginPopupScreen transfer = new LoginPopupScreen(this.screen, Component.translatable("ias.transfer.export"));
+        this.minecraft.setScreen(transfer);
+
+        // Start export.
+        Path dir = this.minecraft.gameDirectory.toPath();
+        AccountTransfer.exportAll(dir.resolve(AccountTransfer.JSON_FILE), dir.resolve(AccountTransfer.BUNDLE_FILE), target, transfer);
+    }
+
     void edit() {
         // Skip if nothing is selected.
         AccountEntry selected = this.getSelected();
         if (selected == null) return;
-        int index = this.children().indexOf(selected);
-        if (index < 0 || index >= IASStorage.ACCOUNTS.size()) return;
+        Account old = selected.account();
+        if (IASStorage.ACCOUNTS.position(old) < 0) return;
 
         // Replace in storage.
         this.minecraft.setScreen(new AddPopupScreen(this.screen, true, account -> {
             // Set to this.
             this.minecraft.setScreen(this.screen);
 
-            // Add the account and save it.
-            IASStorage.ACCOUNTS.removeIf(Predicate.isEqual(account));
-            if (index >= IASStorage.ACCOUNTS.size()) {
-                IASStorage.ACCOUNTS.add(account);
-            } else {
-                IASStorage.ACCOUNTS.set(index, account);
+            // Replace the account, or add it if the old one is gone.
+            if (!IASStorage.ACCOUNTS.replace(old, account)) {
+                IASStorage.ACCOUNTS.put(account);
             }
 
             // Save storage.
-            try {
-                IAS.disclaimersStorage();
-                IAS.saveStorage();
-            } catch (Throwable t) {
-                LOGGER.error("IAS: Unable to save storage.", t);
-            }
+            IAS.saveStorageLater();
 
             // Update the list.
             this.update(this.screen.search().getValue());
@@ -221,12 +301,7 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
             IASStorage.ACCOUNTS.remove(account);
 
             // Save storage.
-            try {
-                IAS.disclaimersStorage();
-                IAS.saveStorage();
-            } catch (Throwable t) {
-                LOGGER.error("IAS: Unable to save storage.", t);
-            }
+            IAS.saveStorageLater();
 
             // Update.
             this.update(this.screen.search().getValue());
@@ -236,15 +311,10 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
         // Display confirmation screen.
         this.minecraft.setScreen(new DeletePopupScreen(this.screen, account, () -> {
             // Delete if confirmed.
-            IASStorage.ACCOUNTS.removeIf(Predicate.isEqual(account));
+            IASStorage.ACCOUNTS.remove(account);
 
             // Save storage.
-            try {
-                IAS.disclaimersStorage();
-                IAS.saveStorage();
-            } catch (Throwable t) {
-                LOGGER.error("IAS: Unable to save storage.", t);
-            }
+            IAS.saveStorageLater();
 
             // Update.
             this.update(this.screen.search().getValue());
@@ -260,16 +330,10 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
             this.minecraft.setScreen(this.screen);
 
             // Add the account.
-            IASStorage.ACCOUNTS.removeIf(Predicate.isEqual(account));
-            IASStorage.ACCOUNTS.add(account);
+            IASStorage.ACCOUNTS.put(account);
 
             // Save storage.
-            try {
-                IAS.disclaimersStorage();
-                IAS.saveStorage();
-            } catch (Throwable t) {
-                LOGGER.error("IAS: Unable to save storage.", t);
-            }
+            IAS.saveStorageLater();
 
             // Update the list.
             this.update(this.screen.search().getValue());
@@ -335,22 +399,16 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
      */
     void swapUp(AccountEntry entry) {
         // Get and validate indexes.
-        int idx = this.children().indexOf(entry);
-        if (idx < 0 || idx >= IASStorage.ACCOUNTS.size()) return;
+        int idx = IASStorage.ACCOUNTS.position(entry.account());
+        if (idx < 0 || idx >= this.children().size() || this.children().get(idx) != entry) return;
         int upIdx = idx - 1;
         if (upIdx < 0) return;
 
         // Move storage.
-        IASStorage.ACCOUNTS.set(idx, IASStorage.ACCOUNTS.get(upIdx));
-        IASStorage.ACCOUNTS.set(upIdx, entry.account());
+        IASStorage.ACCOUNTS.swap(idx, upIdx);
 
         // Save storage.
-        try {
-            IAS.disclaimersStorage();
-            IAS.saveStorage();
-        } catch (Throwable t) {
-            LOGGER.error("IAS: Unable to save storage.", t);
-        }
+        IAS.saveStorageLater();
 
         // Move elements.
         this.children().set(idx, this.children().get(upIdx));
@@ -365,22 +423,16 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
      */
     void swapDown(AccountEntry entry) {
         // Get and validate indexes.
-        int idx = this.children().indexOf(entry);
-        if (idx < 0 || idx >= IASStorage.ACCOUNTS.size()) return;
+        int idx = IASStorage.ACCOUNTS.position(entry.account());
+        if (idx < 0 || idx >= this.children().size() || this.children().get(idx) != entry) return;
         int downIdx = idx + 1;
         if (downIdx >= this.children().size() || downIdx >= IASStorage.ACCOUNTS.size()) return;
 
         // Move storage.
-        IASStorage.ACCOUNTS.set(idx, IASStorage.ACCOUNTS.get(downIdx));
-        IASStorage.ACCOUNTS.set(downIdx, entry.account());
+        IASStorage.ACCOUNTS.swap(idx, downIdx);
 
         // Save storage.
-        try {
-            IAS.disclaimersStorage();
-            IAS.saveStorage();
-        } catch (Throwable t) {
-            LOGGER.error("IAS: Unable to save storage.", t);
-        }
+        IAS.saveStorageLater();
 
         // Move elements.
         this.children().set(idx, this.children().get(downIdx));
@@ -388,6 +440,26 @@ final class AccountList extends ObjectSelectionList<AccountEntry> {
         this.setSelected(entry);
     }
 
+    /**
+     * Gets the accounts with the name, ignoring the case. The lookup is cached until the user or the accounts change,
+     * so the name color of every entry is checked without comparing the names each frame.
+     *
+     * @param name Current user name
+     * @return Accounts with the name
+     */
+    List<Account> named(String name) {
+        // Look up again if changed.
+        long version = IASStorage.ACCOUNTS.version();
+        if (this.named == null || this.namedVersion != version || !name.equals(this.namedUser)) {
+            this.named = IASStorage.ACCOUNTS.named(name);
+            this.namedUser = name;
+            this.namedVersion = version;
+        }
+
+        // Return the cached.
+        return this.named;
+    }
+
     /**
      * Gets the screen.
      *
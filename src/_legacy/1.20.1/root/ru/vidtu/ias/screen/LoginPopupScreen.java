@@ -32,12 +32,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vidtu.ias.IAS;
 import ru.vidtu.ias.IASMinecraft;
+import ru.vidtu.ias.account.AccountRefresher;
 import ru.vidtu.ias.account.MicrosoftAccount;
 import ru.vidtu.ias.auth.LoginData;
 import ru.vidtu.ias.auth.handlers.LoginHandler;
+import ru.vidtu.ias.auth.handlers.RecryptHandler;
+import ru.vidtu.ias.auth.handlers.RefreshHandler;
+import ru.vidtu.ias.auth.handlers.TransferHandler;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
 
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
@@ -47,7 +52,7 @@ import java.util.function.Supplier;
  *
  * @author VidTu
  */
-final class LoginPopupScreen extends Screen implements LoginHandler {
+final class LoginPopupScreen extends Screen implements LoginHandler, RecryptHandler, RefreshHandler, TransferHandler {
     /**
      * Logger for this class.
      */
@@ -106,7 +111,17 @@ final class LoginPopupScreen extends Screen implements LoginHandler {
      * @param parent Parent screen
      */
     LoginPopupScreen(Screen parent) {
-        super(Component.translatable("ias.login"));
+        this(parent, Component.translatable("ias.login"));
+    }
+
+    /**
+     * Creates a new login screen.
+     *
+     * @param parent Parent screen
+     * @param title  Screen title
+     */
+    LoginPopupScreen(Screen parent, Component title) {
+        super(title);
         this.parent = parent;
     }
 
@@ -325,14 +340,19 @@ final class LoginPopupScreen extends Screen implements LoginHandler {
         // Bruh.
         assert this.minecraft != null;
 
-        // Return current future if exists.
-        if (this.passFuture != null) return this.passFuture;
+        // Return current future if exists and is not yet completed. (password may be requested again)
+        if (this.passFuture != null && !this.passFuture.isDone()) return this.passFuture;
 
         // Create a new future.
-        this.passFuture = new CompletableFuture<>();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        this.passFuture = future;
+        this.password = null;
 
         // Inject into pass future.
-        this.passFuture.thenAcceptAsync(password -> {
+        future.thenAcceptAsync(password -> {
+            // Skip if the password has been requested again.
+            if (this.passFuture != future) return;
+
             // Remove future on completion.
             this.passFuture = null;
             this.password = null;
@@ -346,7 +366,7 @@ final class LoginPopupScreen extends Screen implements LoginHandler {
         this.minecraft.execute(() -> this.init(this.minecraft, this.width, this.height));
 
         // Return created future.
-        return this.passFuture;
+        return future;
     }
 
     @Override
@@ -377,12 +397,7 @@ final class LoginPopupScreen extends Screen implements LoginHandler {
 
         // Save storage.
         if (changed) {
-            try {
-                IAS.disclaimersStorage();
-                IAS.saveStorage();
-            } catch (Throwable t) {
-                LOGGER.error("IAS: Unable to save storage.", t);
-            }
+            IAS.saveStorageLater();
         }
 
         IASMinecraft.account(this.minecraft, data).thenRunAsync(() -> {
@@ -400,6 +415,65 @@ final class LoginPopupScreen extends Screen implements LoginHandler {
         });
     }
 
+    @Override
+    public void recrypted(int recrypted, int skipped, int failed) {
+        // Bruh.
+        assert this.minecraft != null;
+
+        // Skip if not current screen.
+        if (this != this.minecraft.screen) return;
+
+        // Flush the stage.
+        Component component = Component.translatable("ias.recrypt.done", recrypted, skipped, failed).withStyle(failed == 0 ? ChatFormatting.GREEN : ChatFormatting.GOLD);
+        synchronized (this.lock) {
+            this.stage = component;
+            this.label = null;
+        }
+    }
+
+    @Override
+    public void refreshed(MicrosoftAccount account, AccountRefresher.Result result) {
+        // NO-OP, the progress is reported via stage.
+    }
+
+    @Override
+    public void refreshed(Map<AccountRefresher.Result, Integer> results) {
+        // Bruh.
+        assert this.minecraft != null;
+
+        // Skip if not current screen.
+        if (this != this.minecraft.screen) return;
+
+        // Flush the stage.
+        AccountRefresher.Result[] values = AccountRefresher.Result.values();
+        Object[] args = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            args[i] = results.getOrDefault(values[i], 0);
+        }
+        boolean failed = results.keySet().stream().anyMatch(result -> result != AccountRefresher.Result.OK && result != AccountRefresher.Result.SKIPPED);
+        Component component = Component.translatable("ias.refresh.done", args).withStyle(failed ? ChatFormatting.GOLD : ChatFormatting.GREEN);
+        synchronized (this.lock) {
+            this.stage = component;
+            this.label = null;
+        }
+    }
+
+    @Override
+    public void transferred(int transferred, int skipped, int failed) {
+        // Bruh.
+        assert this.minecraft != null;
+
+        // Skip if not current screen.
+        if (this != this.minecraft.screen) return;
+
+        // Flush the stage.
+        Component component = Component.translatable("ias.transfer.done", transferred, skipped, failed).withStyle(failed == 0 ? ChatFormatting.GREEN : ChatFormatting.GOLD);
+        synchronized (this.lock) {
+            this.stage = component;
+            this.label = null;
+        }
+    }
+
     @Override
     public void error(Throwable error) {
         // Bruh.
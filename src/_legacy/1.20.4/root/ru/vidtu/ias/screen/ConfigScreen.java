@@ -123,6 +123,9 @@ public final class ConfigScreen extends Screen {
         // Bruh.
         assert this.minecraft != null;
 
+        // Wait for the config, so the defaults are not shown and saved instead.
+        IAS.awaitConfig();
+
         // Disabled check.
         if (IAS.disabled()) {
             this.minecraft.setScreen(new AlertScreen(this::onClose, Component.translatable("ias.disabled.title").withStyle(ChatFormatting.RED),
@@ -429,6 +432,26 @@ public final class ConfigScreen extends Screen {
         box.setTooltipDelay(250);
         this.addRenderableWidget(box);
 
+        // Password Vault.
+        box = Checkbox.builder(Component.translatable("ias.config.passwordVault"), this.font)
+                .pos(5, 212)
+                .selected(IASConfig.passwordVault)
+                .onValueChange((cb, value) -> IASConfig.passwordVault = value)
+                .tooltip(Tooltip.create(Component.translatable("ias.config.passwordVault.tip")))
+                .build();
+        box.setTooltipDelay(250);
+        this.addRenderableWidget(box);
+
+        // Background Refresh.
+        box = Checkbox.builder(Component.translatable("ias.config.backgroundRefresh"), this.font)
+                .pos(10 + box.getWidth(), 212)
+                .selected(IASConfig.backgroundRefresh)
+                .onValueChange((cb, value) -> IASConfig.backgroundRefresh = value)
+                .tooltip(Tooltip.create(Component.translatable("ias.config.backgroundRefresh.tip")))
+                .build();
+        box.setTooltipDelay(250);
+        this.addRenderableWidget(box);
+
         // Add done button.
         this.addRenderableWidget(Button.builder(CommonComponents.GUI_DONE, btn -> this.onClose())
                 .bounds(this.width / 2 - 100, this.height - 24, 200, 20)
@@ -24,23 +24,30 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.account.AccountRefresher;
 import ru.vidtu.ias.auth.microsoft.MSAuth;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.config.IASStorage;
+import ru.vidtu.ias.config.StorageSaver;
+import ru.vidtu.ias.config.StorageWatcher;
+import ru.vidtu.ias.crypt.HardwareCrypt;
+import ru.vidtu.ias.crypt.Kdf;
+import ru.vidtu.ias.crypt.KeyCache;
+import ru.vidtu.ias.crypt.VaultCrypt;
 import ru.vidtu.ias.utils.Holder;
+import ru.vidtu.ias.utils.IHttp;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
 
 /**
  * Main IAS class.
@@ -78,6 +85,18 @@ public final class IAS {
     @Nullable
     private static ScheduledExecutorService executor;
 
+    /**
+     * Config loading task, {@code null} if IAS is not initialized.
+     */
+    @Nullable
+    private static volatile CompletableFuture<Void> configTask;
+
+    /**
+     * Storage loading task, {@code null} if IAS is not initialized.
+     */
+    @Nullable
+    private static volatile CompletableFuture<Void> storageTask;
+
     /**
      * Current IAS game directory.
      */
@@ -105,14 +124,18 @@ public final class IAS {
     }
 
     /**
-     * Initializes the IAS.
+     * Initializes the IAS. Only creates the executor and schedules the config and storage loading on it,
+     * so the mod loading is not blocked by the I/O and the storage decoding.
      *
      * @param gamePath   Game directory
      * @param configPath Config directory
+     * @see #awaitConfig()
+     * @see #awaitStorage()
      */
     public static void init(@NotNull Path gamePath, @NotNull Path configPath) {
         // Log.
         LOGGER.info("IAS: Initializing IAS...");
+        long start = System.nanoTime();
 
         // Initialize the dirs.
         gameDirectory = gamePath;
@@ -121,29 +144,49 @@ public final class IAS {
         // Set up IAS.
         LOGGER.debug("IAS: Current user agent: {}", USER_AGENT);
 
-        // Write the disclaimers.
-        try {
-            disclaimersStorage();
-        } catch (Throwable t) {
-            LOGGER.error("IAS: Unable to write disclaimers.", t);
-        }
+        // Create the executor.
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "IAS"));
 
         // Read the config.
-        try {
-            loadConfig();
-        } catch (Throwable t) {
-            LOGGER.error("IAS: Unable to load IAS config.", t);
-        }
+        configTask = CompletableFuture.runAsync(() -> {
+            try {
+                loadConfig();
+            } catch (Throwable t) {
+                LOGGER.error("IAS: Unable to load IAS config.", t);
+            }
+        }, executor);
 
-        // Read the storage.
-        try {
-            loadStorage();
-        } catch (Throwable t) {
-            LOGGER.error("IAS: Unable to load IAS storage.", t);
-        }
+        // Write the disclaimers and read the storage.
+        storageTask = CompletableFuture.runAsync(() -> {
+            try {
+                disclaimersStorage();
+            } catch (Throwable t) {
+                LOGGER.error("IAS: Unable to write disclaimers.", t);
+            }
+            try {
+                loadStorage();
+            } catch (Throwable t) {
+                LOGGER.error("IAS: Unable to load IAS storage.", t);
+            }
+            StorageWatcher.start(gamePath);
+            LOGGER.debug("IAS: Config and storage have been loaded in {} ms.", (System.nanoTime() - start) / 1_000_000L);
+        }, executor);
 
-        // Create the executor.
-        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "IAS"));
+        // Start the storage saver.
+        StorageSaver.start();
+
+        // Evict idle cached keys.
+        executor.scheduleWithFixedDelay(KeyCache::purge, 1L, 1L, TimeUnit.MINUTES);
+
+        // Lock the idle vault.
+        executor.scheduleWithFixedDelay(VaultCrypt::autoLock, 1L, 1L, TimeUnit.MINUTES);
+
+        // Refresh the expiring tokens while idle. (if enabled)
+        AccountRefresher.start();
+
+        // Pre-compute the hardware ID and calibrate the KDF off the login path.
+        executor.execute(HardwareCrypt.INSTANCE_V4::prewarm);
+        executor.execute(Kdf::current);
 
         // Perform initial loading.
         if (Boolean.getBoolean("ias.skipDisableScanning")) {
@@ -161,28 +204,20 @@ public final class IAS {
                     return;
                 }
 
-                // Create the client.
-                HttpClient client = HttpClient.newBuilder()
-                        .connectTimeout(TIMEOUT)
-                        .version(HttpClient.Version.HTTP_2)
-                        .followRedirects(HttpClient.Redirect.NORMAL)
-                        .executor(Runnable::run)
-                        .build();
-
                 // Send the request.
-                HttpResponse<Stream<String>> response = client.send(HttpRequest.newBuilder()
+                HttpResponse<String> response = IHttp.send(HttpRequest.newBuilder()
                         .uri(new URI("https://raw.githubusercontent.com/The-Fireplace-Minecraft-Mods/In-Game-Account-Switcher/main/.ias/disabled_v1"))
                         .header("User-Agent", USER_AGENT)
                         .timeout(TIMEOUT)
                         .GET()
-                        .build(), HttpResponse.BodyHandlers.ofLines());
+                        .build());
 
                 // Validate the code.
                 int code = response.statusCode();
                 if (code < 200 || code > 299) return;
 
                 // Check the lines.
-                disabled = disabled || response.body().anyMatch(line -> {
+                disabled = disabled || response.body().lines().anyMatch(line -> {
                     line = line.strip();
                     return "ALL".equalsIgnoreCase(line) || version.equalsIgnoreCase(line);
                 });
@@ -205,7 +240,7 @@ public final class IAS {
         }, 0L, 60L, TimeUnit.MINUTES));
 
         // Log.
-        LOGGER.info("IAS: IAS has been loaded.");
+        LOGGER.info("IAS: IAS has been loaded in {} ms.", (System.nanoTime() - start) / 1_000_000L);
     }
 
     /**
@@ -254,6 +289,20 @@ public final class IAS {
             Thread.currentThread().interrupt();
         }
         executor = null;
+        configTask = null;
+        storageTask = null;
+
+        // Stop watching the storage and flush the pending storage save.
+        StorageWatcher.close();
+        StorageSaver.close();
+
+        // Wipe the cached keys.
+        KeyCache.clear();
+        VaultCrypt.lock();
+        HardwareCrypt.INSTANCE_V1.invalidate();
+        HardwareCrypt.INSTANCE_V2.invalidate();
+        HardwareCrypt.INSTANCE_V3.invalidate();
+        HardwareCrypt.INSTANCE_V4.invalidate();
 
         // Write the disclaimers, if we can.
         if (gameDirectory != null) {
@@ -282,6 +331,38 @@ public final class IAS {
         return executor;
     }
 
+    /**
+     * Waits for the config to be loaded. Returns immediately if it's already loaded or if IAS is not initialized.
+     * Must be called before reading the {@link IASConfig} values that affect the result, e.g. on screen initialization.
+     */
+    public static void awaitConfig() {
+        await(configTask, "config");
+    }
+
+    /**
+     * Waits for the storage to be loaded. Returns immediately if it's already loaded or if IAS is not initialized.
+     * Must be called before accessing the {@link IASStorage} state, e.g. before opening the accounts screen.
+     */
+    public static void awaitStorage() {
+        await(storageTask, "storage");
+    }
+
+    /**
+     * Waits for the loading task to complete.
+     *
+     * @param task Target task, {@code null} if IAS is not initialized
+     * @param name Task name for logging
+     */
+    private static void await(@Nullable CompletableFuture<Void> task, @NotNull String name) {
+        // Skip if not required.
+        if (task == null || task.isDone()) return;
+
+        // Wait. (the tasks are logging their errors themselves)
+        long start = System.nanoTime();
+        task.join();
+        LOGGER.debug("IAS: Waited {} ms for the {} to load.", (System.nanoTime() - start) / 1_000_000L, name);
+    }
+
     /**
      * Gets the disabled state.
      *
@@ -321,13 +402,25 @@ public final class IAS {
 
     /**
      * Delegates to {@link IASStorage#save(Path)} with {@link #gameDirectory}.
+     * Waits for the storage to be loaded first, so the storage is never overwritten before it's read.
      *
      * @throws RuntimeException If unable to save the storage
      */
     public static void saveStorage() {
+        awaitStorage();
         IASStorage.save(gameDirectory);
     }
 
+    /**
+     * Delegates to {@link StorageSaver#request(Path)} with {@link #gameDirectory}.
+     * Failures are logged and reported to the {@link StorageSaver#listener(java.util.function.Consumer)}.
+     * Waits for the storage to be loaded first, so the storage is never overwritten before it's read.
+     */
+    public static void saveStorageLater() {
+        awaitStorage();
+        StorageSaver.request(gameDirectory);
+    }
+
     /**
      * Delegates to {@link IASStorage#disclaimers(Path)} with {@link #gameDirectory}.
      *
@@ -337,6 +430,17 @@ public final class IAS {
         IASStorage.disclaimers(gameDirectory);
     }
 
+    /**
+     * Delegates to {@link IASStorage#vault(Path, byte[])} with {@link #gameDirectory}.
+     *
+     * @param header Header to create if missing, {@code null} to only read the header
+     * @return Stored vault header, {@code null} if missing and {@code header} is {@code null}
+     * @throws RuntimeException If unable to read or write the vault header
+     */
+    public static byte @Nullable [] vaultStorage(byte @Nullable [] header) {
+        return IASStorage.vault(gameDirectory, header);
+    }
+
     /**
      * Delegates to {@link IASStorage#gameDisclaimerShown(Path)} with {@link #gameDirectory}.
      *
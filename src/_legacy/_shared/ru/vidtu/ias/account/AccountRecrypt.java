@@ -0,0 +1,406 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.account;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.IAS;
+import ru.vidtu.ias.auth.handlers.RecryptHandler;
+import ru.vidtu.ias.config.IASConfig;
+import ru.vidtu.ias.config.IASStorage;
+import ru.vidtu.ias.crypt.Crypt;
+import ru.vidtu.ias.crypt.PasswordCrypt;
+import ru.vidtu.ias.crypt.VaultCrypt;
+import ru.vidtu.ias.utils.Holder;
+import ru.vidtu.ias.utils.exceptions.FriendlyException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bulk re-encryption of the stored Microsoft accounts.
+ * <p>
+ * Crypts (and the password, if required) are resolved first, then every account is decrypted and encrypted again
+ * in parallel on a bounded fork-join pool. Password-encrypted accounts that the entered password doesn't decrypt
+ * are retried one by one, asking for their password. The storage is written only once, after all accounts are processed.
+ *
+ * @author VidTu
+ */
+public final class AccountRecrypt {
+    /**
+     * Reading account crypts.
+     */
+    @NotNull
+    public static final String RESOLVING = "ias.recrypt.resolving";
+
+    /**
+     * Entering the new password for all accounts.
+     */
+    @NotNull
+    public static final String TARGET = "ias.recrypt.target";
+
+    /**
+     * Entering the password of the account that the entered passwords don't decrypt. Args: account name.
+     */
+    @NotNull
+    public static final String PASSWORD = "ias.recrypt.password";
+
+    /**
+     * Re-encrypting accounts. Args: done accounts, total accounts.
+     */
+    @NotNull
+    public static final String PROGRESS = "ias.recrypt.progress";
+
+    /**
+     * Saving the storage.
+     */
+    @NotNull
+    public static final String SAVING = "ias.recrypt.saving";
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/AccountRecrypt");
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private AccountRecrypt() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Re-encrypts all stored Microsoft accounts with the new password. The new password is requested first,
+     * the accounts are moved into the password vault if it's enabled.
+     *
+     * @param handler Re-encryption handler
+     * @see IASConfig#passwordVault
+     */
+    public static void recryptAllToPassword(@NotNull RecryptHandler handler) {
+        try {
+            // Log it and display progress.
+            LOGGER.info("IAS: Requesting the new password for all accounts...");
+            handler.stage(TARGET);
+
+            // Request the new password.
+            handler.password().thenAcceptAsync(password -> {
+                // Skip if cancelled.
+                if (password == null || handler.cancelled()) return;
+
+                // Reject the password that doesn't match the vault.
+                if (IASConfig.passwordVault && !VaultCrypt.accepts(password)) {
+                    throw new FriendlyException("Vault password mismatch.", "ias.error.vaultPassword");
+                }
+
+                // Re-encrypt.
+                recryptAll(IASConfig.passwordVault ? VaultCrypt.of(password) : new PasswordCrypt(password), handler);
+            }, IAS.executor()).exceptionallyAsync(t -> {
+                // Handle error.
+                handler.error(new RuntimeException("Unable to re-encrypt accounts with the password.", t));
+
+                // Return null.
+                return null;
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Handle.
+            handler.error(new RuntimeException("Unable to begin accounts re-encryption with the password.", t));
+        }
+    }
+
+    /**
+     * Re-encrypts all stored Microsoft accounts.
+     *
+     * @param target  Target crypt, {@code null} to migrate every account to its preferred crypt (see {@link Crypt#migrate()})
+     * @param handler Re-encryption handler
+     */
+    public static void recryptAll(@Nullable Crypt target, @NotNull RecryptHandler handler) {
+        try {
+            // Snapshot the accounts.
+            List<Account> snapshot = IASStorage.ACCOUNTS.snapshot().accounts();
+            List<MicrosoftAccount> accounts = new ArrayList<>(snapshot.size());
+            for (Account account : snapshot) {
+                if (!(account instanceof MicrosoftAccount ms)) continue;
+                accounts.add(ms);
+            }
+            int total = accounts.size();
+
+            // Log it and display progress.
+            LOGGER.info("IAS: Re-encrypting {} accounts to {}...", total, target);
+            handler.stage(RESOLVING);
+
+            // Request the password only once.
+            Holder<CompletableFuture<String>> passFuture = new Holder<>();
+            Supplier<CompletableFuture<String>> password = () -> {
+                synchronized (passFuture) {
+                    CompletableFuture<String> future = passFuture.get();
+                    if (future == null) {
+                        future = handler.password();
+                        passFuture.set(future);
+                    }
+                    return future;
+                }
+            };
+
+            // Resolve the crypts.
+            List<CompletableFuture<Crypt>> crypts = new ArrayList<>(total);
+            for (MicrosoftAccount account : accounts) {
+                crypts.add(account.crypt(password).exceptionally(t -> {
+                    LOGGER.warn("IAS: Unable to read crypt of {}.", account, t);
+                    return null;
+                }));
+            }
+
+            // Re-encrypt in parallel.
+            CompletableFuture.allOf(crypts.toArray(CompletableFuture<?>[]::new)).thenComposeAsync(ignored -> {
+                // Create the pool.
+                int parallelism = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), total));
+                ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    thread.setName("IAS Recrypt #" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }, null, false);
+
+                // Submit the tasks.
+                AtomicInteger done = new AtomicInteger();
+                AtomicInteger skipped = new AtomicInteger();
+                AtomicInteger failed = new AtomicInteger();
+                Map<Account, Replacement> replaced = new IdentityHashMap<>(total);
+                Deque<MicrosoftAccount> retries = new ArrayDeque<>(0);
+                List<CompletableFuture<?>> tasks = new ArrayList<>(total);
+                handler.stage(PROGRESS, 0, total);
+                for (int i = 0; i < total; i++) {
+                    MicrosoftAccount account = accounts.get(i);
+                    Crypt crypt = crypts.get(i).join();
+                    Crypt to = target != null ? target : (crypt != null ? crypt.migrate() : null);
+                    if (crypt == null || to == null || to.equals(crypt)) {
+                        // Skip unreadable, cancelled, or already up-to-date.
+                        skipped.incrementAndGet();
+                        handler.stage(PROGRESS, done.incrementAndGet(), total);
+                        continue;
+                    }
+                    tasks.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            // Skip if cancelled.
+                            if (handler.cancelled()) {
+                                skipped.incrementAndGet();
+                                return;
+                            }
+
+                            // Re-encrypt.
+                            Object revision = account.revision();
+                            MicrosoftAccount recrypted = account.recrypt(crypt, to);
+                            synchronized (replaced) {
+                                replaced.put(account, new Replacement(recrypted, revision));
+                            }
+                        } catch (Throwable t) {
+                            // Retry with another password later, if the password doesn't match.
+                            if (crypt instanceof PasswordCrypt && mismatch(t)) {
+                                LOGGER.info("IAS: Entered password doesn't decrypt {}, will ask for its password.", account);
+                                synchronized (retries) {
+                                    retries.add(account);
+                                }
+                                return;
+                            }
+                            LOGGER.warn("IAS: Unable to re-encrypt {}.", account, t);
+                            failed.incrementAndGet();
+                        } finally {
+                            handler.stage(PROGRESS, done.incrementAndGet(), total);
+                        }
+                    }, pool));
+                }
+
+                // Wait for the tasks, then retry the accounts with other passwords.
+                return CompletableFuture.allOf(tasks.toArray(CompletableFuture<?>[]::new)).whenComplete((v, t) -> pool.shutdown()).thenComposeAsync(v -> {
+                    // Drain the retries, the retry pass consumes them asynchronously.
+                    Deque<MicrosoftAccount> pending;
+                    synchronized (retries) {
+                        pending = new ArrayDeque<>(retries);
+                        retries.clear();
+                    }
+                    return retry(pending, target, handler, new ArrayList<>(0), replaced, skipped, failed);
+                }, IAS.executor()).thenApplyAsync(v -> {
+                    // Replace the accounts, unless their data has been changed (e.g. by the token refresh) in between.
+                    AtomicInteger changed = new AtomicInteger();
+                    int recrypted;
+                    synchronized (replaced) {
+                        if (replaced.isEmpty()) return new Result(0, skipped.get(), failed.get());
+                        IASStorage.ACCOUNTS.update(list -> list.replaceAll(account -> {
+                            Replacement replacement = replaced.get(account);
+                            if (replacement == null) return account;
+                            if (((MicrosoftAccount) account).revision() != replacement.revision) {
+                                LOGGER.info("IAS: Account {} has been changed while re-encrypting, skipping it.", account);
+                                changed.incrementAndGet();
+                                return account;
+                            }
+                            return replacement.account;
+                        }));
+                        recrypted = replaced.size() - changed.get();
+                    }
+
+                    // Save the storage once.
+                    handler.stage(SAVING);
+                    IAS.disclaimersStorage();
+                    IAS.saveStorage();
+                    return new Result(recrypted, skipped.addAndGet(changed.get()), failed.get());
+                }, IAS.executor());
+            }, IAS.executor()).thenAcceptAsync(result -> {
+                // Log and notify.
+                LOGGER.info("IAS: Re-encrypted {} accounts. ({} skipped, {} failed)", result.recrypted, result.skipped, result.failed);
+                handler.recrypted(result.recrypted, result.skipped, result.failed);
+            }, IAS.executor()).exceptionallyAsync(t -> {
+                // Handle error.
+                handler.error(new RuntimeException("Unable to re-encrypt accounts.", t));
+
+                // Return null.
+                return null;
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Handle.
+            handler.error(new RuntimeException("Unable to begin accounts re-encryption.", t));
+        }
+    }
+
+    /**
+     * Re-encrypts the accounts that the first entered password doesn't decrypt, one by one. Every account is tried
+     * with the passwords entered so far, and the password is requested if none of them decrypts it.
+     * If the password entry is cancelled, the remaining accounts are skipped.
+     *
+     * @param accounts  Accounts to re-encrypt, will be consumed
+     * @param target    Target crypt, {@code null} to migrate every account to its preferred crypt
+     * @param handler   Re-encryption handler
+     * @param passwords Passwords entered after the first one, will be appended to
+     * @param replaced  Re-encrypted accounts by their originals, guarded by itself
+     * @param skipped   Skipped accounts counter
+     * @param failed    Failed accounts counter
+     * @return Future that will complete when all accounts are processed or exceptionally
+     */
+    @CheckReturnValue
+    @NotNull
+    private static CompletableFuture<Void> retry(@NotNull Deque<MicrosoftAccount> accounts, @Nullable Crypt target,
+                                                 @NotNull RecryptHandler handler, @NotNull List<String> passwords,
+                                                 @NotNull Map<Account, Replacement> replaced, @NotNull AtomicInteger skipped,
+                                                 @NotNull AtomicInteger failed) {
+        for (MicrosoftAccount account; (account = accounts.poll()) != null; ) {
+            // Skip if cancelled.
+            if (handler.cancelled()) {
+                skipped.incrementAndGet();
+                continue;
+            }
+
+            // Try the known passwords.
+            boolean matched = false;
+            for (String password : passwords) {
+                try {
+                    Crypt crypt = account.crypt(() -> CompletableFuture.completedFuture(password)).join();
+                    Crypt to = target != null ? target : crypt.migrate();
+                    if (to == null || to.equals(crypt)) {
+                        skipped.incrementAndGet();
+                    } else {
+                        Object revision = account.revision();
+                        MicrosoftAccount recrypted = account.recrypt(crypt, to);
+                        synchronized (replaced) {
+                            replaced.put(account, new Replacement(recrypted, revision));
+                        }
+                    }
+                    matched = true;
+                    break;
+                } catch (Throwable t) {
+                    // Try the next password if it doesn't match.
+                    if (mismatch(t)) continue;
+                    LOGGER.warn("IAS: Unable to re-encrypt {}.", account, t);
+                    failed.incrementAndGet();
+                    matched = true;
+                    break;
+                }
+            }
+            if (matched) continue;
+
+            // Request the password of this account.
+            MicrosoftAccount current = account;
+            handler.stage(PASSWORD, account.name());
+            return handler.password().thenComposeAsync(password -> {
+                // Skip the remaining accounts if cancelled.
+                if (password == null || handler.cancelled()) {
+                    skipped.addAndGet(1 + accounts.size());
+                    accounts.clear();
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                // Retry this account with the entered password.
+                passwords.add(password);
+                accounts.addFirst(current);
+                return retry(accounts, target, handler, passwords, replaced, skipped, failed);
+            }, IAS.executor());
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Checks whether the re-encryption has failed because the password doesn't decrypt the account.
+     *
+     * @param t Re-encryption error
+     * @return Whether the password doesn't match
+     */
+    @Contract(pure = true)
+    private static boolean mismatch(@NotNull Throwable t) {
+        FriendlyException friendly = FriendlyException.friendlyInChain(t);
+        return friendly != null && ("ias.error.decrypt".equals(friendly.key()) || "ias.error.vaultPassword".equals(friendly.key()));
+    }
+
+    /**
+     * Re-encrypted account.
+     *
+     * @param account  Re-encrypted account
+     * @param revision Data revision of the original account that has been re-encrypted
+     * @see MicrosoftAccount#revision()
+     */
+    private record Replacement(@NotNull MicrosoftAccount account, @NotNull Object revision) {
+        // Empty
+    }
+
+    /**
+     * Re-encryption result.
+     *
+     * @param recrypted Amount of re-encrypted accounts
+     * @param skipped   Amount of skipped accounts
+     * @param failed    Amount of failed accounts
+     */
+    private record Result(int recrypted, int skipped, int failed) {
+        // Empty
+    }
+}
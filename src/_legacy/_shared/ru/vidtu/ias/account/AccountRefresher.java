@@ -0,0 +1,504 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.account;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.IAS;
+import ru.vidtu.ias.auth.LoginData;
+import ru.vidtu.ias.auth.handlers.LoginHandler;
+import ru.vidtu.ias.auth.handlers.RefreshHandler;
+import ru.vidtu.ias.config.IASConfig;
+import ru.vidtu.ias.config.IASStorage;
+import ru.vidtu.ias.crypt.VaultCrypt;
+import ru.vidtu.ias.utils.Holder;
+import ru.vidtu.ias.utils.exceptions.FriendlyException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Background refresher of the expiring Microsoft account tokens, so the user-initiated login almost always
+ * uses the fresh token instead of refreshing it. Runs only if {@link IASConfig#backgroundRefresh} is enabled
+ * and the game is {@link #idle(BooleanSupplier) idle}. Never asks for the password: the password-crypted
+ * accounts are skipped and the vault-crypted accounts are refreshed only while the vault is unlocked.
+ * <p>
+ * Also performs the user-initiated {@link #refreshAll(RefreshHandler) bulk refresh} of all accounts.
+ *
+ * @author VidTu
+ */
+public final class AccountRefresher {
+    /**
+     * Refreshing accounts. Args: refreshed accounts, total accounts.
+     */
+    @NotNull
+    public static final String PROGRESS = "ias.refresh.progress";
+
+    /**
+     * Saving the storage.
+     */
+    @NotNull
+    public static final String SAVING = "ias.refresh.saving";
+
+    /**
+     * Delay between the refresh checks, in minutes.
+     */
+    private static final long INTERVAL_MINUTES = Math.max(1L, Long.getLong("ias.refresh.intervalMinutes", 5L));
+
+    /**
+     * Tokens expiring within this duration are refreshed.
+     */
+    @NotNull
+    private static final Duration AHEAD = Duration.ofMinutes(Math.max(10L, Long.getLong("ias.refresh.aheadMinutes", 60L)));
+
+    /**
+     * Maximum amount of refresh attempts per check. Protects the auth servers from the request bursts.
+     */
+    private static final int MAX_PER_RUN = Math.max(1, Integer.getInteger("ias.refresh.maxPerRun", 2));
+
+    /**
+     * Maximum amount of accounts refreshed at once by the bulk refresh.
+     */
+    private static final int CONCURRENCY = Math.max(1, Integer.getInteger("ias.refresh.concurrency", 4));
+
+    /**
+     * Delay before retrying the account that failed to refresh.
+     */
+    @NotNull
+    private static final Duration COOLDOWN = Duration.ofMinutes(30L);
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/AccountRefresher");
+
+    /**
+     * Background login handler. Never provides the password.
+     */
+    @NotNull
+    private static final LoginHandler HANDLER = new LoginHandler() {
+        @Override
+        public boolean cancelled() {
+            return !IASConfig.backgroundRefresh;
+        }
+
+        @Override
+        public void stage(@NotNull String stage, @Nullable Object @NotNull ... args) {
+            // NO-OP
+        }
+
+        @Override
+        @NotNull
+        public CompletableFuture<String> password() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void success(@NotNull LoginData data, boolean changed) {
+            // NO-OP
+        }
+
+        @Override
+        public void error(@NotNull Throwable error) {
+            // NO-OP
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "AccountRefresher.HANDLER{}";
+        }
+    };
+
+    /**
+     * Failed account UUIDs mapped to the {@link System#nanoTime()} before which they're not retried.
+     */
+    @NotNull
+    private static final Map<UUID, Long> COOLDOWNS = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the refresh is in progress.
+     */
+    @NotNull
+    private static final AtomicBoolean RUNNING = new AtomicBoolean();
+
+    /**
+     * Whether the game is idle (e.g. in menus and not in the world), {@code false} until set by the platform.
+     */
+    @NotNull
+    private static volatile BooleanSupplier idle = () -> false;
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private AccountRefresher() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Sets the idle state provider. The tokens are refreshed only while the game is idle.
+     *
+     * @param idle Provider of whether the game is idle, called on the IAS executor
+     */
+    public static void idle(@NotNull BooleanSupplier idle) {
+        AccountRefresher.idle = idle;
+    }
+
+    /**
+     * Schedules the refresh checks on the IAS executor.
+     */
+    public static void start() {
+        IAS.executor().scheduleWithFixedDelay(AccountRefresher::run, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Refreshes all Microsoft accounts, {@link #CONCURRENCY} accounts at once, and saves the storage once.
+     *
+     * @param handler Refresh handler
+     */
+    public static void refreshAll(@NotNull RefreshHandler handler) {
+        try {
+            // Snapshot the accounts.
+            List<Account> snapshot = IASStorage.ACCOUNTS.snapshot().accounts();
+            List<MicrosoftAccount> accounts = new ArrayList<>(snapshot.size());
+            for (Account account : snapshot) {
+                if (!(account instanceof MicrosoftAccount ms)) continue;
+                accounts.add(ms);
+            }
+            int total = accounts.size();
+
+            // Log it and display progress.
+            LOGGER.info("IAS: Refreshing {} accounts, {} at once...", total, CONCURRENCY);
+            handler.stage(PROGRESS, 0, total);
+
+            // Request the password only once.
+            Holder<CompletableFuture<String>> passFuture = new Holder<>();
+            LoginHandler login = new LoginHandler() {
+                @Override
+                public boolean cancelled() {
+                    return handler.cancelled();
+                }
+
+                @Override
+                public void stage(@NotNull String stage, @Nullable Object @NotNull ... args) {
+                    // NO-OP
+                }
+
+                @Override
+                @NotNull
+                public CompletableFuture<String> password() {
+                    synchronized (passFuture) {
+                        CompletableFuture<String> future = passFuture.get();
+                        if (future == null) {
+                            future = handler.password();
+                            passFuture.set(future);
+                        }
+                        return future;
+                    }
+                }
+
+                @Override
+                public void success(@NotNull LoginData data, boolean changed) {
+                    // NO-OP
+                }
+
+                @Override
+                public void error(@NotNull Throwable error) {
+                    // NO-OP
+                }
+
+                @Contract(pure = true)
+                @Override
+                @NotNull
+                public String toString() {
+                    return "AccountRefresher.refreshAll{handler=" + handler + '}';
+                }
+            };
+
+            // Start the workers.
+            Iterator<MicrosoftAccount> queue = accounts.iterator();
+            Map<Result, Integer> results = new EnumMap<>(Result.class);
+            AtomicInteger done = new AtomicInteger();
+            int workers = Math.min(CONCURRENCY, total);
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                tasks.add(work(queue, login, handler, results, done, total));
+            }
+
+            // Wait for the workers.
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture<?>[]::new)).thenApplyAsync(ignored -> {
+                // Save the storage once.
+                Map<Result, Integer> copy;
+                synchronized (results) {
+                    copy = new EnumMap<>(results);
+                }
+                if (copy.getOrDefault(Result.OK, 0) > 0) {
+                    handler.stage(SAVING);
+                    IAS.disclaimersStorage();
+                    IAS.saveStorage();
+                }
+                return copy;
+            }, IAS.executor()).thenAcceptAsync(result -> {
+                // Log and notify.
+                LOGGER.info("IAS: Refreshed accounts: {}", result);
+                handler.refreshed(result);
+            }, IAS.executor()).exceptionallyAsync(t -> {
+                // Handle error.
+                handler.error(new RuntimeException("Unable to refresh accounts.", t));
+
+                // Return null.
+                return null;
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Handle.
+            handler.error(new RuntimeException("Unable to begin accounts refresh.", t));
+        }
+    }
+
+    /**
+     * Refreshes the accounts from the queue one by one until it's empty.
+     *
+     * @param queue   Accounts queue, guarded by itself
+     * @param login   Login handler for the refresh
+     * @param handler Refresh handler
+     * @param results Refresh results, guarded by itself
+     * @param done    Amount of processed accounts
+     * @param total   Total amount of accounts
+     * @return Future that will complete when the queue is empty
+     */
+    @NotNull
+    private static CompletableFuture<Void> work(@NotNull Iterator<MicrosoftAccount> queue, @NotNull LoginHandler login,
+                                                @NotNull RefreshHandler handler, @NotNull Map<Result, Integer> results,
+                                                @NotNull AtomicInteger done, int total) {
+        // Take the next account.
+        MicrosoftAccount account;
+        synchronized (queue) {
+            if (!queue.hasNext()) return CompletableFuture.completedFuture(null);
+            account = queue.next();
+        }
+
+        // Refresh, unless cancelled or being logged into.
+        CompletableFuture<Boolean> future = handler.cancelled() || account.busy() ? CompletableFuture.completedFuture(null) : account.refresh(login, null);
+        return future.handleAsync((refreshed, t) -> {
+            // Classify and log the result.
+            Result result;
+            if (t != null) {
+                result = Result.of(t);
+                LOGGER.warn("IAS: Unable to refresh {}: {}", account, result, t);
+            } else {
+                result = refreshed != null ? Result.OK : Result.SKIPPED;
+                LOGGER.info("IAS: Refreshed {}: {}", account, result);
+            }
+
+            // Report it.
+            synchronized (results) {
+                results.merge(result, 1, Integer::sum);
+            }
+            handler.refreshed(account, result);
+            handler.stage(PROGRESS, done.incrementAndGet(), total);
+
+            // Next.
+            return work(queue, login, handler, results, done, total);
+        }, IAS.executor()).thenCompose(Function.identity());
+    }
+
+    /**
+     * Refreshes the expiring tokens, if enabled and idle. Does nothing if the previous refresh is still in progress.
+     */
+    private static void run() {
+        try {
+            // Skip if disabled, not idle or already running.
+            if (!IASConfig.backgroundRefresh || !idle.getAsBoolean() || !RUNNING.compareAndSet(false, true)) return;
+
+            // Find the accounts that are expiring or not yet checked, and not being logged into.
+            long now = System.nanoTime();
+            long deadline = System.currentTimeMillis() + AHEAD.toMillis();
+            List<MicrosoftAccount> accounts = new ArrayList<>();
+            for (Account account : IASStorage.ACCOUNTS.snapshot().accounts()) {
+                if (!(account instanceof MicrosoftAccount ms) || ms.busy()) continue;
+                Long cooldown = COOLDOWNS.get(ms.uuid());
+                if (cooldown != null && (now - cooldown) < 0L) continue;
+                long expires = ms.expires();
+                if (expires != 0L && expires > deadline) continue;
+                accounts.add(ms);
+            }
+
+            // Skip if nothing to refresh.
+            if (accounts.isEmpty()) {
+                RUNNING.set(false);
+                return;
+            }
+
+            // Refresh one by one, keeping the vault usage time.
+            LOGGER.debug("IAS: Checking {} accounts for background refresh...", accounts.size());
+            VaultCrypt vault = VaultCrypt.unlocked();
+            long used = vault != null ? vault.used() : 0L;
+            next(accounts.iterator(), MAX_PER_RUN, 0).whenCompleteAsync((refreshed, t) -> {
+                try {
+                    // Rewind the vault usage time.
+                    if (vault != null) {
+                        vault.rewind(used);
+                    }
+
+                    // Log the error.
+                    if (t != null) {
+                        LOGGER.error("IAS: Unable to refresh accounts in background.", t);
+                    }
+
+                    // Save the storage once.
+                    if (refreshed != null && refreshed > 0) {
+                        LOGGER.info("IAS: Refreshed {} accounts in background.", refreshed);
+                        IAS.disclaimersStorage();
+                        IAS.saveStorageLater();
+                    }
+                } catch (Throwable th) {
+                    // Log.
+                    LOGGER.error("IAS: Unable to save accounts refreshed in background.", th);
+                } finally {
+                    // Allow the next run.
+                    RUNNING.set(false);
+                }
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Log and allow the next run.
+            LOGGER.error("IAS: Unable to begin background refresh.", t);
+            RUNNING.set(false);
+        }
+    }
+
+    /**
+     * Refreshes the next account, if any.
+     *
+     * @param accounts  Remaining accounts
+     * @param attempts  Remaining refresh attempts
+     * @param refreshed Amount of already refreshed accounts
+     * @return Future that will complete with the total amount of refreshed accounts
+     */
+    @NotNull
+    private static CompletableFuture<Integer> next(@NotNull Iterator<MicrosoftAccount> accounts, int attempts, int refreshed) {
+        // Stop if no accounts or attempts left, if disabled or no longer idle.
+        if (attempts <= 0 || !accounts.hasNext() || HANDLER.cancelled() || !idle.getAsBoolean()) {
+            return CompletableFuture.completedFuture(refreshed);
+        }
+
+        // Skip if being logged into since the check.
+        MicrosoftAccount account = accounts.next();
+        if (account.busy()) return next(accounts, attempts, refreshed);
+
+        // Refresh.
+        return account.refresh(HANDLER, AHEAD).handleAsync((result, t) -> {
+            // Retry the failed account later.
+            if (t != null) {
+                LOGGER.warn("IAS: Unable to refresh {} in background, retrying in {}.", account, COOLDOWN, t);
+                COOLDOWNS.put(account.uuid(), System.nanoTime() + COOLDOWN.toNanos());
+                return next(accounts, attempts - 1, refreshed);
+            }
+
+            // Forget the cooldown.
+            COOLDOWNS.remove(account.uuid());
+
+            // Count only the refreshed accounts as attempts. (skipped accounts make no requests)
+            if (!Boolean.TRUE.equals(result)) return next(accounts, attempts, refreshed);
+            return next(accounts, attempts - 1, refreshed + 1);
+        }, IAS.executor()).thenCompose(Function.identity());
+    }
+
+    /**
+     * Account refresh result.
+     *
+     * @author VidTu
+     */
+    public enum Result {
+        /**
+         * Account has been refreshed.
+         */
+        OK,
+
+        /**
+         * Refresh token has expired or has been revoked, the account should be added again.
+         */
+        EXPIRED,
+
+        /**
+         * Microsoft account has no Xbox account linked.
+         */
+        NO_XBOX,
+
+        /**
+         * Xbox account has no Minecraft profile.
+         */
+        NO_PROFILE,
+
+        /**
+         * Xbox account has been banned.
+         */
+        BANNED,
+
+        /**
+         * Account has been skipped, because the password was not provided, the refresh was cancelled or the account was being logged into.
+         */
+        SKIPPED,
+
+        /**
+         * Account has failed to refresh for another reason, e.g. a network error.
+         */
+        FAILED;
+
+        /**
+         * Classifies the refresh error.
+         *
+         * @param error Refresh error
+         * @return Refresh result for the error
+         */
+        @Contract(pure = true)
+        @NotNull
+        public static Result of(@NotNull Throwable error) {
+            FriendlyException friendly = FriendlyException.friendlyInChain(error);
+            if (friendly == null) return FAILED;
+            return switch (friendly.key()) {
+                case "ias.error.expired" -> EXPIRED;
+                case "ias.error.noXbox" -> NO_XBOX;
+                case "ias.error.noProfile" -> NO_PROFILE;
+                case "ias.error.xboxBanned" -> BANNED;
+                default -> FAILED;
+            };
+        }
+    }
+}
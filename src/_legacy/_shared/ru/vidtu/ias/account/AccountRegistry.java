@@ -0,0 +1,909 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.account;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe versioned list of accounts.
+ * <p>
+ * Every change publishes a new immutable {@link Snapshot} with the incremented version. Readers never lock
+ * and never copy: they read the current snapshot, iterating over it never throws
+ * {@link java.util.ConcurrentModificationException}. Writers are serialized and copy the list once per change.
+ * <p>
+ * The registry also keeps the hash indexes of the accounts by UUID, by lowercase name and by position. The indexes
+ * are updated incrementally by every change (only the changed accounts and the shifted positions are touched), so
+ * lookups, deduplication and {@link #indexOf(Object)} don't scan the list. Accounts that change their UUID or name
+ * in-place must be {@link #reindex(Account) reindexed}. Lookups may briefly disagree with the {@link #snapshot()}
+ * while another thread is publishing a change.
+ * <p>
+ * Every account instance may be present in the registry only once. Changes that would add the already present instance
+ * (or add the same instance twice) are rejected with the {@link IllegalArgumentException} and aren't published.
+ *
+ * @author VidTu
+ */
+public final class AccountRegistry extends AbstractList<Account> implements RandomAccess {
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/AccountRegistry");
+
+    /**
+     * Change listeners.
+     */
+    @NotNull
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Accounts by UUID. Written only while holding {@code this}.
+     */
+    @NotNull
+    private final Map<UUID, List<Account>> uuids = new ConcurrentHashMap<>();
+
+    /**
+     * Accounts by lowercase name. Written only while holding {@code this}.
+     */
+    @NotNull
+    private final Map<String, List<Account>> names = new ConcurrentHashMap<>();
+
+    /**
+     * Index entries by account identity. Written only while holding {@code this}.
+     */
+    @NotNull
+    private final Map<Identity, Indexed> indexed = new ConcurrentHashMap<>();
+
+    /**
+     * Current snapshot. Written only while holding {@code this}.
+     */
+    @NotNull
+    private volatile Snapshot snapshot = new Snapshot(List.of(), 0L);
+
+    /**
+     * Creates a new empty registry.
+     */
+    @Contract(pure = true)
+    public AccountRegistry() {
+        // Empty
+    }
+
+    /**
+     * Gets the current snapshot.
+     *
+     * @return Current immutable snapshot
+     */
+    @Contract(pure = true)
+    @NotNull
+    public Snapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Gets the current version. The version is incremented by every change.
+     *
+     * @return Current version
+     */
+    @Contract(pure = true)
+    public long version() {
+        return this.snapshot.version;
+    }
+
+    /**
+     * Adds the change listener. Listeners are called on the thread that made the change, after the change is published.
+     *
+     * @param listener Target listener
+     */
+    public void listen(@NotNull Consumer<Snapshot> listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes the change listener.
+     *
+     * @param listener Target listener
+     */
+    public void unlisten(@NotNull Consumer<Snapshot> listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Atomically applies the edit to the mutable copy of the accounts and publishes it, if anything has changed.
+     *
+     * @param edit Edit to apply
+     * @throws IllegalArgumentException If the edit adds the already present account instance
+     */
+    public void update(@NotNull Consumer<List<Account>> edit) {
+        this.mutate(list -> {
+            edit.accept(list);
+            return null;
+        });
+    }
+
+    /**
+     * Atomically swaps two accounts.
+     *
+     * @param first  First account index
+     * @param second Second account index
+     * @throws IndexOutOfBoundsException If any of the indexes is out of bounds
+     */
+    public void swap(int first, int second) {
+        this.mutate(list -> {
+            Collections.swap(list, first, second);
+            return null;
+        });
+    }
+
+    /**
+     * Atomically removes every account equal to the given one and appends the given account.
+     *
+     * @param account Target account
+     */
+    public void put(@NotNull Account account) {
+        Objects.requireNonNull(account, "account");
+        this.mutate(list -> {
+            this.removeEqual(list, account, null, 0);
+            list.add(account);
+            return null;
+        });
+    }
+
+    /**
+     * Atomically replaces the account and removes every other account equal to the replacement.
+     *
+     * @param old     Replaced account instance
+     * @param account Replacement account
+     * @return Whether the old account has been found and replaced
+     */
+    public boolean replace(@NotNull Account old, @NotNull Account account) {
+        Objects.requireNonNull(account, "account");
+        return this.mutate(list -> {
+            int index = this.position(old);
+            if (index < 0) return false;
+            index -= this.removeEqual(list, account, old, index);
+            list.set(index, account);
+            return true;
+        });
+    }
+
+    /**
+     * Atomically appends every account that is not equal to any present or earlier appended account.
+     *
+     * @param accounts Accounts to append
+     * @return Number of appended accounts
+     */
+    public int addAllAbsent(@NotNull Collection<? extends Account> accounts) {
+        accounts.forEach(account -> Objects.requireNonNull(account, "account"));
+        return this.mutate(list -> {
+            Set<Account> appended = new HashSet<>(accounts.size());
+            int added = 0;
+            for (Account account : accounts) {
+                if (this.contains(account) || !appended.add(account)) continue;
+                list.add(account);
+                added++;
+            }
+            return added;
+        });
+    }
+
+    /**
+     * Updates the UUID and name indexes of the account, if the account has changed its UUID or name in-place.
+     * Publishes a new snapshot with the same accounts, so the listeners are notified about the change.
+     *
+     * @param account Target account
+     */
+    public void reindex(@NotNull Account account) {
+        Snapshot published;
+        synchronized (this) {
+            // Skip if not indexed or not changed.
+            Indexed old = this.indexed.get(new Identity(account));
+            if (old == null) return;
+            UUID uuid = account.uuid();
+            String name = account.name().toLowerCase(Locale.ROOT);
+            if (old.uuid.equals(uuid) && old.name.equals(name)) return;
+
+            // Move the account.
+            unlink(this.uuids, old.uuid, account);
+            unlink(this.names, old.name, account);
+            link(this.uuids, uuid, account);
+            link(this.names, name, account);
+            Indexed entry = new Indexed(uuid, name);
+            entry.position = old.position;
+            this.indexed.put(new Identity(account), entry);
+
+            // Publish.
+            published = new Snapshot(this.snapshot.accounts, this.snapshot.version + 1L);
+            this.snapshot = published;
+        }
+
+        // Notify the listeners.
+        this.notify(published);
+    }
+
+    /**
+     * Gets the accounts with the UUID.
+     *
+     * @param uuid Target UUID
+     * @return Immutable list of accounts with this UUID, empty if none
+     */
+    @Contract(pure = true)
+    @NotNull
+    @Unmodifiable
+    public List<Account> uuid(@NotNull UUID uuid) {
+        return this.uuids.getOrDefault(uuid, List.of());
+    }
+
+    /**
+     * Gets the accounts with the name, ignoring the case.
+     *
+     * @param name Target name
+     * @return Immutable list of accounts with this name, empty if none
+     */
+    @Contract(pure = true)
+    @NotNull
+    @Unmodifiable
+    public List<Account> named(@NotNull String name) {
+        return this.names.getOrDefault(name.toLowerCase(Locale.ROOT), List.of());
+    }
+
+    /**
+     * Gets the position of this exact account instance.
+     *
+     * @param account Target account
+     * @return Account position in the current snapshot, {@code -1} if not present
+     */
+    @Contract(pure = true)
+    public int position(@NotNull Account account) {
+        // Get from the index and validate it against the snapshot.
+        List<Account> accounts = this.snapshot.accounts;
+        Indexed entry = this.indexed.get(new Identity(account));
+        if (entry == null) return -1;
+        int position = entry.position;
+        if (position < accounts.size() && accounts.get(position) == account) return position;
+
+        // Index is being updated by another thread, fall back to the scan.
+        for (int i = 0, size = accounts.size(); i < size; i++) {
+            if (accounts.get(i) == account) return i;
+        }
+        return -1;
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public Account get(int index) {
+        return this.snapshot.accounts.get(index);
+    }
+
+    @Contract(pure = true)
+    @Override
+    public int size() {
+        return this.snapshot.accounts.size();
+    }
+
+    @Override
+    @NotNull
+    public Account set(int index, @NotNull Account element) {
+        Objects.requireNonNull(element, "element");
+        return this.mutate(list -> list.set(index, element));
+    }
+
+    @Override
+    public boolean add(@NotNull Account element) {
+        Objects.requireNonNull(element, "element");
+        return this.mutate(list -> list.add(element));
+    }
+
+    @Override
+    public void add(int index, @NotNull Account element) {
+        Objects.requireNonNull(element, "element");
+        this.mutate(list -> {
+            list.add(index, element);
+            return null;
+        });
+    }
+
+    @Override
+    @NotNull
+    public Account remove(int index) {
+        return this.mutate(list -> list.remove(index));
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        return this.mutate(list -> {
+            int index = this.indexOf(element);
+            if (index < 0) return false;
+            list.remove(index);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean removeIf(@NotNull Predicate<? super Account> filter) {
+        return this.mutate(list -> list.removeIf(filter));
+    }
+
+    @Override
+    public boolean addAll(@NotNull Collection<? extends Account> elements) {
+        elements.forEach(element -> Objects.requireNonNull(element, "element"));
+        return this.mutate(list -> list.addAll(elements));
+    }
+
+    @Override
+    public boolean addAll(int index, @NotNull Collection<? extends Account> elements) {
+        elements.forEach(element -> Objects.requireNonNull(element, "element"));
+        return this.mutate(list -> list.addAll(index, elements));
+    }
+
+    @Override
+    public void clear() {
+        this.mutate(list -> {
+            list.clear();
+            return null;
+        });
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public Iterator<Account> iterator() {
+        return this.snapshot.accounts.iterator();
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public Spliterator<Account> spliterator() {
+        return this.snapshot.accounts.spliterator();
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public Stream<Account> stream() {
+        return this.snapshot.accounts.stream();
+    }
+
+    @Override
+    public void forEach(@NotNull Consumer<? super Account> action) {
+        this.snapshot.accounts.forEach(action);
+    }
+
+    @Contract(pure = true)
+    @Override
+    public boolean contains(Object element) {
+        // Equal accounts always have the same name.
+        return element instanceof Account account && this.named(account.name()).contains(account);
+    }
+
+    @Contract(pure = true)
+    @Override
+    public int indexOf(Object element) {
+        if (!(element instanceof Account account)) return -1;
+        int index = -1;
+        for (Account candidate : this.named(account.name())) {
+            if (!account.equals(candidate)) continue;
+            int position = this.position(candidate);
+            if (position < 0 || (index >= 0 && position > index)) continue;
+            index = position;
+        }
+        return index;
+    }
+
+    @Contract(pure = true)
+    @Override
+    public int lastIndexOf(Object element) {
+        if (!(element instanceof Account account)) return -1;
+        int index = -1;
+        for (Account candidate : this.named(account.name())) {
+            if (!account.equals(candidate)) continue;
+            index = Math.max(index, this.position(candidate));
+        }
+        return index;
+    }
+
+    @Contract(pure = true)
+    @Override
+    public Object @NotNull [] toArray() {
+        return this.snapshot.accounts.toArray();
+    }
+
+    @Contract(pure = true)
+    @Override
+    public <T> T @NotNull [] toArray(T @NotNull [] array) {
+        return this.snapshot.accounts.toArray(array);
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public String toString() {
+        Snapshot snapshot = this.snapshot;
+        return "AccountRegistry{" +
+                "version=" + snapshot.version +
+                ", accounts=" + snapshot.accounts +
+                '}';
+    }
+
+    /**
+     * Applies the edit to the mutable copy of the accounts and publishes it, if anything has changed.
+     *
+     * @param edit Edit to apply
+     * @param <T>  Edit result type
+     * @return Edit result
+     * @throws IllegalArgumentException If the edit adds the already present account instance
+     */
+    private <T> T mutate(@NotNull Function<List<Account>, T> edit) {
+        // Edit the copy.
+        Snapshot published;
+        T result;
+        synchronized (this) {
+            List<Account> old = this.snapshot.accounts;
+            Tracker tracker = new Tracker(new ArrayList<>(old));
+            result = edit.apply(tracker);
+            List<Account> list = tracker.list;
+            if (same(old, list)) return result;
+
+            // Update the indexes.
+            this.index(tracker);
+
+            // Publish.
+            published = new Snapshot(Collections.unmodifiableList(list), this.snapshot.version + 1L);
+            this.snapshot = published;
+        }
+
+        // Notify the listeners.
+        this.notify(published);
+
+        // Return the result.
+        return result;
+    }
+
+    /**
+     * Incrementally updates the indexes after the change. Must be called while holding {@code this}.
+     *
+     * @param tracker Change tracker
+     * @throws IllegalArgumentException If the change adds the already present account instance (the indexes are left untouched)
+     */
+    private void index(@NotNull Tracker tracker) {
+        // Count the net changes. (an account may be removed and added back by the same change, e.g. when swapped)
+        Map<Identity, Integer> delta = new HashMap<>();
+        for (Account account : tracker.removed) {
+            delta.merge(new Identity(account), -1, Integer::sum);
+        }
+        for (Account account : tracker.added) {
+            delta.merge(new Identity(account), 1, Integer::sum);
+        }
+
+        // Reject the duplicate instances before touching the indexes.
+        for (Map.Entry<Identity, Integer> entry : delta.entrySet()) {
+            int count = entry.getValue();
+            if (count > 1 || (count == 1 && this.indexed.containsKey(entry.getKey()))) {
+                throw new IllegalArgumentException("Account instance is already present: " + entry.getKey().account);
+            }
+        }
+
+        // Update the UUID and name indexes.
+        for (Map.Entry<Identity, Integer> entry : delta.entrySet()) {
+            Identity identity = entry.getKey();
+            Account account = identity.account;
+            int count = entry.getValue();
+            if (count < 0) {
+                // Unindex.
+                Indexed old = this.indexed.remove(identity);
+                if (old == null) continue;
+                unlink(this.uuids, old.uuid, account);
+                unlink(this.names, old.name, account);
+            } else if (count > 0) {
+                // Index.
+                UUID uuid = account.uuid();
+                String name = account.name().toLowerCase(Locale.ROOT);
+                this.indexed.put(identity, new Indexed(uuid, name));
+                link(this.uuids, uuid, account);
+                link(this.names, name, account);
+            }
+        }
+
+        // Update the positions of the replaced and shifted accounts.
+        List<Account> list = tracker.list;
+        int size = list.size();
+        for (int i = tracker.low, end = Math.min(tracker.high, size - 1); i <= end; i++) {
+            Indexed entry = this.indexed.get(new Identity(list.get(i)));
+            if (entry == null) continue;
+            entry.position = i;
+        }
+        for (int i = tracker.from; i < size; i++) {
+            Indexed entry = this.indexed.get(new Identity(list.get(i)));
+            if (entry == null) continue;
+            entry.position = i;
+        }
+    }
+
+    /**
+     * Removes every account equal to the given one, except the kept instance, from the list being edited.
+     * Must be called while holding {@code this}, before any other edit of the list.
+     *
+     * @param list    Edited list
+     * @param account Target account
+     * @param keep    Kept instance, {@code null} if none
+     * @param index   Index to count the removals before
+     * @return Number of removed accounts before the index
+     */
+    private int removeEqual(@NotNull List<Account> list, @NotNull Account account, @Nullable Account keep, int index) {
+        // Collect the positions.
+        List<Integer> positions = new ArrayList<>(1);
+        for (Account candidate : this.named(account.name())) {
+            if (candidate == keep || !account.equals(candidate)) continue;
+            int position = this.position(candidate);
+            if (position < 0) continue;
+            positions.add(position);
+        }
+
+        // Remove from the end, so the positions stay valid.
+        positions.sort(Collections.reverseOrder());
+        int before = 0;
+        for (int position : positions) {
+            list.remove(position);
+            if (position < index) {
+                before++;
+            }
+        }
+        return before;
+    }
+
+    /**
+     * Notifies the listeners about the published snapshot.
+     *
+     * @param published Published snapshot
+     */
+    private void notify(@NotNull Snapshot published) {
+        for (Consumer<Snapshot> listener : this.listeners) {
+            try {
+                listener.accept(published);
+            } catch (Throwable t) {
+                LOGGER.error("IAS: Unable to notify account registry listener {} about version {}.", listener, published.version, t);
+            }
+        }
+    }
+
+    /**
+     * Adds the account to the index bucket.
+     *
+     * @param map     Target index
+     * @param key     Bucket key
+     * @param account Target account
+     * @param <K>     Key type
+     */
+    private static <K> void link(@NotNull Map<K, List<Account>> map, @NotNull K key, @NotNull Account account) {
+        map.merge(key, List.of(account), (old, added) -> {
+            List<Account> list = new ArrayList<>(old.size() + 1);
+            list.addAll(old);
+            list.add(account);
+            return List.copyOf(list);
+        });
+    }
+
+    /**
+     * Removes the account instance from the index bucket.
+     *
+     * @param map     Target index
+     * @param key     Bucket key
+     * @param account Target account
+     * @param <K>     Key type
+     */
+    private static <K> void unlink(@NotNull Map<K, List<Account>> map, @NotNull K key, @NotNull Account account) {
+        map.computeIfPresent(key, (k, old) -> {
+            List<Account> list = new ArrayList<>(old.size());
+            for (Account other : old) {
+                if (other == account) continue;
+                list.add(other);
+            }
+            return list.isEmpty() ? null : List.copyOf(list);
+        });
+    }
+
+    /**
+     * Checks whether the lists contain the same account instances in the same order.
+     *
+     * @param first  First list
+     * @param second Second list
+     * @return Whether the lists are the same by identity
+     */
+    @Contract(pure = true)
+    private static boolean same(@NotNull List<Account> first, @NotNull List<Account> second) {
+        int size = first.size();
+        if (size != second.size()) return false;
+        for (int i = 0; i < size; i++) {
+            if (first.get(i) != second.get(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Account identity key.
+     *
+     * @param account Target account
+     * @author VidTu
+     */
+    private record Identity(@NotNull Account account) {
+        @Contract(value = "null -> false", pure = true)
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            return obj instanceof Identity that && this.account == that.account;
+        }
+
+        @Contract(pure = true)
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.account);
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "AccountRegistry.Identity{" +
+                    "account=" + this.account +
+                    '}';
+        }
+    }
+
+    /**
+     * Index entry of the account.
+     *
+     * @author VidTu
+     */
+    private static final class Indexed {
+        /**
+         * Indexed UUID.
+         */
+        @NotNull
+        private final UUID uuid;
+
+        /**
+         * Indexed lowercase name.
+         */
+        @NotNull
+        private final String name;
+
+        /**
+         * Last known account position.
+         */
+        private volatile int position;
+
+        /**
+         * Creates a new index entry.
+         *
+         * @param uuid Indexed UUID
+         * @param name Indexed lowercase name
+         */
+        @Contract(pure = true)
+        private Indexed(@NotNull UUID uuid, @NotNull String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "AccountRegistry.Indexed{" +
+                    "uuid=" + this.uuid +
+                    ", name='" + this.name + '\'' +
+                    ", position=" + this.position +
+                    '}';
+        }
+    }
+
+    /**
+     * Mutable copy of the accounts that tracks the changes for the incremental index update.
+     *
+     * @author VidTu
+     */
+    private static final class Tracker extends AbstractList<Account> implements RandomAccess {
+        /**
+         * Edited list.
+         */
+        @NotNull
+        private final List<Account> list;
+
+        /**
+         * Removed or replaced accounts.
+         */
+        @NotNull
+        private final List<Account> removed = new ArrayList<>(1);
+
+        /**
+         * Added or replacing accounts.
+         */
+        @NotNull
+        private final List<Account> added = new ArrayList<>(1);
+
+        /**
+         * First index shifted by the structural change, list size if none.
+         */
+        private int from;
+
+        /**
+         * First replaced index, {@link Integer#MAX_VALUE} if none.
+         */
+        private int low = Integer.MAX_VALUE;
+
+        /**
+         * Last replaced index, {@code -1} if none.
+         */
+        private int high = -1;
+
+        /**
+         * Creates a new tracker.
+         *
+         * @param list Edited list
+         */
+        @Contract(pure = true)
+        private Tracker(@NotNull List<Account> list) {
+            this.list = list;
+            this.from = list.size();
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public Account get(int index) {
+            return this.list.get(index);
+        }
+
+        @Contract(pure = true)
+        @Override
+        public int size() {
+            return this.list.size();
+        }
+
+        @Override
+        @NotNull
+        public Account set(int index, @NotNull Account element) {
+            Objects.requireNonNull(element, "element");
+            Account old = this.list.set(index, element);
+            if (old == element) return old;
+            this.removed.add(old);
+            this.added.add(element);
+            this.low = Math.min(this.low, index);
+            this.high = Math.max(this.high, index);
+            return old;
+        }
+
+        @Override
+        public void add(int index, @NotNull Account element) {
+            Objects.requireNonNull(element, "element");
+            this.list.add(index, element);
+            this.added.add(element);
+            this.from = Math.min(this.from, index);
+            this.modCount++;
+        }
+
+        @Override
+        @NotNull
+        public Account remove(int index) {
+            Account old = this.list.remove(index);
+            this.removed.add(old);
+            this.from = Math.min(this.from, index);
+            this.modCount++;
+            return old;
+        }
+
+        @Override
+        public boolean addAll(@NotNull Collection<? extends Account> elements) {
+            return this.addAll(this.list.size(), elements);
+        }
+
+        @Override
+        public boolean addAll(int index, @NotNull Collection<? extends Account> elements) {
+            elements.forEach(element -> Objects.requireNonNull(element, "element"));
+            if (!this.list.addAll(index, elements)) return false;
+            this.added.addAll(elements);
+            this.from = Math.min(this.from, index);
+            this.modCount++;
+            return true;
+        }
+
+        @Override
+        public boolean removeIf(@NotNull Predicate<? super Account> filter) {
+            // ArrayList tests every element in order before removing anything.
+            int[] index = {0};
+            boolean removed = this.list.removeIf(element -> {
+                int current = index[0]++;
+                if (!filter.test(element)) return false;
+                this.removed.add(element);
+                this.from = Math.min(this.from, current);
+                return true;
+            });
+            if (removed) {
+                this.modCount++;
+            }
+            return removed;
+        }
+
+        @Override
+        public void clear() {
+            if (this.list.isEmpty()) return;
+            this.removed.addAll(this.list);
+            this.from = 0;
+            this.list.clear();
+            this.modCount++;
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "AccountRegistry.Tracker{" +
+                    "list=" + this.list +
+                    ", from=" + this.from +
+                    ", low=" + this.low +
+                    ", high=" + this.high +
+                    '}';
+        }
+    }
+
+    /**
+     * Immutable snapshot of the accounts.
+     *
+     * @param accounts Immutable accounts list
+     * @param version  Snapshot version
+     * @author VidTu
+     */
+    public record Snapshot(@NotNull @Unmodifiable List<Account> accounts, long version) {
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "AccountRegistry.Snapshot{" +
+                    "accounts=" + this.accounts +
+                    ", version=" + this.version +
+                    '}';
+        }
+    }
+}
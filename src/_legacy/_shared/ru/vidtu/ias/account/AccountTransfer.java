@@ -0,0 +1,703 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.account;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.IAS;
+import ru.vidtu.ias.auth.handlers.TransferHandler;
+import ru.vidtu.ias.config.IASStorage;
+import ru.vidtu.ias.crypt.Crypt;
+import ru.vidtu.ias.crypt.PasswordCrypt;
+import ru.vidtu.ias.utils.Holder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streaming bulk import and export of the accounts.
+ * <p>
+ * Offline accounts are imported from the plain text (one {@code name [skin]} per line) or JSON (array of names or
+ * {@code {"name": ..., "skin": ...}} objects) files and exported as JSON. Microsoft accounts are exported into the
+ * bundle, where every account is encrypted using the selected crypt, and imported from it as-is.
+ * Records are processed one by one, deduplicated against the storage, and the storage is written only once.
+ *
+ * @author VidTu
+ */
+public final class AccountTransfer {
+    /**
+     * Default plain text import file name.
+     */
+    @NotNull
+    public static final String LINES_FILE = "ias_accounts.txt";
+
+    /**
+     * Default JSON import and export file name.
+     */
+    @NotNull
+    public static final String JSON_FILE = "ias_accounts.json";
+
+    /**
+     * Default bundle import and export file name.
+     */
+    @NotNull
+    public static final String BUNDLE_FILE = "ias_accounts.iasb";
+
+    /**
+     * Reading accounts. Args: read accounts.
+     */
+    @NotNull
+    public static final String READING = "ias.transfer.reading";
+
+    /**
+     * Reading account crypts.
+     */
+    @NotNull
+    public static final String RESOLVING = "ias.transfer.resolving";
+
+    /**
+     * Writing accounts. Args: written accounts, total accounts.
+     */
+    @NotNull
+    public static final String WRITING = "ias.transfer.writing";
+
+    /**
+     * Saving the storage.
+     */
+    @NotNull
+    public static final String SAVING = "ias.transfer.saving";
+
+    /**
+     * Bundle file magic, {@code IASB}.
+     */
+    private static final int BUNDLE_MAGIC = 0x49415342;
+
+    /**
+     * Bundle format version.
+     */
+    private static final int BUNDLE_VERSION = 1;
+
+    /**
+     * Amount of records between the progress updates.
+     */
+    private static final int PROGRESS_STEP = 1000;
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/AccountTransfer");
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private AccountTransfer() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Imports the accounts from the files. The format of every file is detected by its content, missing files are skipped.
+     *
+     * @param files   Source files
+     * @param handler Transfer handler
+     */
+    public static void importAll(@NotNull List<Path> files, @NotNull TransferHandler handler) {
+        try {
+            // Log it and display progress.
+            LOGGER.info("IAS: Importing accounts from {}...", files);
+            handler.stage(READING, 0);
+
+            // Import and save.
+            CompletableFuture.supplyAsync(() -> {
+                Result result = importFiles(files, handler);
+                if (result.transferred == 0) return result;
+                handler.stage(SAVING);
+                IAS.disclaimersStorage();
+                IAS.saveStorage();
+                return result;
+            }, IAS.executor()).thenAcceptAsync(result -> {
+                // Log and notify.
+                LOGGER.info("IAS: Imported {} accounts. ({} skipped, {} failed)", result.transferred, result.skipped, result.failed);
+                handler.transferred(result.transferred, result.skipped, result.failed);
+            }, IAS.executor()).exceptionallyAsync(t -> {
+                // Handle error.
+                handler.error(new RuntimeException("Unable to import accounts.", t));
+
+                // Return null.
+                return null;
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Handle.
+            handler.error(new RuntimeException("Unable to begin accounts import.", t));
+        }
+    }
+
+    /**
+     * Exports the accounts. Offline accounts are written as JSON, Microsoft accounts are written into the bundle.
+     * Files are written only if there are any accounts of their kind.
+     *
+     * @param json    Target JSON file
+     * @param bundle  Target bundle file
+     * @param target  Bundle crypt, {@code null} to encrypt using the {@link PasswordCrypt} with the requested password
+     *                (the same password is used to decrypt the password-encrypted accounts)
+     * @param handler Transfer handler
+     */
+    public static void exportAll(@NotNull Path json, @NotNull Path bundle, @Nullable Crypt target, @NotNull TransferHandler handler) {
+        try {
+            // Snapshot the accounts.
+            List<Account> snapshot = IASStorage.ACCOUNTS.snapshot().accounts();
+            List<OfflineAccount> offline = new ArrayList<>(snapshot.size());
+            List<MicrosoftAccount> microsoft = new ArrayList<>(snapshot.size());
+            for (Account account : snapshot) {
+                if (account instanceof OfflineAccount off) {
+                    offline.add(off);
+                } else if (account instanceof MicrosoftAccount ms) {
+                    microsoft.add(ms);
+                }
+            }
+
+            // Log it and display progress.
+            LOGGER.info("IAS: Exporting {} offline accounts to {} and {} Microsoft accounts to {} using {}...", offline.size(), json, microsoft.size(), bundle, target);
+            handler.stage(RESOLVING);
+
+            // Request the password only once.
+            Holder<CompletableFuture<String>> passFuture = new Holder<>();
+            Supplier<CompletableFuture<String>> password = () -> {
+                synchronized (passFuture) {
+                    CompletableFuture<String> future = passFuture.get();
+                    if (future == null) {
+                        future = handler.password();
+                        passFuture.set(future);
+                    }
+                    return future;
+                }
+            };
+
+            // Resolve the crypts.
+            List<CompletableFuture<Crypt>> crypts = new ArrayList<>(microsoft.size() + 1);
+            for (MicrosoftAccount account : microsoft) {
+                crypts.add(account.crypt(password).exceptionally(t -> {
+                    LOGGER.warn("IAS: Unable to read crypt of {}.", account, t);
+                    return null;
+                }));
+            }
+            CompletableFuture<Crypt> bundleCrypt;
+            if (target != null || microsoft.isEmpty()) {
+                bundleCrypt = CompletableFuture.completedFuture(target);
+            } else {
+                bundleCrypt = password.get().thenApplyAsync(pass -> pass == null ? null : new PasswordCrypt(pass), IAS.executor());
+            }
+            crypts.add(bundleCrypt);
+
+            // Write.
+            CompletableFuture.allOf(crypts.toArray(CompletableFuture<?>[]::new)).thenApplyAsync(ignored -> {
+                // Write the offline accounts.
+                int total = offline.size() + microsoft.size();
+                int transferred = 0;
+                if (!offline.isEmpty()) {
+                    writeJson(json, offline);
+                    transferred += offline.size();
+                }
+                handler.stage(WRITING, transferred, total);
+
+                // Skip the bundle if there's nothing to write or if cancelled.
+                Crypt to = bundleCrypt.join();
+                if (microsoft.isEmpty() || to == null || handler.cancelled()) {
+                    return new Result(transferred, microsoft.size(), 0);
+                }
+
+                // Write the bundle.
+                Result bundled = writeBundle(bundle, microsoft, crypts, to, handler, transferred, total);
+                return new Result(transferred + bundled.transferred, bundled.skipped, bundled.failed);
+            }, IAS.executor()).thenAcceptAsync(result -> {
+                // Log and notify.
+                LOGGER.info("IAS: Exported {} accounts. ({} skipped, {} failed)", result.transferred, result.skipped, result.failed);
+                handler.transferred(result.transferred, result.skipped, result.failed);
+            }, IAS.executor()).exceptionallyAsync(t -> {
+                // Handle error.
+                handler.error(new RuntimeException("Unable to export accounts.", t));
+
+                // Return null.
+                return null;
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Handle.
+            handler.error(new RuntimeException("Unable to begin accounts export.", t));
+        }
+    }
+
+    /**
+     * Reads the accounts from the files and adds the new ones to the storage at once. Doesn't save the storage. Blocks the thread.
+     *
+     * @param files   Source files, missing files are skipped
+     * @param handler Transfer handler
+     * @return Import result
+     */
+    @NotNull
+    static Result importFiles(@NotNull List<Path> files, @NotNull TransferHandler handler) {
+        // Read the files.
+        Batch batch = new Batch(handler);
+        for (Path file : files) {
+            if (handler.cancelled()) break;
+            try {
+                read(file, batch);
+            } catch (NoSuchFileException e) {
+                LOGGER.debug("IAS: Import file {} doesn't exist, skipping.", file, e);
+            } catch (Throwable t) {
+                LOGGER.warn("IAS: Unable to import accounts from {}.", file, t);
+                batch.failed++;
+            }
+        }
+
+        // Add the accounts at once. (the storage could've been changed while reading)
+        int added = batch.accounts.isEmpty() ? 0 : IASStorage.ACCOUNTS.addAllAbsent(batch.accounts);
+        return new Result(added, batch.skipped + (batch.accounts.size() - added), batch.failed);
+    }
+
+    /**
+     * Reads the accounts from the file, detecting its format.
+     *
+     * @param file  Source file
+     * @param batch Target batch
+     * @throws IOException On I/O error or malformed file
+     */
+    private static void read(@NotNull Path file, @NotNull Batch batch) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            // Read the bundle.
+            in.mark(4);
+            DataInputStream data = new DataInputStream(in);
+            int magic;
+            try {
+                magic = data.readInt();
+            } catch (EOFException e) {
+                magic = 0;
+            }
+            if (magic == BUNDLE_MAGIC) {
+                readBundle(data, batch);
+                return;
+            }
+            in.reset();
+
+            // Skip the leading whitespace and BOM, peeking only one character at a time.
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            int c;
+            do {
+                reader.mark(1);
+                c = reader.read();
+            } while (c != -1 && (Character.isWhitespace(c) || c == '\uFEFF'));
+            if (c != -1) {
+                reader.reset();
+            }
+
+            // Read the text, JSON if it starts with the array.
+            if (c == '[') {
+                readJson(reader, batch);
+            } else {
+                readLines(reader, batch);
+            }
+        }
+    }
+
+    /**
+     * Reads the offline accounts from the lines. Every line is the name optionally followed by the skin UUID,
+     * separated by whitespace, comma or semicolon. Empty lines and lines starting with {@code #} are skipped.
+     *
+     * @param reader Source reader
+     * @param batch  Target batch
+     * @throws IOException On I/O error
+     */
+    private static void readLines(@NotNull BufferedReader reader, @NotNull Batch batch) throws IOException {
+        for (String line; (line = reader.readLine()) != null && !batch.handler.cancelled(); ) {
+            // Skip empty and comments.
+            line = line.strip();
+            if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1).strip();
+            }
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+
+            // Split.
+            int split = 0;
+            int length = line.length();
+            while (split < length && !isSeparator(line.charAt(split))) {
+                split++;
+            }
+            int skin = split;
+            while (skin < length && isSeparator(line.charAt(skin))) {
+                skin++;
+            }
+
+            // Add.
+            batch.offline(line.substring(0, split), skin < length ? line.substring(skin) : null);
+        }
+    }
+
+    /**
+     * Reads the offline accounts from the JSON array of names or {@code {"name": ..., "skin": ...}} objects.
+     *
+     * @param reader Source reader
+     * @param batch  Target batch
+     * @throws IOException On I/O error or malformed JSON
+     */
+    private static void readJson(@NotNull BufferedReader reader, @NotNull Batch batch) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.beginArray();
+        while (json.hasNext() && !batch.handler.cancelled()) {
+            // Read the name.
+            JsonToken token = json.peek();
+            if (token == JsonToken.STRING) {
+                batch.offline(json.nextString(), null);
+                continue;
+            }
+
+            // Skip the invalid element.
+            if (token != JsonToken.BEGIN_OBJECT) {
+                json.skipValue();
+                batch.failed++;
+                continue;
+            }
+
+            // Read the object.
+            String name = null;
+            String skin = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                if (json.peek() == JsonToken.NULL || (!"name".equals(key) && !"skin".equals(key))) {
+                    json.skipValue();
+                } else if ("name".equals(key)) {
+                    name = json.nextString();
+                } else {
+                    skin = json.nextString();
+                }
+            }
+            json.endObject();
+            batch.offline(name, skin);
+        }
+    }
+
+    /**
+     * Reads the typed accounts from the bundle, after the magic.
+     *
+     * @param in    Source input
+     * @param batch Target batch
+     * @throws IOException On I/O error or malformed bundle
+     */
+    private static void readBundle(@NotNull DataInputStream in, @NotNull Batch batch) throws IOException {
+        // Read the version.
+        int version = in.readInt();
+        if (version != BUNDLE_VERSION) {
+            throw new IOException("Unsupported bundle version: " + version);
+        }
+
+        // Read the records, terminated by false.
+        try (DataInputStream records = new DataInputStream(new InflaterInputStream(in))) {
+            while (records.readBoolean() && !batch.handler.cancelled()) {
+                batch.add(Account.readTyped(records));
+            }
+        }
+    }
+
+    /**
+     * Writes the offline accounts as the JSON array of {@code {"name": ..., "skin": ...}} objects.
+     * The skin is written only if it's not the default one.
+     *
+     * @param file     Target file
+     * @param accounts Accounts to write
+     * @throws RuntimeException If unable to write the accounts
+     */
+    private static void writeJson(@NotNull Path file, @NotNull List<OfflineAccount> accounts) {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(writer)) {
+            json.setIndent("  ");
+            json.beginArray();
+            for (OfflineAccount account : accounts) {
+                json.beginObject();
+                json.name("name").value(account.name());
+                UUID skin = account.skin();
+                if (!skin.equals(account.uuid())) {
+                    json.name("skin").value(skin.toString());
+                }
+                json.endObject();
+            }
+            json.endArray();
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to write offline accounts to " + file, t);
+        }
+    }
+
+    /**
+     * Writes the Microsoft accounts into the bundle, encrypting them using the target crypt.
+     *
+     * @param file     Target file
+     * @param accounts Accounts to write
+     * @param crypts   Resolved crypts of the accounts, in the same order, {@code null} crypts are skipped
+     * @param target   Bundle crypt
+     * @param handler  Transfer handler
+     * @param done     Amount of already written accounts, for progress
+     * @param total    Total amount of accounts, for progress
+     * @return Bundle result
+     * @throws RuntimeException If unable to write the bundle
+     */
+    @NotNull
+    private static Result writeBundle(@NotNull Path file, @NotNull List<MicrosoftAccount> accounts, @NotNull List<CompletableFuture<Crypt>> crypts,
+                                      @NotNull Crypt target, @NotNull TransferHandler handler, int done, int total) {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            // Write the header.
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(BUNDLE_MAGIC);
+            header.writeInt(BUNDLE_VERSION);
+            header.flush();
+
+            // Write the records.
+            int transferred = 0;
+            int skipped = 0;
+            int failed = 0;
+            try (DataOutputStream records = new DataOutputStream(new DeflaterOutputStream(out))) {
+                for (int i = 0, size = accounts.size(); i < size; i++) {
+                    // Skip if cancelled or unreadable.
+                    MicrosoftAccount account = accounts.get(i);
+                    Crypt crypt = crypts.get(i).join();
+                    if (crypt == null || handler.cancelled()) {
+                        skipped++;
+                        continue;
+                    }
+
+                    // Re-encrypt and write.
+                    try {
+                        MicrosoftAccount bundled = target.equals(crypt) ? account : account.recrypt(crypt, target);
+                        records.writeBoolean(true);
+                        Account.writeTyped(records, bundled);
+                        transferred++;
+                    } catch (Throwable t) {
+                        LOGGER.warn("IAS: Unable to export {}.", account, t);
+                        failed++;
+                    } finally {
+                        handler.stage(WRITING, done + transferred + skipped + failed, total);
+                    }
+                }
+                records.writeBoolean(false);
+            }
+            return new Result(transferred, skipped, failed);
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to write Microsoft accounts bundle to " + file, t);
+        }
+    }
+
+    /**
+     * Checks whether the character separates the name and the skin in the lines.
+     *
+     * @param c Target character
+     * @return Whether the character is a separator
+     */
+    @Contract(pure = true)
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ';' || Character.isWhitespace(c);
+    }
+
+    /**
+     * Checks whether the offline name is valid. Uses the same rules as the offline account screen without overrides.
+     *
+     * @param name Target name
+     * @return Whether the name is valid
+     */
+    @Contract(pure = true)
+    private static boolean isValidName(@NotNull String name) {
+        int length = name.length();
+        if (length < 3 || length > 16) return false;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c == '_' || c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') continue;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the skin UUID, with or without dashes.
+     *
+     * @param skin Skin UUID string
+     * @return Parsed UUID
+     * @throws IllegalArgumentException If the UUID is malformed
+     */
+    @Contract(pure = true)
+    @NotNull
+    private static UUID parseSkin(@NotNull String skin) {
+        if (skin.length() != 32) return UUID.fromString(skin);
+        return new UUID(Long.parseUnsignedLong(skin, 0, 16, 16), Long.parseUnsignedLong(skin, 16, 32, 16));
+    }
+
+    /**
+     * Import batch.
+     *
+     * @author VidTu
+     */
+    private static final class Batch {
+        /**
+         * Transfer handler.
+         */
+        @NotNull
+        private final TransferHandler handler;
+
+        /**
+         * Read new accounts.
+         */
+        @NotNull
+        private final List<Account> accounts = new ArrayList<>();
+
+        /**
+         * Read accounts, for deduplication.
+         */
+        @NotNull
+        private final Set<Account> seen = new HashSet<>();
+
+        /**
+         * Amount of read records.
+         */
+        private int read;
+
+        /**
+         * Amount of duplicate records.
+         */
+        private int skipped;
+
+        /**
+         * Amount of invalid records.
+         */
+        private int failed;
+
+        /**
+         * Creates a new batch.
+         *
+         * @param handler Transfer handler
+         */
+        @Contract(pure = true)
+        private Batch(@NotNull TransferHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Adds the offline account, if it's valid.
+         *
+         * @param name Account name, {@code null} if missing
+         * @param skin Skin UUID string, {@code null} if none
+         */
+        private void offline(@Nullable String name, @Nullable String skin) {
+            // Validate the name.
+            if (name == null || !isValidName(name)) {
+                LOGGER.debug("IAS: Skipping invalid offline account name: {}", name);
+                this.count();
+                this.failed++;
+                return;
+            }
+
+            // Parse the skin.
+            UUID skinUuid;
+            try {
+                skinUuid = skin != null ? parseSkin(skin) : null;
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("IAS: Skipping offline account {} with invalid skin: {}", name, skin, e);
+                this.count();
+                this.failed++;
+                return;
+            }
+
+            // Add.
+            this.add(new OfflineAccount(name, skinUuid));
+        }
+
+        /**
+         * Adds the account, if it's not a duplicate.
+         *
+         * @param account Target account
+         */
+        private void add(@NotNull Account account) {
+            this.count();
+            if (!this.seen.add(account) || IASStorage.ACCOUNTS.contains(account)) {
+                this.skipped++;
+                return;
+            }
+            this.accounts.add(account);
+        }
+
+        /**
+         * Counts the read record and updates the progress.
+         */
+        private void count() {
+            if ((++this.read % PROGRESS_STEP) != 0) return;
+            this.handler.stage(READING, this.read);
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "AccountTransfer.Batch{" +
+                    "accounts=" + this.accounts.size() +
+                    ", read=" + this.read +
+                    ", skipped=" + this.skipped +
+                    ", failed=" + this.failed +
+                    '}';
+        }
+    }
+
+    /**
+     * Transfer result.
+     *
+     * @param transferred Amount of imported or exported accounts
+     * @param skipped     Amount of skipped accounts
+     * @param failed      Amount of failed accounts
+     */
+    record Result(int transferred, int skipped, int failed) {
+        // Empty
+    }
+}
@@ -29,25 +29,32 @@ import ru.vidtu.ias.IAS;
 import ru.vidtu.ias.auth.LoginData;
 import ru.vidtu.ias.auth.handlers.LoginHandler;
 import ru.vidtu.ias.auth.microsoft.MSAuth;
+import ru.vidtu.ias.auth.microsoft.fields.MCAToken;
+import ru.vidtu.ias.auth.microsoft.fields.MCProfile;
+import ru.vidtu.ias.auth.microsoft.fields.XHashedToken;
+import ru.vidtu.ias.config.IASStorage;
 import ru.vidtu.ias.crypt.Crypt;
 import ru.vidtu.ias.utils.Holder;
 import ru.vidtu.ias.utils.IUtils;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.NoRouteToHostException;
 import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Encrypted Microsoft account instance.
@@ -151,6 +158,11 @@ public final class MicrosoftAccount implements Account {
     @NotNull
     public static final Logger LOGGER = LoggerFactory.getLogger("IAS/MicrosoftAccount");
 
+    /**
+     * Maximum accepted encrypted data length. Protects from allocating huge arrays for corrupted lengths.
+     */
+    public static final int MAX_DATA = 16 * 1024 * 1024;
+
     /**
      * Whether the account is insecurely stored.
      */
@@ -160,18 +172,48 @@ public final class MicrosoftAccount implements Account {
      * Account UUID.
      */
     @NotNull
-    private UUID uuid;
+    private volatile UUID uuid;
 
     /**
      * Account name.
      */
     @NotNull
-    private String name;
+    private volatile String name;
+
+    /**
+     * Encrypted account data, {@code null} if not loaded from the {@link #payload} yet.
+     */
+    private volatile byte @Nullable [] data;
+
+    /**
+     * Lazily loaded encrypted account data, {@code null} if the {@link #data} is in the memory.
+     */
+    @Nullable
+    private volatile Payload payload;
 
     /**
-     * Encrypted account data.
+     * Known access token expiry in epoch millis, {@code 0} if the tokens haven't been decrypted yet or the expiry is unknown.
      */
-    private byte @NotNull [] data;
+    private volatile long expires;
+
+    /**
+     * Cached Xbox Live (XBL) token, {@code null} if none. Kept in the memory only and lost on restart.
+     */
+    @Nullable
+    private volatile XHashedToken xbl;
+
+    /**
+     * Cached Xbox Secure Token Service (XSTS) token, {@code null} if none. Kept in the memory only and lost on restart.
+     */
+    @Nullable
+    private volatile XHashedToken xsts;
+
+    /**
+     * Last started login or refresh, {@code null} if none is in progress. The next one waits for it, so the
+     * same refresh token is never redeemed twice.
+     */
+    @NotNull
+    private final AtomicReference<CompletableFuture<?>> inflight = new AtomicReference<>();
 
     /**
      * Creates a new Microsoft account.
@@ -189,11 +231,27 @@ public final class MicrosoftAccount implements Account {
         this.data = data.clone();
     }
 
+    /**
+     * Creates a new Microsoft account with lazily loaded data.
+     *
+     * @param insecure Whether the account is insecurely stored
+     * @param uuid     Account UUID
+     * @param name     Account name
+     * @param payload  Encrypted account data payload
+     */
+    @Contract(pure = true)
+    public MicrosoftAccount(boolean insecure, @NotNull UUID uuid, @NotNull String name, @NotNull Payload payload) {
+        this.insecure = insecure;
+        this.uuid = uuid;
+        this.name = name;
+        this.payload = payload;
+    }
+
     @Contract(pure = true)
     @Override
     @NotNull
     public String type() {
-        return "ias:microsoft_v1";
+        return "ias:microsoft_v2";
     }
 
     @Contract(pure = true)
@@ -239,9 +297,23 @@ public final class MicrosoftAccount implements Account {
 
     @Override
     public void login(@NotNull LoginHandler handler, Runnable onComplete) {
+        // Login after the in-flight login or refresh.
+        this.exclusive(() -> this.loginNow(handler, onComplete));
+    }
+
+    /**
+     * Logs into the account. Must be called only via {@link #exclusive(Supplier)}.
+     *
+     * @param handler    Login handler
+     * @param onComplete Action to run on successful login, {@code null} if none
+     * @return Future that will complete after the login, never exceptionally (errors are passed to the handler)
+     */
+    @CheckReturnValue
+    @NotNull
+    private CompletableFuture<Void> loginNow(@NotNull LoginHandler handler, @Nullable Runnable onComplete) {
         try {
             // Skip if cancelled.
-            if (handler.cancelled()) return;
+            if (handler.cancelled()) return CompletableFuture.completedFuture(null);
 
             // Log it and display progress.
             LOGGER.info("IAS: Logging (Microsoft) as {}/{}", this.uuid, this.name);
@@ -249,14 +321,14 @@ public final class MicrosoftAccount implements Account {
 
             // Value holders.
             Holder<Crypt> crypt = new Holder<>();
-            Holder<String> access = new Holder<>();
+            Holder<MCAToken> access = new Holder<>();
             Holder<String> refresh = new Holder<>();
             Holder<Boolean> recrypt = new Holder<>(false);
 
             // Read the crypt.
             CompletableFuture<Crypt> future;
             byte[] crypted;
-            try (ByteArrayInputStream byteIn = new ByteArrayInputStream(this.data);
+            try (ByteArrayInputStream byteIn = new ByteArrayInputStream(this.data());
                  DataInputStream in = new DataInputStream(byteIn)) {
                 // Read and process the crypt.
                 future = Crypt.readType(in, handler::password);
@@ -266,7 +338,7 @@ public final class MicrosoftAccount implements Account {
             }
 
             // Decrypt.
-            future.thenApplyAsync(value -> {
+            return future.thenApplyAsync(value -> {
                 // Skip if cancelled.
                 if (value == null || handler.cancelled()) return null;
 
@@ -275,7 +347,7 @@ public final class MicrosoftAccount implements Account {
                 handler.stage(DECRYPTING);
 
                 // Decrypt.
-                byte[] data = value.decrypt(crypted);
+                ByteBuffer data = decrypt(value, crypted);
 
                 // Migrate and set the crypt.
                 Crypt migrate = value.migrate();
@@ -293,108 +365,40 @@ public final class MicrosoftAccount implements Account {
                 if (value == null || handler.cancelled()) return false;
 
                 // Read the decrypted data into tokens.
-                try (ByteArrayInputStream byteIn = new ByteArrayInputStream(value);
-                     DataInputStream in = new DataInputStream(byteIn)) {
-                    // Read the access token.
-                    access.set(in.readUTF());
-
-                    // Read the refresh token.
-                    refresh.set(in.readUTF());
-
-                    // Verify the buffer.
-                    int available = in.available();
-                    if (available != 0) {
-                        throw new IOException("Leftover: " + in.available());
-                    }
+                readTokens(value, access, refresh);
+                this.expires = access.get().expires();
 
-                    // Return continue.
-                    return true;
-                } catch (Throwable t) {
-                    throw new RuntimeException("Unable to read the tokens.", t);
-                }
+                // Return continue.
+                return true;
             }, IAS.executor()).thenComposeAsync(value -> {
                 // Skip if cancelled.
                 if (!value || handler.cancelled()) return CompletableFuture.completedFuture(null);
 
+                // Use the stored profile if the token is known to be fresh. (no need to validate it)
+                MCAToken token = access.get();
+                if (token.fresh()) {
+                    LOGGER.info("IAS: MCA is fresh, using the stored MCP.");
+                    return CompletableFuture.completedFuture(new MCProfile(this.uuid, this.name));
+                }
+
+                // Refresh right away if the token is known to be expired.
+                if (token.expired()) {
+                    LOGGER.info("IAS: MCA is expired. Refreshing...");
+                    return this.refresh(handler, access, refresh, recrypt, null);
+                }
+
                 // Log it and display progress.
                 LOGGER.info("IAS: Converting MCA to MCP... (stored)");
                 handler.stage(MCA_TO_MCP);
 
                 // Convert MCA to MCP.
-                return MSAuth.mcaToMcp(access.get()).exceptionallyComposeAsync(original -> {
+                return MSAuth.mcaToMcp(token.token()).exceptionallyComposeAsync(original -> {
                     // Skip if cancelled.
                     if (handler.cancelled()) return CompletableFuture.completedFuture(null);
 
-                    // Log it and display progress.
+                    // Log it and refresh.
                     LOGGER.warn("IAS: MCA is (probably) expired. Refreshing...");
-                    LOGGER.info("IAS: Converting MSR to MSA/MSR...");
-                    handler.stage(MSR_TO_MSA_MSR);
-
-                    // Require recrypting data.
-                    recrypt.set(true);
-
-                    // Convert MSR to MSA/MSR.
-                    return MSAuth.msrToMsaMsr(refresh.get()).thenComposeAsync(ms -> {
-                        // Skip if cancelled.
-                        if (ms == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
-
-                        // Update the refresh token.
-                        refresh.set(ms.refresh());
-
-                        // Log it and display progress.
-                        LOGGER.info("IAS: Converting MSA to XBL...");
-                        handler.stage(MSA_TO_XBL);
-
-                        // Convert MSA to XBL.
-                        return MSAuth.msaToXbl(ms.access());
-                    }, IAS.executor()).thenComposeAsync(xbl -> {
-                        // Skip if cancelled.
-                        if (xbl == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
-
-                        // Log it and display progress.
-                        LOGGER.info("IAS: Converting XBL to XSTS...");
-                        handler.stage(XBL_TO_XSTS);
-
-                        // Convert XBL to XSTS.
-                        return MSAuth.xblToXsts(xbl.token(), xbl.hash());
-                    }, IAS.executor()).thenComposeAsync(xsts -> {
-                        // Skip if cancelled.
-                        if (xsts == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
-
-                        // Log it and display progress.
-                        LOGGER.info("IAS: Converting XSTS to MCA...");
-                        handler.stage(XSTS_TO_MCA);
-
-                        // Convert XSTS to MCA.
-                        return MSAuth.xstsToMca(xsts.token(), xsts.hash());
-                    }, IAS.executor()).thenComposeAsync(token -> {
-                        // Skip if cancelled.
-                        if (token == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
-
-                        // Update the access token.
-                        access.set(token);
-
-                        // Log it and display progress.
-                        LOGGER.info("IAS: Converting MCA TO MCP... (refreshed)");
-                        handler.stage(MCA_TO_MCP);
-
-                        // Convert MCA to MCP.
-                        return MSAuth.mcaToMcp(token);
-                    }, IAS.executor()).exceptionallyAsync(t -> {
-                        t.addSuppressed(original);
-
-                        // Probable case - no internet connection.
-                        if (IUtils.anyInCausalChain(t, err -> err instanceof UnresolvedAddressException || err instanceof NoRouteToHostException || err instanceof HttpTimeoutException || err instanceof ConnectException)) {
-                            throw new FriendlyException("Unable to connect to MSR servers.", t, "ias.error.connect");
-                        }
-
-                        // Handle error.
-                        throw new RuntimeException("Unable to perform MSR auth.", t);
-                    }, IAS.executor()).exceptionallyAsync(t -> {
-                        // Rethrow. (adding original)
-                        t.addSuppressed(original);
-                        throw new RuntimeException("Unable to refresh MSR.", t);
-                    }, IAS.executor());
+                    return this.refresh(handler, access, refresh, recrypt, original);
                 }, IAS.executor());
             }, IAS.executor()).thenAcceptAsync(profile -> {
                 // Skip if cancelled.
@@ -407,41 +411,11 @@ public final class MicrosoftAccount implements Account {
                     LOGGER.info("IAS: Encrypting tokens...");
                     handler.stage(ENCRYPTING);
 
-                    // Write the tokens.
-                    String accessMem = access.get();
-                    String refreshMem = refresh.get();
-                    byte[] unencrypted;
-                    try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream(accessMem.length() + refreshMem.length() + 4);
-                         DataOutputStream out = new DataOutputStream(byteOut)) {
-                        // Write the access token.
-                        out.writeUTF(accessMem);
-
-                        // Write the refresh token.
-                        out.writeUTF(refreshMem);
-
-                        // Flush it.
-                        unencrypted = byteOut.toByteArray();
-                    } catch (Throwable t) {
-                        throw new RuntimeException("Unable to write the tokens.", t);
-                    }
-
                     // Encrypt the tokens.
-                    try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream(unencrypted.length + 32);
-                         DataOutputStream out = new DataOutputStream(byteOut)) {
-                        // Encrypt.
-                        Crypt val = crypt.get();
-                        byte[] encrypted = val.encrypt(unencrypted);
-
-                        // Write data.
-                        out.writeUTF(val.type());
-                        out.write(encrypted);
-
-                        // Flush it.
-                        this.data = byteOut.toByteArray();
-                        saveStorage = true;
-                    } catch (Throwable t) {
-                        throw new RuntimeException("Unable to encrypt the tokens.", t);
-                    }
+                    this.data = encryptTokens(crypt.get(), access.get(), refresh.get());
+                    this.payload = null;
+                    this.expires = access.get().expires();
+                    saveStorage = true;
                 }
 
                 // Authentication successful, refresh the profile.
@@ -450,6 +424,7 @@ public final class MicrosoftAccount implements Account {
                 if (!this.uuid.equals(uuid) || !this.name.equals(name)) {
                     this.uuid = profile.uuid();
                     this.name = profile.name();
+                    IASStorage.ACCOUNTS.reindex(this);
                     saveStorage = true;
                 }
 
@@ -458,7 +433,7 @@ public final class MicrosoftAccount implements Account {
                 handler.stage(FINALIZING);
 
                 // Create and return the data.
-                LoginData login = new LoginData(this.name, this.uuid, access.get(), true);
+                LoginData login = new LoginData(this.name, this.uuid, access.get().token(), true);
                 handler.success(login, saveStorage);
 
                 // Run onComplete.
@@ -473,9 +448,512 @@ public final class MicrosoftAccount implements Account {
         } catch (Throwable t) {
             // Handle.
             handler.error(new RuntimeException("Unable to begin MS auth.", t));
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Refreshes the tokens if the access token expires soon. Unlike the {@link #login(LoginHandler, Runnable)},
+     * doesn't validate the stored token and doesn't report the progress and the result to the handler.
+     * Waits for the in-flight login or refresh, if any, and then uses the tokens it has stored.
+     *
+     * @param handler Handler that provides the password, if required, and the cancellation
+     * @param ahead   Refresh the tokens if the access token expires within this duration or its expiry is unknown, {@code null} to always refresh
+     * @return Future that will complete with {@code true} if refreshed (the storage should be saved), with {@code false} if
+     * the refresh is not required, with {@code null} if the password has not been provided or if cancelled, or exceptionally
+     * @see #expires()
+     */
+    @CheckReturnValue
+    @NotNull
+    public CompletableFuture<Boolean> refresh(@NotNull LoginHandler handler, @Nullable Duration ahead) {
+        // Refresh after the in-flight login or refresh.
+        return this.exclusive(() -> this.refreshNow(handler, ahead));
+    }
+
+    /**
+     * Refreshes the tokens if the access token expires soon. Must be called only via {@link #exclusive(Supplier)}.
+     *
+     * @param handler Handler that provides the password, if required, and the cancellation
+     * @param ahead   Refresh the tokens if the access token expires within this duration or its expiry is unknown, {@code null} to always refresh
+     * @return Future as described in {@link #refresh(LoginHandler, Duration)}
+     */
+    @CheckReturnValue
+    @NotNull
+    private CompletableFuture<Boolean> refreshNow(@NotNull LoginHandler handler, @Nullable Duration ahead) {
+        try {
+            // Value holders.
+            Holder<MCAToken> access = new Holder<>();
+            Holder<String> refresh = new Holder<>();
+            Holder<Boolean> recrypt = new Holder<>(false);
+
+            // Read the crypt.
+            CompletableFuture<Crypt> future;
+            byte[] crypted;
+            try (ByteArrayInputStream byteIn = new ByteArrayInputStream(this.data());
+                 DataInputStream in = new DataInputStream(byteIn)) {
+                // Read and process the crypt.
+                future = Crypt.readType(in, handler::password);
+
+                // Crypted data.
+                crypted = in.readAllBytes();
+            }
+
+            // Decrypt and refresh.
+            return future.thenComposeAsync(crypt -> {
+                // Skip if cancelled.
+                if (crypt == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
+
+                // Decrypt and read the tokens.
+                readTokens(decrypt(crypt, crypted), access, refresh);
+                MCAToken token = access.get();
+                this.expires = token.expires();
+
+                // Skip if not expiring.
+                if (ahead != null && token.expires() != 0L && System.currentTimeMillis() < token.expires() - ahead.toMillis()) {
+                    return CompletableFuture.completedFuture(false);
+                }
+
+                // Log it.
+                LOGGER.info("IAS: Refreshing expiring MCA of {}/{}...", this.uuid, this.name);
+
+                // Refresh.
+                Crypt target = Objects.requireNonNullElse(crypt.migrate(), crypt);
+                return this.refresh(handler, access, refresh, recrypt, null).thenApplyAsync(profile -> {
+                    // Skip if cancelled.
+                    if (profile == null || handler.cancelled()) return null;
+
+                    // Encrypt the tokens.
+                    this.data = encryptTokens(target, access.get(), refresh.get());
+                    this.payload = null;
+                    this.expires = access.get().expires();
+
+                    // Refresh the profile.
+                    if (!this.uuid.equals(profile.uuid()) || !this.name.equals(profile.name())) {
+                        this.uuid = profile.uuid();
+                        this.name = profile.name();
+                        IASStorage.ACCOUNTS.reindex(this);
+                    }
+
+                    // Log it.
+                    LOGGER.info("IAS: Refreshed MCA of {}.", profile);
+                    return true;
+                }, IAS.executor());
+            }, IAS.executor());
+        } catch (Throwable t) {
+            // Rethrow.
+            return CompletableFuture.failedFuture(new RuntimeException("Unable to begin MS refresh.", t));
+        }
+    }
+
+    /**
+     * Runs the login or refresh after the in-flight one completes (either way) and makes it the in-flight one.
+     *
+     * @param task Login or refresh task, called on the IAS executor
+     * @param <T>  Type of the task result
+     * @return Future that will complete with the task result
+     */
+    @NotNull
+    private <T> CompletableFuture<T> exclusive(@NotNull Supplier<CompletableFuture<T>> task) {
+        // Become the in-flight task.
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> previous = this.inflight.getAndSet(future);
+
+        // Wait for the previous task, ignoring its result.
+        CompletableFuture<?> wait = previous != null ? previous.handle((value, t) -> null) : CompletableFuture.completedFuture(null);
+        wait.thenComposeAsync(ignored -> task.get(), IAS.executor()).whenComplete((value, t) -> {
+            // Stop being the in-flight task, unless another one is already queued.
+            this.inflight.compareAndSet(future, null);
+
+            // Complete.
+            if (t != null) {
+                future.completeExceptionally(t);
+            } else {
+                future.complete(value);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Gets whether the account is being logged into or refreshed.
+     *
+     * @return Whether the login or refresh is in progress
+     */
+    @Contract(pure = true)
+    public boolean busy() {
+        return this.inflight.get() != null;
+    }
+
+    /**
+     * Gets the known access token expiry.
+     *
+     * @return Access token expiry in epoch millis, {@code 0} if the tokens haven't been decrypted yet or the expiry is unknown
+     */
+    @Contract(pure = true)
+    public long expires() {
+        return this.expires;
+    }
+
+    /**
+     * Refreshes the tokens and gets the profile using the refreshed Minecraft Access (MCA) token.
+     *
+     * @param handler  Login handler
+     * @param access   Access token holder, will be updated with the refreshed token
+     * @param refresh  Refresh token holder, will be updated with the refreshed token
+     * @param recrypt  Recrypt flag holder, will be set to {@code true}
+     * @param original Original validation error, {@code null} if the token was known to be expired
+     * @return Future that will complete with the profile, with {@code null} if cancelled, or exceptionally
+     */
+    @CheckReturnValue
+    @NotNull
+    private CompletableFuture<MCProfile> refresh(@NotNull LoginHandler handler, @NotNull Holder<MCAToken> access,
+                                                 @NotNull Holder<String> refresh, @NotNull Holder<Boolean> recrypt,
+                                                 @Nullable Throwable original) {
+        // Require recrypting data.
+        recrypt.set(true);
+
+        // Get the MCA, resuming from the cached tokens, if any.
+        return this.mca(handler, refresh, true).thenComposeAsync(token -> {
+            // Skip if cancelled.
+            if (token == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
+
+            // Update the access token.
+            access.set(token);
+
+            // Log it and display progress.
+            LOGGER.info("IAS: Converting MCA TO MCP... (refreshed)");
+            handler.stage(MCA_TO_MCP);
+
+            // Convert MCA to MCP.
+            return MSAuth.mcaToMcp(token.token());
+        }, IAS.executor()).exceptionallyAsync(t -> {
+            if (original != null) {
+                t.addSuppressed(original);
+            }
+
+            // Probable case - no internet connection.
+            if (IUtils.anyInCausalChain(t, err -> err instanceof UnresolvedAddressException || err instanceof NoRouteToHostException || err instanceof HttpTimeoutException || err instanceof ConnectException)) {
+                throw new FriendlyException("Unable to connect to MSR servers.", t, "ias.error.connect");
+            }
+
+            // Handle error.
+            throw new RuntimeException("Unable to perform MSR auth.", t);
+        }, IAS.executor()).exceptionallyAsync(t -> {
+            // Rethrow. (adding original)
+            if (original != null) {
+                t.addSuppressed(original);
+            }
+            throw new RuntimeException("Unable to refresh MSR.", t);
+        }, IAS.executor());
+    }
+
+    /**
+     * Gets the new Minecraft Access (MCA) token. Resumes the chain from the latest cached
+     * token that is still valid, falling back to the full chain if the cached token is rejected.
+     *
+     * @param handler Login handler
+     * @param refresh Refresh token holder, will be updated with the refreshed token, if refreshed
+     * @param cached  Whether to use the cached tokens
+     * @return Future that will complete with the MCA token, with {@code null} if cancelled, or exceptionally
+     * @see #xbl
+     * @see #xsts
+     */
+    @CheckReturnValue
+    @NotNull
+    private CompletableFuture<MCAToken> mca(@NotNull LoginHandler handler, @NotNull Holder<String> refresh, boolean cached) {
+        // Resume from the cached XSTS.
+        XHashedToken cachedXsts = this.xsts;
+        if (cached && cachedXsts != null && cachedXsts.valid()) {
+            // Log it and display progress.
+            LOGGER.info("IAS: Converting XSTS to MCA... (cached)");
+            handler.stage(XSTS_TO_MCA);
+
+            // Convert XSTS to MCA.
+            return MSAuth.xstsToMca(cachedXsts.token(), cachedXsts.hash())
+                    .exceptionallyComposeAsync(t -> this.uncached(handler, refresh, t), IAS.executor());
+        }
+
+        // Resume from the cached XBL or convert MSR to XBL.
+        XHashedToken cachedXbl = this.xbl;
+        boolean resumed = cached && cachedXbl != null && cachedXbl.valid();
+        CompletableFuture<XHashedToken> future;
+        if (resumed) {
+            // Log it.
+            LOGGER.info("IAS: Using cached XBL.");
+            future = CompletableFuture.completedFuture(cachedXbl);
+        } else {
+            // Log it and display progress.
+            LOGGER.info("IAS: Converting MSR to MSA/MSR...");
+            handler.stage(MSR_TO_MSA_MSR);
+
+            // Convert MSR to MSA/MSR.
+            future = MSAuth.msrToMsaMsr(refresh.get()).thenComposeAsync(ms -> {
+                // Skip if cancelled.
+                if (ms == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
+
+                // Update the refresh token.
+                refresh.set(ms.refresh());
+
+                // Log it and display progress.
+                LOGGER.info("IAS: Converting MSA to XBL...");
+                handler.stage(MSA_TO_XBL);
+
+                // Convert MSA to XBL.
+                return MSAuth.msaToXbl(ms.access());
+            }, IAS.executor());
+        }
+
+        // Convert XBL to MCA.
+        CompletableFuture<MCAToken> mca = future.thenComposeAsync(xbl -> {
+            // Skip if cancelled.
+            if (xbl == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
+
+            // Cache the XBL.
+            this.xbl = xbl;
+
+            // Log it and display progress.
+            LOGGER.info("IAS: Converting XBL to XSTS...");
+            handler.stage(XBL_TO_XSTS);
+
+            // Convert XBL to XSTS.
+            return MSAuth.xblToXsts(xbl.token(), xbl.hash());
+        }, IAS.executor()).thenComposeAsync(xsts -> {
+            // Skip if cancelled.
+            if (xsts == null || handler.cancelled()) return CompletableFuture.completedFuture(null);
+
+            // Cache the XSTS.
+            this.xsts = xsts;
+
+            // Log it and display progress.
+            LOGGER.info("IAS: Converting XSTS to MCA...");
+            handler.stage(XSTS_TO_MCA);
+
+            // Convert XSTS to MCA.
+            return MSAuth.xstsToMca(xsts.token(), xsts.hash());
+        }, IAS.executor());
+
+        // Fall back if resumed from the cache.
+        return resumed ? mca.exceptionallyComposeAsync(t -> this.uncached(handler, refresh, t), IAS.executor()) : mca;
+    }
+
+    /**
+     * Drops the cached tokens and gets the new Minecraft Access (MCA) token using the full chain.
+     *
+     * @param handler Login handler
+     * @param refresh Refresh token holder, will be updated with the refreshed token
+     * @param cause   Error of the cached token
+     * @return Future that will complete with the MCA token, with {@code null} if cancelled, or exceptionally
+     */
+    @CheckReturnValue
+    @NotNull
+    private CompletableFuture<MCAToken> uncached(@NotNull LoginHandler handler, @NotNull Holder<String> refresh, @NotNull Throwable cause) {
+        // Skip if cancelled.
+        if (handler.cancelled()) return CompletableFuture.completedFuture(null);
+
+        // Log it.
+        LOGGER.warn("IAS: Cached Xbox token has been rejected. Refreshing MSR...", cause);
+
+        // Drop the cache and retry.
+        this.xbl = null;
+        this.xsts = null;
+        return this.mca(handler, refresh, false);
+    }
+
+    /**
+     * Reads the crypt of this account data.
+     *
+     * @param password Password provider, if required
+     * @return Future will contain crypt on success, will contain {@code null} if {@code password} returns {@code null} on request, will complete exceptionally on error or unknown crypt type
+     * @see #recrypt(Crypt, Crypt)
+     */
+    @CheckReturnValue
+    @NotNull
+    public CompletableFuture<Crypt> crypt(@NotNull Supplier<CompletableFuture<String>> password) {
+        try (ByteArrayInputStream byteIn = new ByteArrayInputStream(this.data());
+             DataInputStream in = new DataInputStream(byteIn)) {
+            return Crypt.readType(in, password);
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(new RuntimeException("Unable to read account crypt.", t));
+        }
+    }
+
+    /**
+     * Decrypts this account data and encrypts it using another crypt. Blocks the thread.
+     *
+     * @param crypt  Current account crypt
+     * @param target Target crypt
+     * @return New re-encrypted account
+     * @throws RuntimeException If unable to re-encrypt the data
+     * @see #crypt(Supplier)
+     */
+    @CheckReturnValue
+    @NotNull
+    public MicrosoftAccount recrypt(@NotNull Crypt crypt, @NotNull Crypt target) {
+        ByteBuffer decrypted = null;
+        try {
+            // Verify the type.
+            ByteBuffer crypted = ByteBuffer.wrap(this.data());
+            String type = IUtils.getUTF(crypted);
+            if (!crypt.type().equals(type)) {
+                throw new IllegalArgumentException("Crypt type mismatch: " + type + " / " + crypt.type());
+            }
+
+            // Decrypt.
+            decrypted = ByteBuffer.allocateDirect(crypted.remaining());
+            crypt.decrypt(crypted, decrypted);
+            decrypted.flip();
+
+            // Encrypt and write the data.
+            String targetType = target.type();
+            ByteBuffer encrypted = ByteBuffer.allocate(2 + IUtils.utfLength(targetType) + decrypted.remaining() + target.overhead());
+            IUtils.putUTF(encrypted, targetType);
+            target.encrypt(decrypted, encrypted);
+            return new MicrosoftAccount(target.insecure(), this.uuid, this.name, Arrays.copyOf(encrypted.array(), encrypted.position()));
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to re-encrypt MS account: " + this, t);
+        } finally {
+            // Wipe the tokens.
+            if (decrypted != null) {
+                Crypt.wipe(decrypted);
+            }
+        }
+    }
+
+    /**
+     * Decrypts the tokens into the off-heap buffer that must be wiped after reading.
+     *
+     * @param crypt   Account crypt
+     * @param crypted Encrypted tokens (account data without the crypt type)
+     * @return Decrypted tokens, flipped for reading
+     * @throws RuntimeException If unable to decrypt the tokens
+     * @see #readTokens(ByteBuffer, Holder, Holder)
+     */
+    @CheckReturnValue
+    @NotNull
+    private static ByteBuffer decrypt(@NotNull Crypt crypt, byte @NotNull [] crypted) {
+        ByteBuffer data = ByteBuffer.allocateDirect(crypted.length);
+        try {
+            crypt.decrypt(ByteBuffer.wrap(crypted), data);
+        } catch (Throwable t) {
+            Crypt.wipe(data);
+            throw t;
+        }
+        return data.flip();
+    }
+
+    /**
+     * Reads the decrypted tokens and wipes them.
+     *
+     * @param data    Decrypted tokens
+     * @param access  Access token holder
+     * @param refresh Refresh token holder
+     * @throws RuntimeException If unable to read the tokens
+     * @see #decrypt(Crypt, byte[])
+     */
+    private static void readTokens(@NotNull ByteBuffer data, @NotNull Holder<MCAToken> access, @NotNull Holder<String> refresh) {
+        try {
+            // Read the access token.
+            String token = IUtils.getUTF(data);
+
+            // Read the refresh token.
+            refresh.set(IUtils.getUTF(data));
+
+            // Read the access token expiry. (older data has no expiry, read it from the token then)
+            long expires = data.remaining() == Long.BYTES ? data.getLong() : 0L;
+            access.set(new MCAToken(token, expires != 0L ? expires : MCAToken.expiry(token)));
+
+            // Verify the buffer.
+            if (data.hasRemaining()) {
+                throw new IOException("Leftover: " + data.remaining());
+            }
+        } catch (Throwable t) {
+            throw new RuntimeException("Unable to read the tokens.", t);
+        } finally {
+            // Wipe the tokens.
+            Crypt.wipe(data);
         }
     }
 
+    /**
+     * Encrypts the tokens into the account data. The tokens are encoded into the off-heap buffer
+     * that is wiped right after the encryption instead of the intermediate heap arrays.
+     *
+     * @param crypt   Target crypt
+     * @param access  Access token with its expiry
+     * @param refresh Refresh token
+     * @return Account data, containing crypt type and encrypted tokens
+     * @throws RuntimeException If unable to encrypt the tokens
+     */
+    @CheckReturnValue
+    public static byte @NotNull [] encryptTokens(@NotNull Crypt crypt, @NotNull MCAToken access, @NotNull String refresh) {
+        ByteBuffer unencrypted = null;
+        try {
+            // Write the tokens and the access token expiry.
+            String token = access.token();
+            unencrypted = ByteBuffer.allocateDirect(4 + IUtils.utfLength(token) + IUtils.utfLength(refresh) + Long.BYTES);
+            IUtils.putUTF(unencrypted, token);
+            IUtils.putUTF(unencrypted, refresh);
+            unencrypted.putLong(access.expires());
+            unencrypted.flip();
+
+            // Write the type and encrypt.
+            String type = crypt.type();
+            ByteBuffer encrypted = ByteBuffer.allocate(2 + IUtils.utfLength(type) + unencrypted.remaining() + crypt.overhead());
+            IUtils.putUTF(encrypted, type);
+            crypt.encrypt(unencrypted, encrypted);
+
+            // Return data.
+            return Arrays.copyOf(encrypted.array(), encrypted.position());
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to encrypt the tokens.", t);
+        } finally {
+            // Wipe the tokens.
+            if (unencrypted != null) {
+                Crypt.wipe(unencrypted);
+            }
+        }
+    }
+
+    /**
+     * Gets the encrypted account data, loading it from the {@link #payload()} if required.
+     * The loaded data is not kept in the memory.
+     *
+     * @return Account data copy, containing crypt type and encrypted tokens
+     * @throws RuntimeException If unable to load the data
+     */
+    @CheckReturnValue
+    public byte @NotNull [] data() {
+        byte[] data = this.data;
+        if (data != null) return data.clone();
+        return Objects.requireNonNull(this.payload, "payload").load();
+    }
+
+    /**
+     * Gets the current revision of the encrypted account data. Revisions are compared by identity,
+     * the revision changes whenever the data is replaced, e.g. by the login or the token refresh.
+     *
+     * @return Current data revision
+     */
+    @Contract(pure = true)
+    @NotNull
+    public Object revision() {
+        byte[] data = this.data;
+        return data != null ? data : Objects.requireNonNull(this.payload, "payload");
+    }
+
+    /**
+     * Gets the lazily loaded data payload.
+     *
+     * @return Account data payload, {@code null} if the data is in the memory
+     */
+    @Contract(pure = true)
+    @Nullable
+    public Payload payload() {
+        return this.data != null ? null : this.payload;
+    }
+
     @Contract(value = "null -> false", pure = true)
     @Override
     public boolean equals(@Nullable Object obj) {
@@ -517,12 +995,13 @@ public final class MicrosoftAccount implements Account {
         out.writeUTF(this.name);
 
         // Write the data.
-        out.writeShort(this.data.length);
-        out.write(this.data);
+        byte[] data = this.data();
+        IUtils.writeVarInt(out, data.length);
+        out.write(data);
     }
 
     /**
-     * Reads the account from the input.
+     * Reads the account (version 1) from the input.
      *
      * @param in Target input
      * @return Read account
@@ -530,7 +1009,7 @@ public final class MicrosoftAccount implements Account {
      */
     @CheckReturnValue
     @NotNull
-    public static MicrosoftAccount read(@NotNull DataInput in) throws IOException {
+    public static MicrosoftAccount readV1(@NotNull DataInput in) throws IOException {
         // Read the insecure.
         boolean insecure = in.readBoolean();
 
@@ -540,7 +1019,7 @@ public final class MicrosoftAccount implements Account {
         // Read the name.
         String name = in.readUTF();
 
-        // Read the data.
+        // Read the data. (length is limited to 65535 bytes)
         int length = in.readUnsignedShort();
         byte[] data = new byte[length];
         in.readFully(data);
@@ -548,4 +1027,35 @@ public final class MicrosoftAccount implements Account {
         // Create and return.
         return new MicrosoftAccount(insecure, uuid, name, data);
     }
+
+    /**
+     * Reads the account (version 2) from the input.
+     *
+     * @param in Target input
+     * @return Read account
+     * @throws IOException On I/O error
+     */
+    @CheckReturnValue
+    @NotNull
+    public static MicrosoftAccount readV2(@NotNull DataInput in) throws IOException {
+        // Read the insecure.
+        boolean insecure = in.readBoolean();
+
+        // Read the UUID.
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+
+        // Read the name.
+        String name = in.readUTF();
+
+        // Read the data.
+        int length = IUtils.readVarInt(in);
+        if (length < 0 || length > MAX_DATA) {
+            throw new IOException("Invalid data length: " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+
+        // Create and return.
+        return new MicrosoftAccount(insecure, uuid, name, data);
+    }
 }
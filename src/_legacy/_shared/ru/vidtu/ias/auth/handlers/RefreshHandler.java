@@ -0,0 +1,84 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.auth.handlers;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.vidtu.ias.account.AccountRefresher;
+import ru.vidtu.ias.account.MicrosoftAccount;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handler for bulk refresh of accounts.
+ *
+ * @author VidTu
+ * @apiNote All methods in this class can be called from another thread
+ * @see AccountRefresher#refreshAll(RefreshHandler)
+ */
+public interface RefreshHandler {
+    /**
+     * Gets the cancelled state.
+     *
+     * @return Whether the refresh is cancelled
+     */
+    boolean cancelled();
+
+    /**
+     * Changes the refresh stage.
+     *
+     * @param stage New stage translation key
+     * @param args  New stage translation args
+     */
+    void stage(@NotNull String stage, @Nullable Object @NotNull ... args);
+
+    /**
+     * Requests an encryption password. Requested at most once per refresh.
+     *
+     * @return Future that will complete with password string on password enter, with {@code null} on cancel, exceptionally on error
+     */
+    @CheckReturnValue
+    @NotNull
+    CompletableFuture<String> password();
+
+    /**
+     * Called when the account has been refreshed or has failed to refresh.
+     *
+     * @param account Target account
+     * @param result  Refresh result
+     */
+    void refreshed(@NotNull MicrosoftAccount account, @NotNull AccountRefresher.Result result);
+
+    /**
+     * Called when the refresh has been completed and the storage has been saved.
+     *
+     * @param results Amount of accounts per every refresh result
+     */
+    void refreshed(@NotNull Map<AccountRefresher.Result, Integer> results);
+
+    /**
+     * Called when the refresh has failed.
+     *
+     * @param error Failure reason
+     */
+    void error(@NotNull Throwable error);
+}
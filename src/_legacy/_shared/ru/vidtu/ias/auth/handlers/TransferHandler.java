@@ -0,0 +1,76 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.auth.handlers;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.vidtu.ias.account.AccountTransfer;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handler for bulk import and export of accounts.
+ *
+ * @author VidTu
+ * @apiNote All methods in this class can be called from another thread
+ * @see AccountTransfer
+ */
+public interface TransferHandler {
+    /**
+     * Gets the cancelled state.
+     *
+     * @return Whether the transfer is cancelled
+     */
+    boolean cancelled();
+
+    /**
+     * Changes the transfer stage.
+     *
+     * @param stage New stage translation key
+     * @param args  New stage translation args
+     */
+    void stage(@NotNull String stage, @Nullable Object @NotNull ... args);
+
+    /**
+     * Requests an encryption password. Requested at most once per transfer.
+     *
+     * @return Future that will complete with password string on password enter, with {@code null} on cancel, exceptionally on error
+     */
+    @CheckReturnValue
+    @NotNull
+    CompletableFuture<String> password();
+
+    /**
+     * Called when the transfer has been completed and the storage (or the exported files) has been written.
+     *
+     * @param transferred Amount of imported or exported accounts
+     * @param skipped     Amount of accounts that were already present or were skipped
+     * @param failed      Amount of accounts (or files) that failed to transfer
+     */
+    void transferred(int transferred, int skipped, int failed);
+
+    /**
+     * Called when the transfer has failed.
+     *
+     * @param error Failure reason
+     */
+    void error(@NotNull Throwable error);
+}
@@ -25,24 +25,38 @@ import com.google.gson.JsonObject;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.vidtu.ias.IAS;
 import ru.vidtu.ias.auth.microsoft.fields.DeviceAuth;
+import ru.vidtu.ias.auth.microsoft.fields.MCAToken;
 import ru.vidtu.ias.auth.microsoft.fields.MCProfile;
 import ru.vidtu.ias.auth.microsoft.fields.MSTokens;
 import ru.vidtu.ias.auth.microsoft.fields.XHashedToken;
 import ru.vidtu.ias.utils.GSONUtils;
+import ru.vidtu.ias.utils.IHttp;
 import ru.vidtu.ias.utils.exceptions.DevicePendingException;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Class for Microsoft authentication system.
@@ -52,26 +66,42 @@ import java.util.concurrent.CompletableFuture;
  */
 public final class MSAuth {
     /**
-     * Request client.
+     * Minimum delay between the requests to the same host, in nanoseconds.
+     */
+    private static final long HOST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, Long.getLong("ias.auth.hostIntervalMillis", 250L)));
+
+    /**
+     * Hosts mapped to their last reserved request slot, in {@link System#nanoTime()}.
      */
     @NotNull
-    private static final HttpClient CLIENT = HttpClient.newBuilder()
-            .connectTimeout(IAS.TIMEOUT)
-            .version(HttpClient.Version.HTTP_2)
-            .followRedirects(HttpClient.Redirect.NEVER)
-            .executor(IAS.executor())
-            .build();
+    private static final Map<String, Long> HOST_SLOTS = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of attempts for the idempotent requests.
+     */
+    private static final int RETRY_ATTEMPTS = Math.max(1, Integer.getInteger("ias.auth.retryAttempts", 4));
+
+    /**
+     * Initial backoff before the retry, in nanoseconds. Doubled for every next retry.
+     */
+    private static final long RETRY_BASE_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, Long.getLong("ias.auth.retryBaseMillis", 500L)));
 
     /**
-     * Request client with sync.
+     * Maximum backoff before the retry, in nanoseconds.
+     */
+    private static final long RETRY_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, Long.getLong("ias.auth.retryMaxMillis", 8000L)));
+
+    /**
+     * Total time after the first attempt after which no retries are made, in nanoseconds. Twice the {@link IAS#TIMEOUT},
+     * so a stage can't take much longer than its requests would take without the retries.
+     */
+    private static final long RETRY_DEADLINE_NANOS = IAS.TIMEOUT.multipliedBy(2L).toNanos();
+
+    /**
+     * Logger for this class.
      */
     @NotNull
-    private static final HttpClient CLIENT_SYNC = HttpClient.newBuilder()
-            .connectTimeout(IAS.TIMEOUT)
-            .version(HttpClient.Version.HTTP_2)
-            .followRedirects(HttpClient.Redirect.NEVER)
-            .executor(Runnable::run)
-            .build();
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/MSAuth");
 
     /**
      * An instance of this class cannot be created.
@@ -83,6 +113,147 @@ public final class MSAuth {
         throw new AssertionError("No instances.");
     }
 
+    /**
+     * Sends the request asynchronously, retrying the transient failures if allowed.
+     *
+     * @param request Target request
+     * @param retry   Whether the request is idempotent and can be retried
+     * @return Future that will complete with the response (possibly with an error status if the retries are exhausted) or exceptionally
+     * @see #attempt(HttpRequest, int, long, long)
+     */
+    @CheckReturnValue
+    @NotNull
+    private static CompletableFuture<HttpResponse<String>> send(@NotNull HttpRequest request, boolean retry) {
+        if (!retry) return slot(request);
+        return attempt(request, 1, System.nanoTime() + RETRY_DEADLINE_NANOS, 0L);
+    }
+
+    /**
+     * Sends the request and schedules the next attempt if it has failed transiently. The delay before the next
+     * attempt is the capped exponential backoff with jitter, but not less than the {@code Retry-After} of the response.
+     * No attempt is scheduled past the deadline.
+     *
+     * @param request  Target request
+     * @param attempt  Current attempt, starting from {@code 1}
+     * @param deadline Deadline for the next attempts, in {@link System#nanoTime()}
+     * @param waited   Total time waited before the previous attempts, in nanoseconds
+     * @return Future that will complete with the response (possibly with an error status if the retries are exhausted) or exceptionally
+     */
+    @CheckReturnValue
+    @NotNull
+    private static CompletableFuture<HttpResponse<String>> attempt(@NotNull HttpRequest request, int attempt, long deadline, long waited) {
+        return slot(request).handle((response, error) -> {
+            // Return if succeeded or failed permanently.
+            String host = request.uri().getHost();
+            String failure = failure(response, error);
+            if (failure == null) {
+                if (attempt > 1) {
+                    LOGGER.info("IAS: Request to {} has succeeded after {} attempts, waited {} ms.", host, attempt, TimeUnit.NANOSECONDS.toMillis(waited));
+                }
+                return complete(response, error);
+            }
+
+            // Return if out of attempts or time.
+            long delay = delay(attempt, response);
+            if (attempt >= RETRY_ATTEMPTS || System.nanoTime() + delay > deadline) {
+                LOGGER.warn("IAS: Request to {} has failed ({}), giving up after {} attempts, waited {} ms.", host, failure, attempt, TimeUnit.NANOSECONDS.toMillis(waited));
+                return complete(response, error);
+            }
+
+            // Log it and retry after the delay.
+            LOGGER.warn("IAS: Request to {} has failed ({}), retrying in {} ms... (attempt {}/{})", host, failure, TimeUnit.NANOSECONDS.toMillis(delay), attempt + 1, RETRY_ATTEMPTS);
+            Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, IAS.executor());
+            return CompletableFuture.runAsync(() -> {}, delayed).thenCompose(ignored -> attempt(request, attempt + 1, deadline, waited + delay));
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Describes the transient failure.
+     *
+     * @param response Response, {@code null} if failed
+     * @param error    Error, {@code null} if succeeded
+     * @return Failure description, {@code null} if there's no failure or the failure is permanent
+     */
+    @Contract(pure = true)
+    @Nullable
+    private static String failure(@Nullable HttpResponse<String> response, @Nullable Throwable error) {
+        // Rate limits and server errors.
+        if (response != null) {
+            int status = response.statusCode();
+            return (status == 429 || status == HttpURLConnection.HTTP_INTERNAL_ERROR || status == HttpURLConnection.HTTP_BAD_GATEWAY ||
+                    status == HttpURLConnection.HTTP_UNAVAILABLE || status == HttpURLConnection.HTTP_GATEWAY_TIMEOUT) ? ("status " + status) : null;
+        }
+
+        // Network errors.
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof IOException ? cause.toString() : null;
+    }
+
+    /**
+     * Gets the delay before the next attempt.
+     *
+     * @param attempt  Current attempt, starting from {@code 1}
+     * @param response Response, {@code null} if failed
+     * @return Delay in nanoseconds
+     */
+    private static long delay(int attempt, @Nullable HttpResponse<String> response) {
+        // Calculate the backoff with equal jitter.
+        long backoff = Math.min(RETRY_MAX_NANOS, RETRY_BASE_NANOS << Math.min(attempt - 1, 30));
+        long delay = backoff / 2L + ThreadLocalRandom.current().nextLong(backoff / 2L + 1L);
+
+        // Honor the Retry-After. (seconds or HTTP date)
+        String header = response != null ? response.headers().firstValue("Retry-After").orElse(null) : null;
+        if (header == null) return delay;
+        try {
+            return Math.max(delay, TimeUnit.SECONDS.toNanos(Long.parseLong(header.trim())));
+        } catch (NumberFormatException ignored) {
+            // Not a number, try the date.
+        }
+        try {
+            long millis = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis();
+            return Math.max(delay, TimeUnit.MILLISECONDS.toNanos(millis));
+        } catch (DateTimeException ignored) {
+            // Unknown format.
+            return delay;
+        }
+    }
+
+    /**
+     * Completes the future with the response or the error.
+     *
+     * @param response Response, {@code null} if failed
+     * @param error    Error, {@code null} if succeeded
+     * @return Completed future
+     */
+    @Contract(pure = true)
+    @NotNull
+    private static CompletableFuture<HttpResponse<String>> complete(@Nullable HttpResponse<String> response, @Nullable Throwable error) {
+        return error != null ? CompletableFuture.failedFuture(error) : CompletableFuture.completedFuture(response);
+    }
+
+    /**
+     * Sends the request asynchronously, spacing the requests to the same host by at least {@link #HOST_INTERVAL_NANOS}.
+     * Protects the auth servers from the request bursts when refreshing multiple accounts at once.
+     *
+     * @param request Target request
+     * @return Future that will complete with the response or exceptionally
+     */
+    @CheckReturnValue
+    @NotNull
+    private static CompletableFuture<HttpResponse<String>> slot(@NotNull HttpRequest request) {
+        // Reserve the next free slot for the host.
+        long now = System.nanoTime();
+        long slot = HOST_SLOTS.merge(request.uri().getHost(), now, (last, cur) -> Math.max(last + HOST_INTERVAL_NANOS, cur));
+
+        // Send right away if the slot is free.
+        long delay = slot - now;
+        if (delay <= 0L) return IHttp.sendAsync(request);
+
+        // Send after the delay otherwise.
+        Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, IAS.executor());
+        return CompletableFuture.runAsync(() -> {}, delayed).thenCompose(ignored -> IHttp.sendAsync(request));
+    }
+
     /**
      * Requests the Device Auth Code. (DAC)
      *
@@ -97,14 +268,14 @@ public final class MSAuth {
                 "&scope=XboxLive.signin%20XboxLive.offline_access";
 
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://login.microsoftonline.com/consumers/oauth2/v2.0/devicecode"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Accept", "application/json")
                 .header("Content-Type", "application/x-www-form-urlencoded")
                 .timeout(IAS.TIMEOUT)
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), false).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
@@ -146,14 +317,14 @@ public final class MSAuth {
         // Send the request.
         HttpResponse<String> response;
         try {
-            response = CLIENT_SYNC.send(HttpRequest.newBuilder()
+            response = IHttp.send(HttpRequest.newBuilder()
                     .uri(URI.create("https://login.microsoftonline.com/consumers/oauth2/v2.0/token"))
                     .header("User-Agent", IAS.USER_AGENT)
                     .header("Accept", "application/json")
                     .header("Content-Type", "application/x-www-form-urlencoded")
                     .timeout(IAS.TIMEOUT)
                     .POST(HttpRequest.BodyPublishers.ofString(payload))
-                    .build(), HttpResponse.BodyHandlers.ofString());
+                    .build());
         } catch (Throwable t) {
             // Rethrow.
             throw new RuntimeException("Unable to send DAC request.", t);
@@ -219,14 +390,14 @@ public final class MSAuth {
                 "&scope=XboxLive.signin%20XboxLive.offline_access";
 
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://login.live.com/oauth20_token.srf"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Accept", "application/json")
                 .header("Content-Type", "application/x-www-form-urlencoded")
                 .timeout(IAS.TIMEOUT)
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), false).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
@@ -265,18 +436,25 @@ public final class MSAuth {
                 "&scope=XboxLive.signin%20XboxLive.offline_access";
 
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://login.live.com/oauth20_token.srf"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Accept", "application/json")
                 .header("Content-Type", "application/x-www-form-urlencoded")
                 .timeout(IAS.TIMEOUT)
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), true).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
                 int status = response.statusCode();
+
+                // Probable case - refresh token has expired or has been revoked.
+                if (status == HttpURLConnection.HTTP_BAD_REQUEST && response.body().contains("\"invalid_grant\"")) {
+                    throw new FriendlyException("Invalid grant", "ias.error.expired");
+                }
+
+                // Other errors.
                 if (status != HttpURLConnection.HTTP_OK) {
                     throw new IllegalArgumentException("Invalid status code: " + status);
                 }
@@ -324,14 +502,14 @@ public final class MSAuth {
         String payload = GSONUtils.GSON.toJson(request);
 
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://user.auth.xboxlive.com/user/authenticate"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .timeout(IAS.TIMEOUT)
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), true).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
@@ -381,14 +559,14 @@ public final class MSAuth {
         String payload = GSONUtils.GSON.toJson(request);
 
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://xsts.auth.xboxlive.com/xsts/authorize"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .timeout(IAS.TIMEOUT)
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), true).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
@@ -399,6 +577,9 @@ public final class MSAuth {
                     try {
                         JsonObject json = GSONUtils.GSON.fromJson(response.body(), JsonObject.class);
                         long err = GSONUtils.getLongOrThrow(json, "XErr");
+                        if (err == 2148916227L) {
+                            throw new FriendlyException("XErr from 401 status: 2148916227 (Xbox banned)", "ias.error.xboxBanned");
+                        }
                         if (err == 2148916233L) {
                             throw new FriendlyException("XErr from 401 status: 2148916233 (No Xbox linked)", "ias.error.noXbox");
                         }
@@ -449,12 +630,12 @@ public final class MSAuth {
      *
      * @param xsts Xbox Secure Token Service (XSTS) token (e.g. from {@link #xblToXsts(String, String)})
      * @param hash User hash (e.g. from {@link XHashedToken#hash()})
-     * @return Future that will complete with an MCA token or exceptionally
+     * @return Future that will complete with an MCA token and its expiry or exceptionally
      * @see <a href="https://wiki.vg/Microsoft_Authentication_Scheme#Authenticate_with_Minecraft">Reference</a>
      */
     @CheckReturnValue
     @NotNull
-    public static CompletableFuture<String> xstsToMca(@NotNull String xsts, @NotNull String hash) {
+    public static CompletableFuture<MCAToken> xstsToMca(@NotNull String xsts, @NotNull String hash) {
         // Create the payload.
         // This is ugly, but I won't create custom classes and serializers just for this.
         JsonObject request = new JsonObject();
@@ -462,14 +643,14 @@ public final class MSAuth {
         String payload = GSONUtils.GSON.toJson(request);
 
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://api.minecraftservices.com/authentication/login_with_xbox"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .timeout(IAS.TIMEOUT)
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), true).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
@@ -481,7 +662,7 @@ public final class MSAuth {
                 // Decode the token and return it.
                 JsonObject json = GSONUtils.GSON.fromJson(response.body(), JsonObject.class);
                 Objects.requireNonNull(json, "Response is null");
-                return GSONUtils.getStringOrThrow(json, "access_token");
+                return MCAToken.fromJson(json);
             } catch (Throwable t) {
                 // Rethrow, trying to remove sensitive data.
                 String message = "Unable to convert Xbox Secure Token Service (XSTS) token to Minecraft Access (MCA) token (" + response + " with " + response.headers() + "): " + response.body();
@@ -495,7 +676,7 @@ public final class MSAuth {
     /**
      * Gets the Minecraft Profile (MCP) from the Minecraft Access (MCA) token.
      *
-     * @param access Minecraft Access (MCA) token (e.g. from {@link #xstsToMca(String, String)})
+     * @param access Minecraft Access (MCA) token (e.g. from {@link MCAToken#token()})
      * @return Future that will complete with an MCP or exceptionally
      * @see <a href="https://wiki.vg/Microsoft_Authentication_Scheme#Getting_the_profile">Reference</a>
      */
@@ -503,13 +684,13 @@ public final class MSAuth {
     @NotNull
     public static CompletableFuture<MCProfile> mcaToMcp(@NotNull String access) {
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://api.minecraftservices.com/minecraft/profile"))
                 .header("User-Agent", IAS.USER_AGENT)
                 .header("Authorization", "Bearer " + access)
                 .timeout(IAS.TIMEOUT)
                 .GET()
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), true).thenApplyAsync(response -> {
             // Process the response.
             try {
                 // Check the code.
@@ -548,12 +729,12 @@ public final class MSAuth {
     @NotNull
     public static CompletableFuture<MCProfile> nameToMcp(@NotNull String name) {
         // Send the request.
-        return CLIENT.sendAsync(HttpRequest.newBuilder()
+        return send(HttpRequest.newBuilder()
                 .uri(URI.create("https://api.mojang.com/users/profiles/minecraft/" + URLEncoder.encode(name, StandardCharsets.UTF_8)))
                 .header("User-Agent", IAS.USER_AGENT)
                 .timeout(IAS.TIMEOUT)
                 .GET()
-                .build(), HttpResponse.BodyHandlers.ofString()).thenApplyAsync(response -> {
+                .build(), true).thenApplyAsync(response -> {
             try {
                 // Check the code.
                 int status = response.statusCode();
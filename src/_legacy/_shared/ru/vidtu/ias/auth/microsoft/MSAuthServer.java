@@ -28,15 +28,14 @@ import org.slf4j.LoggerFactory;
 import ru.vidtu.ias.IAS;
 import ru.vidtu.ias.account.MicrosoftAccount;
 import ru.vidtu.ias.auth.handlers.CreateHandler;
+import ru.vidtu.ias.auth.microsoft.fields.MCAToken;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.crypt.Crypt;
 import ru.vidtu.ias.utils.Holder;
 import ru.vidtu.ias.utils.IUtils;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
@@ -423,7 +422,7 @@ public final class MSAuthServer implements Runnable, Closeable {
             String query = uri.getQuery();
 
             // Value holders.
-            Holder<String> access = new Holder<>();
+            Holder<MCAToken> access = new Holder<>();
             Holder<String> refresh = new Holder<>();
             Holder<byte[]> data = new Holder<>();
 
@@ -518,7 +517,7 @@ public final class MSAuthServer implements Runnable, Closeable {
                 this.handler.stage(MicrosoftAccount.MCA_TO_MCP);
 
                 // Convert MCA to MCP.
-                return MSAuth.mcaToMcp(token);
+                return MSAuth.mcaToMcp(token.token());
             }, IAS.executor()).exceptionallyAsync(t -> {
                 // Probable case - no internet connection.
                 if (IUtils.anyInCausalChain(t, err -> err instanceof UnresolvedAddressException || err instanceof NoRouteToHostException || err instanceof HttpTimeoutException || err instanceof ConnectException)) {
@@ -535,37 +534,8 @@ public final class MSAuthServer implements Runnable, Closeable {
                 LOGGER.info("IAS: Encrypting tokens...");
                 this.handler.stage(MicrosoftAccount.ENCRYPTING);
 
-                // Write the tokens.
-                byte[] unencrypted;
-                try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-                     DataOutputStream out = new DataOutputStream(byteOut)) {
-                    // Write the access token.
-                    out.writeUTF(access.get());
-
-                    // Write the refresh token.
-                    out.writeUTF(refresh.get());
-
-                    // Flush it.
-                    unencrypted = byteOut.toByteArray();
-                } catch (Throwable t) {
-                    throw new RuntimeException("Unable to write the tokens.", t);
-                }
-
                 // Encrypt the tokens.
-                try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-                     DataOutputStream out = new DataOutputStream(byteOut)) {
-                    // Encrypt.
-                    byte[] encrypted = this.crypt.encrypt(unencrypted);
-
-                    // Write data.
-                    out.writeUTF(this.crypt.type());
-                    out.write(encrypted);
-
-                    // Flush it.
-                    data.set(byteOut.toByteArray());
-                } catch (Throwable t) {
-                    throw new RuntimeException("Unable to encrypt the tokens.", t);
-                }
+                data.set(MicrosoftAccount.encryptTokens(this.crypt, access.get(), refresh.get()));
 
                 // Return the profile as-is.
                 return profile;
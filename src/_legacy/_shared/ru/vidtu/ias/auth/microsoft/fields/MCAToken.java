@@ -0,0 +1,126 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.auth.microsoft.fields;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import ru.vidtu.ias.auth.microsoft.MSAuth;
+import ru.vidtu.ias.utils.GSONUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Minecraft Access (MCA) token paired with its expiry.
+ *
+ * @param token   Target token
+ * @param expires Token expiry time in epoch millis, {@code 0} if unknown
+ * @author VidTu
+ * @see MSAuth#xstsToMca(String, String)
+ */
+public record MCAToken(@NotNull String token, long expires) {
+    /**
+     * Time before the expiry at which the token is no longer considered fresh. The game keeps using
+     * the token after the login, so the token that is about to expire is refreshed beforehand.
+     */
+    @NotNull
+    private static final Duration MARGIN = Duration.ofMinutes(5L);
+
+    /**
+     * Checks whether the token is known to be fresh.
+     *
+     * @return Whether the expiry is known and is not within the {@link #MARGIN}
+     */
+    @Contract(pure = true)
+    public boolean fresh() {
+        return this.expires != 0L && System.currentTimeMillis() < this.expires - MARGIN.toMillis();
+    }
+
+    /**
+     * Checks whether the token is known to be expired or about to expire.
+     *
+     * @return Whether the expiry is known and is within the {@link #MARGIN}
+     */
+    @Contract(pure = true)
+    public boolean expired() {
+        return this.expires != 0L && !this.fresh();
+    }
+
+    /**
+     * Extracts the MCA token from the JSON. The expiry is taken from the {@code expires_in}
+     * or, if it's missing, from the {@code exp} claim of the token itself.
+     *
+     * @param json Target JSON
+     * @return Extracted MCA token
+     * @throws JsonParseException If unable to extract
+     */
+    @Contract(value = "_ -> new", pure = true)
+    @NotNull
+    public static MCAToken fromJson(@NotNull JsonObject json) {
+        try {
+            // Extract the token.
+            String token = GSONUtils.getStringOrThrow(json, "access_token");
+
+            // Extract the expiry.
+            JsonElement expiresIn = json.get("expires_in");
+            long expires;
+            if (expiresIn != null && expiresIn.isJsonPrimitive() && expiresIn.getAsJsonPrimitive().isNumber()) {
+                expires = System.currentTimeMillis() + Duration.ofSeconds(expiresIn.getAsLong()).toMillis();
+            } else {
+                expires = expiry(token);
+            }
+
+            // Create the token.
+            return new MCAToken(token, expires);
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new JsonParseException("Unable to parse MCAToken: " + json, t);
+        }
+    }
+
+    /**
+     * Reads the expiry from the {@code exp} claim of the JWT token without verifying it.
+     *
+     * @param token Target token
+     * @return Token expiry time in epoch millis, {@code 0} if the token is not a JWT or has no {@code exp} claim
+     */
+    @Contract(pure = true)
+    public static long expiry(@NotNull String token) {
+        try {
+            // Extract the payload.
+            int start = token.indexOf('.');
+            int end = token.indexOf('.', start + 1);
+            if (start < 0 || end < 0) return 0L;
+            byte[] payload = Base64.getUrlDecoder().decode(token.substring(start + 1, end));
+
+            // Read the claim.
+            JsonObject json = GSONUtils.GSON.fromJson(new String(payload, StandardCharsets.UTF_8), JsonObject.class);
+            if (json == null || !json.has("exp")) return 0L;
+            return Duration.ofSeconds(GSONUtils.getLongOrThrow(json, "exp")).toMillis();
+        } catch (Throwable ignored) {
+            // Not a JWT.
+            return 0L;
+        }
+    }
+}
@@ -28,22 +28,44 @@ import org.jetbrains.annotations.NotNull;
 import ru.vidtu.ias.auth.microsoft.MSAuth;
 import ru.vidtu.ias.utils.GSONUtils;
 
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+
 /**
- * XBL or XSTS token paired with user hash.
+ * XBL or XSTS token paired with user hash and its expiry.
  *
- * @param token Target token
- * @param hash  User hash
+ * @param token   Target token
+ * @param hash    User hash
+ * @param expires Token expiry time in epoch millis, {@code 0} if unknown
  * @author VidTu
  * @see MSAuth#msaToXbl(String)
  * @see MSAuth#xblToXsts(String, String)
  * @see MSAuth#xstsToMca(String, String)
  */
-public record XHashedToken(@NotNull String token, @NotNull String hash) {
+public record XHashedToken(@NotNull String token, @NotNull String hash, long expires) {
+    /**
+     * Time before the expiry at which the token is no longer considered valid. The token is used
+     * for the next step of the chain right away, but the clocks of the client and the server may differ.
+     */
+    @NotNull
+    private static final Duration MARGIN = Duration.ofMinutes(5L);
+
+    /**
+     * Checks whether the token is known to be valid.
+     *
+     * @return Whether the expiry is known and is not within the {@link #MARGIN}
+     */
+    @Contract(pure = true)
+    public boolean valid() {
+        return this.expires != 0L && System.currentTimeMillis() < this.expires - MARGIN.toMillis();
+    }
+
     /**
-     * Extracts the MS tokens from the JSON.
+     * Extracts the XBL or XSTS token from the JSON. The expiry is taken from the {@code NotAfter}, if present.
      *
      * @param json Target JSON
-     * @return Extracted MS tokens
+     * @return Extracted token
      * @throws JsonParseException If unable to extract
      */
     @Contract(value = "_ -> new", pure = true)
@@ -67,8 +89,19 @@ public record XHashedToken(@NotNull String token, @NotNull String hash) {
             JsonObject xuiJson = xuiEntry.getAsJsonObject();
             String uhs = GSONUtils.getStringOrThrow(xuiJson, "uhs");
 
+            // Extract the expiry. (the token is still usable without it, just not cached)
+            JsonElement notAfter = json.get("NotAfter");
+            long expires = 0L;
+            if (notAfter != null && notAfter.isJsonPrimitive() && notAfter.getAsJsonPrimitive().isString()) {
+                try {
+                    expires = Instant.parse(notAfter.getAsString()).toEpochMilli();
+                } catch (DateTimeException ignored) {
+                    // Unknown format.
+                }
+            }
+
             // Create the token.
-            return new XHashedToken(token, uhs);
+            return new XHashedToken(token, uhs, expires);
         } catch (Throwable t) {
             // Rethrow.
             throw new JsonParseException("Unable to parse XHashedToken: " + json, t);
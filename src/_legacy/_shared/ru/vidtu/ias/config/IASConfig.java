@@ -173,6 +173,21 @@ public final class IASConfig {
      */
     public static boolean passwordEchoing = true;
 
+    /**
+     * Whether to store password-crypted accounts in the shared password vault, {@code false} by default.
+     */
+    public static boolean passwordVault = false;
+
+    /**
+     * Password vault auto-lock idle timeout in minutes, {@code 0} or less to lock only on game close, {@code 15} by default.
+     */
+    public static int vaultAutoLock = 15;
+
+    /**
+     * Whether to refresh the expiring Microsoft account tokens in the background while in menus, {@code false} by default.
+     */
+    public static boolean backgroundRefresh = false;
+
     /**
      * Creates a new config for GSON.
      */
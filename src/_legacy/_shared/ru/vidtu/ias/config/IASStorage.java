@@ -19,26 +19,52 @@
 
 package ru.vidtu.ias.config;
 
+import com.google.errorprone.annotations.CheckReturnValue;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Unmodifiable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vidtu.ias.account.Account;
+import ru.vidtu.ias.account.AccountRegistry;
+import ru.vidtu.ias.account.MicrosoftAccount;
+import ru.vidtu.ias.account.Payload;
+import ru.vidtu.ias.utils.Holder;
+import ru.vidtu.ias.utils.IUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Predicate;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -95,6 +121,124 @@ public final class IASStorage {
             "ПРОЧТИ_МЕНЯ_ВАЖНО.txt" // Russian
     );
 
+    /**
+     * Disclaimer bytes.
+     */
+    private static final byte @NotNull [] DISCLAIMER_BYTES = DISCLAIMER.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Disclaimer SHA-256 hash.
+     */
+    private static final byte @NotNull [] DISCLAIMER_HASH = sha256(DISCLAIMER_BYTES);
+
+    /**
+     * Snapshot file name.
+     */
+    @NotNull
+    private static final String SNAPSHOT = "accounts_v2.do_not_send_to_anyone";
+
+    /**
+     * Journal file name.
+     */
+    @NotNull
+    private static final String JOURNAL = "accounts_v2.journal";
+
+    /**
+     * Legacy (fully deflated) snapshot file name. Read only once to convert it into the {@link #SNAPSHOT}.
+     */
+    @NotNull
+    private static final String LEGACY_SNAPSHOT = "accounts_v1.do_not_send_to_anyone";
+
+    /**
+     * Lock file name. Locked by every game instance while it reads or writes the storage.
+     */
+    @NotNull
+    private static final String LOCK = "accounts_v2.lock";
+
+    /**
+     * Vault header file name. Holds the KDF parameters, the salt, and the password check value
+     * shared by all the vault accounts.
+     */
+    @NotNull
+    private static final String VAULT = "vault_v1.do_not_send_to_anyone";
+
+    /**
+     * Snapshot file magic, {@code IASS}.
+     */
+    private static final int SNAPSHOT_MAGIC = 0x49415353;
+
+    /**
+     * Snapshot format version.
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * Snapshot header size: magic, version, generation, records count, table length.
+     * The header is followed by the table of records and the payloads area.
+     * <p>
+     * Every table record is framed as VarInt length, record with the payload offset, and CRC32C of the record,
+     * so the damaged record is skipped without losing the others. Payloads are verified by the CRC32C from their records.
+     */
+    private static final int SNAPSHOT_HEADER = 4 + 4 + 8 + 4 + 4;
+
+    /**
+     * Type of the record that stores the account header, while its data is stored in the snapshot payloads area.
+     */
+    @NotNull
+    private static final String STORED = "ias:stored_v1";
+
+    /**
+     * Journal file magic, {@code IASJ}.
+     */
+    private static final int JOURNAL_MAGIC = 0x4941534A;
+
+    /**
+     * Journal format version.
+     */
+    private static final int JOURNAL_VERSION = 2;
+
+    /**
+     * Journal header size: magic, version, snapshot generation.
+     */
+    private static final int JOURNAL_HEADER = 4 + 4 + 8;
+
+    /**
+     * Journal records count after which the journal is compacted into the snapshot.
+     */
+    private static final int COMPACT_RECORDS = Math.max(1, Integer.getInteger("ias.storage.compactRecords", 256));
+
+    /**
+     * Minimum journal size in bytes after which the journal is compacted into the snapshot.
+     * The journal is also compacted once it becomes larger than the snapshot itself.
+     */
+    private static final long COMPACT_BYTES = 64L * 1024L;
+
+    /**
+     * Amount of the previous snapshots (with their journals) kept as the backups, {@code ias.storage.backups} (3 by default).
+     * Each backup is the complete storage state as it was before the save that compacted it into the next snapshot.
+     */
+    private static final int BACKUPS = Math.max(0, Integer.getInteger("ias.storage.backups", 3));
+
+    /**
+     * Add operation: index, record.
+     */
+    private static final int OP_ADD = 1;
+
+    /**
+     * Remove operation: index.
+     */
+    private static final int OP_REMOVE = 2;
+
+    /**
+     * Move operation: from index, to index.
+     */
+    private static final int OP_MOVE = 3;
+
+    /**
+     * Set (update payload) operation: index, record.
+     */
+    private static final int OP_SET = 4;
+
     /**
      * Logger for this class.
      */
@@ -105,13 +249,62 @@ public final class IASStorage {
      * Account data, encrypted or not.
      */
     @NotNull
-    public static final List<Account> ACCOUNTS = new ArrayList<>(0);
+    public static final AccountRegistry ACCOUNTS = new AccountRegistry();
 
     /**
      * Whether the game disclaimer was shown.
      */
     public static boolean gameDisclaimerShown = false;
 
+    /**
+     * Game directory for which the disclaimers have been checked or written in this session, {@code null} if none.
+     */
+    @Nullable
+    private static volatile Path disclaimers;
+
+    /**
+     * Persisted (snapshot with applied journal) encoded accounts, {@code null} if not loaded or saved yet. Guarded by the class.
+     */
+    @Nullable
+    private static List<ByteBuffer> persisted;
+
+    /**
+     * Size of the current snapshot file in bytes. Guarded by the class.
+     */
+    private static long snapshotSize;
+
+    /**
+     * Current snapshot file, {@code null} if not loaded or saved yet. Guarded by the class.
+     */
+    @Nullable
+    private static Path snapshotFile;
+
+    /**
+     * Generation of the current snapshot file. Guarded by the class.
+     */
+    private static long snapshotGeneration;
+
+    /**
+     * Absolute offsets of the payloads in the {@link #snapshotFile} by their IDs. Guarded by the class.
+     */
+    @NotNull
+    private static final Map<Long, Long> OFFSETS = new HashMap<>(0);
+
+    /**
+     * Next free payload ID. Guarded by the class.
+     */
+    private static long nextPayload;
+
+    /**
+     * Size of the valid journal part in bytes, including the header. Guarded by the class.
+     */
+    private static long journalSize;
+
+    /**
+     * Amount of records in the journal. Guarded by the class.
+     */
+    private static int journalRecords;
+
     /**
      * An instance of this class cannot be created.
      *
@@ -123,41 +316,52 @@ public final class IASStorage {
     }
 
     /**
-     * Writes the disclaimers.
+     * Writes the disclaimers, if they are missing or changed. The disclaimers are checked only once per session
+     * for every game directory, the later calls don't touch the file system.
      *
      * @param path Game directory
      * @throws RuntimeException If unable to write the disclaimers
      */
     public static void disclaimers(@NotNull Path path) {
+        // Skip if already checked.
+        if (path.equals(disclaimers)) return;
         try {
             // Log.
             LOGGER.debug("IAS: Writing disclaimers into {}...", path);
 
             // Get the path.
-            path = path.resolve("_IAS_ACCOUNTS_DO_NOT_SEND_TO_ANYONE");
+            Path folder = path.resolve("_IAS_ACCOUNTS_DO_NOT_SEND_TO_ANYONE");
 
             // Create the path.
-            Files.createDirectories(path);
+            Files.createDirectories(folder);
 
             // Write every name.
+            int written = 0;
             for (String name : DISCLAIMER_FILE_NAMES) {
                 // Wrap.
                 try {
                     // Resolve the file.
-                    Path file = path.resolve(name);
+                    Path file = folder.resolve(name);
+
+                    // Skip if not changed.
+                    if (disclaimerValid(file)) continue;
 
                     // Write the disclaimer.
-                    Files.writeString(file, DISCLAIMER, StandardOpenOption.CREATE,
+                    Files.write(file, DISCLAIMER_BYTES, StandardOpenOption.CREATE,
                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
                             StandardOpenOption.SYNC, StandardOpenOption.DSYNC, LinkOption.NOFOLLOW_LINKS);
+                    written++;
                 } catch (Throwable t) {
                     if (!name.equals("READ_ME_IMPORTANT.txt")) continue;
                     throw t;
                 }
             }
 
+            // Remember the state. (the optional disclaimers are not retried, e.g. if the name can't be encoded)
+            disclaimers = path;
+
             // Log.
-            LOGGER.debug("IAS: Disclaimers ({}) written to {}.", DISCLAIMER_FILE_NAMES, path);
+            LOGGER.debug("IAS: Disclaimers ({}) checked in {}, {} written.", DISCLAIMER_FILE_NAMES, folder, written);
         } catch (Throwable t) {
             // Log. (**ERROR**)
             LOGGER.error("Unable to write IAS disclaimers.", t);
@@ -165,124 +369,1319 @@ public final class IASStorage {
     }
 
     /**
-     * Loads the storage.
+     * Checks whether the disclaimer file exists and matches the current disclaimer by size and hash.
+     *
+     * @param file Target file
+     * @return Whether the disclaimer file is up-to-date
+     * @throws IOException On I/O error
+     */
+    private static boolean disclaimerValid(@NotNull Path file) throws IOException {
+        // Check the size.
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ignored) {
+            return false;
+        }
+        if (!attributes.isRegularFile() || attributes.size() != DISCLAIMER_BYTES.length) return false;
+
+        // Check the hash.
+        return MessageDigest.isEqual(DISCLAIMER_HASH, sha256(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Hashes the data using SHA-256.
+     *
+     * @param data Target data
+     * @return Data hash
+     * @throws RuntimeException If SHA-256 is not available
+     */
+    @Contract(pure = true)
+    private static byte @NotNull [] sha256(byte @NotNull [] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to hash using SHA-256.", t);
+        }
+    }
+
+    /**
+     * Loads the storage, replaying the journal over the snapshot.
      *
      * @param path Game directory
      * @throws RuntimeException If unable to load the storage
      */
     public static void load(@NotNull Path path) {
-        try {
-            // Log.
-            LOGGER.debug("IAS: Loading storage for {}...", path);
-
-            // Get the file.
-            Path folder = path.resolve("_IAS_ACCOUNTS_DO_NOT_SEND_TO_ANYONE/.hidden");
-            Path file = folder.resolve("accounts_v1.do_not_send_to_anyone");
-            gameDisclaimerShown = Files.isRegularFile(folder.resolve("game_disclaimer_shown"), LinkOption.NOFOLLOW_LINKS);
-
-            // Skip if it doesn't exist.
-            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
-                LOGGER.debug("IAS: Storage not found. Saving...");
-                save(path);
-                return;
-            }
-            file = file.toRealPath(LinkOption.NOFOLLOW_LINKS);
-
-            // Read the data.
-            byte[] data = Files.readAllBytes(file);
-
-            // Decode the data.
-            try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
-                // Read the length. (Hopefully 65535 accounts is enough)
-                int length = in.readUnsignedShort();
-                List<Account> list = new ArrayList<>(length);
-
-                // Read all accounts.
-                for (int i = 0; i < length; i++) {
-                    // Read typed.
-                    list.add(Account.readTyped(in));
-                }
+        synchronized (IASStorage.class) {
+            try {
+                // Log.
+                LOGGER.debug("IAS: Loading storage for {}...", path);
 
-                // Flush the list.
-                ACCOUNTS.addAll(list);
+                // Get the files.
+                Path folder = folder(path);
+                Path legacy = folder.resolve(LEGACY_SNAPSHOT);
+                gameDisclaimerShown = Files.isRegularFile(folder.resolve("game_disclaimer_shown"), LinkOption.NOFOLLOW_LINKS);
 
-                // Deduplicate.
-                Set<Account> set = new HashSet<>(ACCOUNTS.size());
-                ACCOUNTS.removeIf(Predicate.not(set::add));
+                // Lock the storage, so other game instances don't write it while it's read.
+                FileLock lock = lock(folder);
+                try {
+                    // Read the records, falling back to the previous snapshots.
+                    List<ByteBuffer> records = new ArrayList<>(0);
+                    Path file = null;
+                    int replayed = 0;
+                    int backup = 0;
+                    boolean found = false;
+                    for (int i = 0; i <= BACKUPS; i++) {
+                        // Skip if it doesn't exist.
+                        Path snapshot = backup(folder, SNAPSHOT, i);
+                        if (!Files.isRegularFile(snapshot, LinkOption.NOFOLLOW_LINKS)) continue;
+                        found = true;
 
-                // Log.
-                LOGGER.debug("IAS: Loaded {} (currently: {}) accounts from {}.", list.size(), ACCOUNTS.size(), file);
+                        // Read only the table, the payloads are loaded on demand.
+                        try {
+                            snapshot = snapshot.toRealPath(LinkOption.NOFOLLOW_LINKS);
+                            long generation = table(snapshot, records);
+                            replayed = replay(backup(folder, JOURNAL, i), generation, records);
+                            file = snapshot;
+                            backup = i;
+                            break;
+                        } catch (Throwable t) {
+                            LOGGER.error("IAS: Unable to read IAS storage snapshot {}, trying the previous one.", snapshot, t);
+                            records.clear();
+                        }
+                    }
+
+                    // Read the legacy snapshot fully, it will be converted.
+                    boolean convert = false;
+                    if (file == null && Files.isRegularFile(legacy, LinkOption.NOFOLLOW_LINKS)) {
+                        file = legacy.toRealPath(LinkOption.NOFOLLOW_LINKS);
+                        legacy(file, records);
+                        convert = true;
+                    } else if (file == null && found) {
+                        throw new IOException("No readable snapshot in " + folder);
+                    } else if (file == null) {
+                        // Skip if it doesn't exist.
+                        LOGGER.debug("IAS: Storage not found. Saving...");
+                        persisted = null;
+                        persist(folder, encode(ACCOUNTS.snapshot().accounts()));
+                        return;
+                    }
+
+                    // Drop the damaged records. (after the replay, so the journal indices still match)
+                    int damaged = records.size();
+                    records.removeIf(record -> !record.hasRemaining());
+                    damaged -= records.size();
+
+                    // Decode the accounts.
+                    List<Account> list = new ArrayList<>(records.size());
+                    for (ByteBuffer record : records) {
+                        list.add(decode(record));
+                    }
+
+                    // Flush and deduplicate the list.
+                    ACCOUNTS.addAllAbsent(list);
+
+                    // Remember the persisted state.
+                    persisted = records;
+
+                    // Log.
+                    LOGGER.debug("IAS: Loaded {} (currently: {}) accounts from {} with {} journal records.", list.size(), ACCOUNTS.size(), file, replayed);
+
+                    // Convert the legacy snapshot. (it's left as-is for older versions)
+                    if (convert) {
+                        compact(folder, records);
+                        LOGGER.info("IAS: Converted legacy IAS storage {} into {}.", file, folder.resolve(SNAPSHOT));
+                    }
+
+                    // Move the unreadable snapshot away. (the payloads are still read from the backup until compacted)
+                    if (backup > 0) {
+                        LOGGER.error("IAS: Recovered IAS storage from the previous snapshot {}.", file);
+                        for (String name : List.of(SNAPSHOT, JOURNAL)) {
+                            Path damagedFile = folder.resolve(name);
+                            if (!Files.exists(damagedFile, LinkOption.NOFOLLOW_LINKS)) continue;
+                            Files.move(damagedFile, folder.resolve(name + ".damaged"), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }
+
+                    // Rewrite the damaged snapshot without the damaged records.
+                    if (damaged > 0) {
+                        LOGGER.error("IAS: Dropped {} damaged account records from {}.", damaged, file);
+                    }
+                    if (damaged > 0 || (backup > 0 && !convert)) {
+                        compact(folder, records);
+                    }
+                } finally {
+                    unlock(lock);
+                }
+            } catch (Throwable t) {
+                // Rethrow.
+                throw new RuntimeException("Unable to load IAS storage.", t);
+            }
+        }
+    }
+
+    /**
+     * Encodes the accounts snapshot.
+     *
+     * @param accounts Accounts snapshot
+     * @return Encoded accounts
+     * @throws RuntimeException If unable to encode the accounts
+     * @see AccountRegistry#snapshot()
+     */
+    @CheckReturnValue
+    @NotNull
+    @Unmodifiable
+    private static List<ByteBuffer> encode(@NotNull List<Account> accounts) {
+        try {
+            List<ByteBuffer> records = new ArrayList<>(accounts.size());
+            for (Account account : accounts) {
+                records.add(ByteBuffer.wrap(encode(account)));
             }
+            return Collections.unmodifiableList(records);
         } catch (Throwable t) {
             // Rethrow.
-            throw new RuntimeException("Unable to load IAS storage.", t);
+            throw new RuntimeException("Unable to snapshot IAS storage.", t);
         }
     }
 
     /**
-     * Saves the storage.
+     * Saves the storage. Appends the difference with the persisted state to the journal,
+     * compacting the journal into the new snapshot if it grows too large. If another game instance
+     * has changed the storage since it was last read, its changes are merged first. The accounts
+     * snapshot is taken while holding the locks, so it always includes the merged accounts.
      *
      * @param path Game directory
      * @throws RuntimeException If unable to save the storage
+     * @see StorageSaver#request(Path)
+     * @see #reload(Path)
      */
     public static void save(@NotNull Path path) {
-        try {
-            // Log.
-            LOGGER.debug("IAS: Saving storage into {}...", path);
-
-            // Get the file.
-            Path file = path.resolve("_IAS_ACCOUNTS_DO_NOT_SEND_TO_ANYONE/.hidden/accounts_v1.do_not_send_to_anyone");
-
-            // Encode the data.
-            byte[] data;
-            Account[] list;
-            try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-                 DeflaterOutputStream defOut = new DeflaterOutputStream(byteOut);
-                 DataOutputStream out = new DataOutputStream(defOut)) {
-                // Capture the list.
-                list = ACCOUNTS.toArray(Account[]::new);
-
-                // Write the length.
-                out.writeShort(list.length);
-
-                // Write the accounts.
-                for (Account account : list) {
-                    // Write typed.
-                    Account.writeTyped(out, account);
+        synchronized (IASStorage.class) {
+            try {
+                // Log.
+                LOGGER.debug("IAS: Saving storage into {}...", path);
+
+                // Get the folder.
+                Path folder = folder(path);
+
+                // Lock the storage, so other game instances don't write it in between.
+                FileLock lock = lock(folder);
+                try {
+                    // Merge the changes of other instances.
+                    merge(folder);
+
+                    // Write the current accounts. (including the merged ones and the ones merged by earlier reloads)
+                    persist(folder, encode(ACCOUNTS.snapshot().accounts()));
+                } finally {
+                    unlock(lock);
                 }
+            } catch (Throwable t) {
+                // Rethrow.
+                throw new RuntimeException("Unable to save IAS storage.", t);
+            }
+        }
+    }
 
-                // Flush the data.
-                defOut.finish();
-                data = byteOut.toByteArray();
+    /**
+     * Reloads the storage, if it has been changed by another game instance, merging the changes into
+     * the {@link #ACCOUNTS} by the account UUIDs. Does nothing if the storage is not changed or not loaded.
+     *
+     * @param path Game directory
+     * @throws RuntimeException If unable to reload the storage
+     * @see StorageWatcher
+     */
+    public static void reload(@NotNull Path path) {
+        synchronized (IASStorage.class) {
+            try {
+                // Skip if not changed. (checked before the lock, most of the calls are caused by our own writes)
+                Path folder = folder(path);
+                if (persisted == null || !changed(folder)) return;
+
+                // Lock and merge.
+                FileLock lock = lock(folder);
+                try {
+                    merge(folder);
+                } finally {
+                    unlock(lock);
+                }
+            } catch (Throwable t) {
+                // Rethrow.
+                throw new RuntimeException("Unable to reload IAS storage.", t);
             }
+        }
+    }
 
-            // Create parent directories.
-            Files.createDirectories(file.getParent());
+    /**
+     * Gets the storage folder.
+     *
+     * @param path Game directory
+     * @return Storage folder
+     */
+    @Contract(pure = true)
+    @NotNull
+    static Path folder(@NotNull Path path) {
+        return path.resolve("_IAS_ACCOUNTS_DO_NOT_SEND_TO_ANYONE/.hidden");
+    }
 
-            // Try to make folder hidden on Windows. (already hidden by name on UNIX-like)
+    /**
+     * Locks the storage lock file, waiting for other game instances to release it.
+     * Must be called while holding the class lock.
+     *
+     * @param folder Storage folder
+     * @return Acquired lock, must be released using {@link #unlock(FileLock)}
+     * @throws IOException On I/O error
+     */
+    @CheckReturnValue
+    @NotNull
+    private static FileLock lock(@NotNull Path folder) throws IOException {
+        Files.createDirectories(folder);
+        FileChannel channel = FileChannel.open(folder.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+        try {
+            return channel.lock();
+        } catch (Throwable t) {
             try {
-                Files.setAttribute(file.getParent(), "dos:hidden", true, LinkOption.NOFOLLOW_LINKS);
-            } catch (Throwable ignored) {
-                // Ignored
+                channel.close();
+            } catch (Throwable th) {
+                t.addSuppressed(th);
+            }
+            throw t;
+        }
+    }
+
+    /**
+     * Releases the storage lock and closes its channel.
+     *
+     * @param lock Lock acquired by {@link #lock(Path)}
+     * @throws IOException On I/O error
+     */
+    private static void unlock(@NotNull FileLock lock) throws IOException {
+        try (FileChannel channel = lock.channel()) {
+            if (channel.isOpen()) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Writes the storage. Appends the difference with the persisted state to the journal,
+     * compacting the journal into the new snapshot if it grows too large. Must be called while holding the locks.
+     *
+     * @param folder  Storage folder
+     * @param records Encoded accounts snapshot
+     * @throws IOException On I/O error
+     */
+    private static void persist(@NotNull Path folder, @NotNull List<ByteBuffer> records) throws IOException {
+        // Write the full snapshot, if there's nothing to append to.
+        List<ByteBuffer> old = persisted;
+        if (old == null || !Files.isRegularFile(folder.resolve(JOURNAL), LinkOption.NOFOLLOW_LINKS)) {
+            compact(folder, records);
+            return;
+        }
+
+        // Compute the journal operations.
+        ByteArrayOutputStream ops = new ByteArrayOutputStream();
+        int count = diff(new ArrayList<>(old), records, ops);
+        if (count == 0) {
+            LOGGER.debug("IAS: Storage is unchanged, nothing to save.");
+            return;
+        }
+
+        // Compact if the journal is too large.
+        if ((journalRecords + count) > COMPACT_RECORDS || (journalSize + ops.size()) > Math.max(COMPACT_BYTES, snapshotSize)) {
+            compact(folder, records);
+            return;
+        }
+
+        // Append the operations. (truncating any torn tail first)
+        try (FileChannel channel = FileChannel.open(folder.resolve(JOURNAL), StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+            channel.truncate(journalSize);
+            ByteBuffer buffer = ByteBuffer.wrap(ops.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, journalSize + buffer.position());
             }
+            channel.force(false);
+        }
+        journalSize += ops.size();
+        journalRecords += count;
+        persisted = records;
+
+        // Log it.
+        LOGGER.debug("IAS: Appended {} journal records ({} bytes) for {} accounts to {}.", count, ops.size(), records.size(), folder);
+    }
 
-            // Try to make folder EXTRA hidden on Windows. (already hidden by name on UNIX-like)
+    /**
+     * Checks whether the storage has been changed by another game instance since it was last read or written,
+     * i.e. whether the current snapshot has been replaced or the journal has been appended.
+     * Must be called while holding the class lock.
+     *
+     * @param folder Storage folder
+     * @return Whether the storage has been changed, {@code false} if it's missing or unreadable (it will be rewritten)
+     */
+    private static boolean changed(@NotNull Path folder) {
+        // Compare the snapshot generation.
+        try (FileChannel channel = FileChannel.open(folder.resolve(SNAPSHOT), StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 4 + 8);
+            read(channel, header, 0L);
+            header.flip();
+            if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) return false;
+            if (header.getLong() != snapshotGeneration) return true;
+        } catch (IOException e) {
+            LOGGER.trace("IAS: Unable to check the storage snapshot in {}.", folder, e);
+            return false;
+        }
+
+        // Compare the journal size. (a torn tail is reported as a change too, it's harmless)
+        try {
+            return Files.size(folder.resolve(JOURNAL)) != journalSize;
+        } catch (IOException e) {
+            LOGGER.trace("IAS: Unable to check the storage journal in {}.", folder, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the storage changed by another game instance and merges it into the {@link #ACCOUNTS} by the account UUIDs.
+     * The accounts changed by both instances since the last read are kept as in this instance, the accounts removed
+     * by this instance stay removed, other changes (e.g. added accounts or refreshed tokens) are taken from the storage.
+     * Must be called while holding the locks.
+     *
+     * @param folder Storage folder
+     * @return Whether the storage has been changed and merged
+     * @throws IOException On I/O error or malformed storage
+     */
+    private static boolean merge(@NotNull Path folder) throws IOException {
+        // Skip if not changed. (or nothing to merge with, the storage is rewritten then)
+        List<ByteBuffer> base = persisted;
+        if (base == null || !changed(folder)) return false;
+
+        // Read the changed storage. (the payloads of the current accounts are read from it after this)
+        List<ByteBuffer> theirs = new ArrayList<>(base.size());
+        long generation = table(folder.resolve(SNAPSHOT).toRealPath(LinkOption.NOFOLLOW_LINKS), theirs);
+        int replayed = replay(folder.resolve(JOURNAL), generation, theirs);
+        int damaged = theirs.size();
+        theirs.removeIf(record -> !record.hasRemaining());
+        damaged -= theirs.size();
+        persisted = theirs;
+
+        // Rewrite the damaged snapshot without the damaged records.
+        if (damaged > 0) {
+            LOGGER.error("IAS: Dropped {} damaged account records from {}.", damaged, folder.resolve(SNAPSHOT));
+            compact(folder, theirs);
+        }
+
+        // Merge.
+        Map<Key, ByteBuffer> bases = keys(base);
+        Map<Key, ByteBuffer> changes = keys(theirs);
+        Holder<Integer> taken = new Holder<>(0);
+        ACCOUNTS.update(list -> {
             try {
-                Files.setAttribute(file.getParent(), "dos:system", true, LinkOption.NOFOLLOW_LINKS);
-            } catch (Throwable ignored) {
-                // Ignored
+                taken.set(merge(list, bases, changes));
+            } catch (Throwable t) {
+                // Rethrow.
+                throw new RuntimeException("Unable to merge IAS storage.", t);
             }
+        });
 
-            // Write the data.
-            Files.write(file, data, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
-                    StandardOpenOption.SYNC, StandardOpenOption.DSYNC, LinkOption.NOFOLLOW_LINKS);
+        // Log it.
+        LOGGER.info("IAS: Merged {} accounts changed by another game instance from {} with {} journal records.", taken.get(), folder, replayed);
+        return true;
+    }
 
-            // Log it.
-            LOGGER.debug("IAS: Saved {} accounts to {}.", list.length, file);
+    /**
+     * Merges the changed records into the accounts.
+     *
+     * @param list    Current accounts, will be modified
+     * @param bases   Persisted records by their keys, the last state known to this instance
+     * @param changes Changed records by their keys, in the storage order
+     * @return Amount of accounts taken from the changed records
+     * @throws IOException On malformed record
+     * @see #merge(Path)
+     */
+    private static int merge(@NotNull List<Account> list, @NotNull Map<Key, ByteBuffer> bases, @NotNull Map<Key, ByteBuffer> changes) throws IOException {
+        // Collect the payloads readable from the changed snapshot.
+        Set<StoredPayload> payloads = new HashSet<>(changes.size());
+        for (ByteBuffer record : changes.values()) {
+            StoredPayload stored = stored(record);
+            if (stored == null) continue;
+            payloads.add(stored);
+        }
+
+        // Merge the current accounts.
+        List<Account> merged = new ArrayList<>(list.size() + changes.size());
+        List<Key> keys = new ArrayList<>(list.size() + changes.size());
+        Set<Key> seen = new HashSet<>(list.size());
+        Map<UUID, Integer> occurrences = new HashMap<>(list.size());
+        int taken = 0;
+        for (Account account : list) {
+            UUID uuid = account.uuid();
+            Key key = new Key(uuid, occurrences.merge(uuid, 1, Integer::sum));
+            seen.add(key);
+            ByteBuffer record = ByteBuffer.wrap(encode(account));
+            ByteBuffer base = bases.get(key);
+            ByteBuffer change = changes.get(key);
+
+            // Keep the account changed by us, unless its payload is gone. (it was in the replaced snapshot)
+            StoredPayload stored = stored(record);
+            if (!record.equals(base) && (stored == null || payloads.contains(stored))) {
+                merged.add(account);
+                keys.add(key);
+                continue;
+            }
+
+            // Drop the removed account.
+            if (change == null) {
+                taken++;
+                continue;
+            }
+
+            // Keep the unchanged account or take the changed one.
+            if (change.equals(record)) {
+                merged.add(account);
+            } else {
+                merged.add(decode(change));
+                taken++;
+            }
+            keys.add(key);
+        }
+
+        // Add the added accounts after their preceding accounts. (the accounts removed by us stay removed)
+        int anchor = 0;
+        for (Map.Entry<Key, ByteBuffer> entry : changes.entrySet()) {
+            Key key = entry.getKey();
+            if (seen.contains(key) || bases.containsKey(key)) {
+                int index = keys.indexOf(key);
+                if (index == -1) continue;
+                anchor = index + 1;
+                continue;
+            }
+            merged.add(anchor, decode(entry.getValue()));
+            keys.add(anchor, key);
+            anchor++;
+            taken++;
+        }
+
+        // Replace the accounts, if anything is taken.
+        if (taken == 0) return 0;
+        list.clear();
+        list.addAll(merged);
+        return taken;
+    }
+
+    /**
+     * Keys the records by their account UUIDs and the occurrence indexes of the UUIDs.
+     *
+     * @param records Target records
+     * @return Records by their keys, in the records order
+     * @throws IOException On malformed record
+     */
+    @CheckReturnValue
+    @NotNull
+    private static Map<Key, ByteBuffer> keys(@NotNull List<ByteBuffer> records) throws IOException {
+        Map<Key, ByteBuffer> keys = new LinkedHashMap<>(records.size());
+        Map<UUID, Integer> occurrences = new HashMap<>(records.size());
+        for (ByteBuffer record : records) {
+            UUID uuid = decode(record).uuid();
+            keys.put(new Key(uuid, occurrences.merge(uuid, 1, Integer::sum)), record);
+        }
+        return keys;
+    }
+
+    /**
+     * Reads the snapshot table of records. The payloads are not read, only their offsets are remembered.
+     * Damaged records are added as the empty placeholders. Must be called while holding the lock.
+     *
+     * @param file    Snapshot file
+     * @param records Target records list
+     * @return Snapshot generation
+     * @throws IOException On I/O error or malformed snapshot
+     */
+    private static long table(@NotNull Path file, @NotNull List<ByteBuffer> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            // Read the header.
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+            read(channel, header, 0L);
+            header.flip();
+            if (header.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Invalid snapshot magic: " + file);
+            }
+            int version = header.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            long generation = header.getLong();
+            int count = header.getInt();
+            int length = header.getInt();
+            if (count < 0 || length < 0 || (SNAPSHOT_HEADER + (long) length) > size) {
+                throw new EOFException("Invalid snapshot table: " + count + "/" + length + "/" + size);
+            }
+
+            // Read the table.
+            ByteBuffer table = ByteBuffer.allocate(length);
+            read(channel, table, SNAPSHOT_HEADER);
+            table.flip();
+
+            // Read the records.
+            long base = SNAPSHOT_HEADER + (long) length;
+            Map<Long, Long> offsets = new HashMap<>(count);
+            CRC32C crc = new CRC32C();
+            long next = 0L;
+            for (int i = 0; i < count; i++) {
+                try {
+                    // Read the frame.
+                    int recordLength = IUtils.getVarInt(table);
+                    if (recordLength <= 8 || recordLength > (table.remaining() - 4)) {
+                        throw new EOFException("Invalid record length: " + recordLength + "/" + table.remaining());
+                    }
+                    ByteBuffer body = table.slice(table.position(), recordLength);
+                    table.position(table.position() + recordLength);
+                    crc.reset();
+                    crc.update(body.duplicate());
+                    if ((int) crc.getValue() != table.getInt()) {
+                        LOGGER.warn("IAS: Snapshot {} record #{} checksum mismatch, skipping.", file, i);
+                        records.add(ByteBuffer.allocate(0));
+                        continue;
+                    }
+
+                    // Read the record.
+                    byte[] record = new byte[recordLength - 8];
+                    body.get(record);
+                    long offset = body.getLong();
+
+                    // Remember the payload.
+                    if (offset >= 0L) {
+                        StoredPayload stored;
+                        try {
+                            stored = stored(ByteBuffer.wrap(record));
+                        } catch (BufferUnderflowException | IOException e) {
+                            stored = null;
+                        }
+                        if (stored == null || (base + offset + stored.length) > size) {
+                            LOGGER.warn("IAS: Snapshot {} record #{} payload {} at {} is invalid, skipping.", file, i, stored, offset);
+                            records.add(ByteBuffer.allocate(0));
+                            continue;
+                        }
+                        offsets.put(stored.id, base + offset);
+                        next = Math.max(next, stored.id + 1L);
+                    }
+                    records.add(ByteBuffer.wrap(record));
+                } catch (BufferUnderflowException | IOException e) {
+                    // The framing is lost, nothing can be read after this record.
+                    LOGGER.warn("IAS: Snapshot {} record #{} framing is damaged, skipping {} records.", file, i, count - i, e);
+                    for (; i < count; i++) {
+                        records.add(ByteBuffer.allocate(0));
+                    }
+                }
+            }
+
+            // Remember the snapshot.
+            snapshotFile = file;
+            snapshotGeneration = generation;
+            snapshotSize = size;
+            OFFSETS.clear();
+            OFFSETS.putAll(offsets);
+            nextPayload = next;
+            return generation;
+        }
+    }
+
+    /**
+     * Reads the legacy (fully deflated) snapshot records. Must be called while holding the lock.
+     *
+     * @param file    Legacy snapshot file
+     * @param records Target records list
+     * @throws IOException On I/O error or malformed snapshot
+     */
+    private static void legacy(@NotNull Path file, @NotNull List<ByteBuffer> records) throws IOException {
+        // Read the data.
+        byte[] data = Files.readAllBytes(file);
+
+        // Decode the data.
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            // Read the length. (Hopefully 65535 accounts is enough)
+            int length = in.readUnsignedShort();
+
+            // Read all accounts.
+            for (int i = 0; i < length; i++) {
+                // Read typed.
+                records.add(ByteBuffer.wrap(encode(Account.readTyped(in))));
+            }
+        }
+
+        // Nothing is stored in the payloads area.
+        snapshotFile = null;
+        snapshotSize = data.length;
+        OFFSETS.clear();
+        nextPayload = 0L;
+    }
+
+    /**
+     * Writes the full snapshot and starts a new empty journal bound to it. Moves the data of the
+     * in-memory Microsoft accounts into the payloads area. Must be called while holding the lock.
+     *
+     * @param folder  Storage folder
+     * @param records Encoded accounts
+     * @throws IOException On I/O error
+     */
+    private static void compact(@NotNull Path folder, @NotNull List<ByteBuffer> records) throws IOException {
+        // Encode the table and collect the payloads. (payloads are read before the snapshot is overwritten)
+        long next = nextPayload;
+        Map<Long, Long> offsets = new HashMap<>(records.size());
+        List<byte[]> payloads = new ArrayList<>(records.size());
+        CRC32C crc = new CRC32C();
+        byte[] table;
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(byteOut)) {
+            long offset = 0L;
+            for (ByteBuffer record : records) {
+                // Get the record and its payload.
+                StoredPayload stored = stored(record);
+                byte[] entry;
+                byte[] payload;
+                if (stored != null) {
+                    // Copy as-is, the damaged payload will stay detectable by its checksum.
+                    entry = record.array();
+                    payload = payload(stored, false);
+                } else if (decode(record) instanceof MicrosoftAccount account) {
+                    payload = account.data();
+                    crc.reset();
+                    crc.update(payload);
+                    stored = new StoredPayload(next++, payload.length, (int) crc.getValue());
+                    entry = encode(account, stored);
+                } else {
+                    entry = record.array();
+                    payload = null;
+                }
+
+                // Encode the record body.
+                ByteBuffer body = ByteBuffer.allocate(entry.length + 8);
+                body.put(entry);
+                body.putLong(payload != null ? offset : -1L);
+                body.flip();
+
+                // Write the framed record.
+                IUtils.writeVarInt(out, body.remaining());
+                out.write(body.array());
+                crc.reset();
+                crc.update(body);
+                out.writeInt((int) crc.getValue());
+
+                // Remember the payload.
+                if (payload == null) continue;
+                offsets.put(stored.id, offset);
+                payloads.add(payload);
+                offset += payload.length;
+            }
+            table = byteOut.toByteArray();
+        }
+
+        // Encode the data.
+        long generation = ThreadLocalRandom.current().nextLong();
+        byte[] data;
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(byteOut)) {
+            // Write the header.
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(generation);
+            out.writeInt(records.size());
+            out.writeInt(table.length);
+
+            // Write the table and the payloads.
+            out.write(table);
+            for (byte[] payload : payloads) {
+                out.write(payload);
+            }
+            data = byteOut.toByteArray();
+        }
+
+        // Create parent directories.
+        Files.createDirectories(folder);
+
+        // Try to make folder hidden on Windows. (already hidden by name on UNIX-like)
+        try {
+            Files.setAttribute(folder, "dos:hidden", true, LinkOption.NOFOLLOW_LINKS);
+        } catch (Throwable ignored) {
+            // Ignored
+        }
+
+        // Try to make folder EXTRA hidden on Windows. (already hidden by name on UNIX-like)
+        try {
+            Files.setAttribute(folder, "dos:system", true, LinkOption.NOFOLLOW_LINKS);
+        } catch (Throwable ignored) {
+            // Ignored
+        }
+
+        // Encode the new journal header.
+        byte[] header;
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream(JOURNAL_HEADER);
+             DataOutputStream out = new DataOutputStream(byteOut)) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeInt(JOURNAL_VERSION);
+            out.writeLong(generation);
+            header = byteOut.toByteArray();
+        }
+
+        // Write the snapshot and the journal into the temporary files.
+        Path file = folder.resolve(SNAPSHOT);
+        Path snapshotTemp = temp(folder, SNAPSHOT, data);
+        Path journalTemp = temp(folder, JOURNAL, header);
+
+        // Keep the current snapshot with its journal as the latest backup. (the current files stay in place)
+        rotate(folder);
+
+        // Replace the files. If we crash in between, either the old snapshot with its journal or the new snapshot without
+        // the journal (the old journal doesn't match it) is loaded, both are complete. There's always a current snapshot.
+        move(snapshotTemp, file);
+        move(journalTemp, folder.resolve(JOURNAL));
+        sync(folder);
+
+        // Remember the persisted state.
+        long base = SNAPSHOT_HEADER + (long) table.length;
+        persisted = records;
+        snapshotFile = file;
+        snapshotGeneration = generation;
+        snapshotSize = data.length;
+        OFFSETS.clear();
+        offsets.forEach((id, offset) -> OFFSETS.put(id, base + offset));
+        nextPayload = next;
+        journalSize = header.length;
+        journalRecords = 0;
+
+        // Log it.
+        LOGGER.debug("IAS: Saved {} accounts ({} payloads) to {}.", records.size(), payloads.size(), file);
+    }
+
+    /**
+     * Gets the storage file or its backup.
+     *
+     * @param folder Storage folder
+     * @param name   File name
+     * @param backup Backup index, {@code 0} for the current file
+     * @return File path
+     */
+    @Contract(pure = true)
+    @NotNull
+    private static Path backup(@NotNull Path folder, @NotNull String name, int backup) {
+        return folder.resolve(backup == 0 ? name : (name + '.' + backup));
+    }
+
+    /**
+     * Writes the data into the temporary file and syncs it to the disk.
+     *
+     * @param folder Storage folder
+     * @param name   Target file name
+     * @param data   Target data
+     * @return Temporary file
+     * @throws IOException On I/O error
+     */
+    @NotNull
+    private static Path temp(@NotNull Path folder, @NotNull String name, byte @NotNull [] data) throws IOException {
+        Path temp = folder.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        return temp;
+    }
+
+    /**
+     * Shifts the backups of the snapshot and the journal by one, dropping the oldest ones
+     * and linking the current files into the first backup. The current files are left in place,
+     * so they can be atomically replaced afterwards. Must be called while holding the lock.
+     *
+     * @param folder Storage folder
+     * @throws IOException On I/O error
+     */
+    private static void rotate(@NotNull Path folder) throws IOException {
+        for (String name : List.of(SNAPSHOT, JOURNAL)) {
+            for (int i = BACKUPS; i > 0; i--) {
+                // Shift by one. (the missing files are shifted too, so the snapshots and the journals stay paired)
+                Path target = backup(folder, name, i);
+                Path source = backup(folder, name, i - 1);
+                Files.deleteIfExists(target);
+                if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS)) continue;
+
+                // Keep the current file in place until it's replaced.
+                if (i == 1) {
+                    link(source, target);
+                } else {
+                    Files.move(source, target);
+                }
+            }
+        }
+
+        // Follow the rotated snapshot, so the payloads are still readable if we fail to replace it.
+        Path current = snapshotFile;
+        if (current == null) return;
+        String name = current.getFileName().toString();
+        for (int i = BACKUPS - 1; i >= 0; i--) {
+            if (!name.equals(backup(folder, SNAPSHOT, i).getFileName().toString())) continue;
+            snapshotFile = current.resolveSibling(backup(folder, SNAPSHOT, i + 1).getFileName());
+            break;
+        }
+    }
+
+    /**
+     * Creates the hard link to the source file, copying the file if hard links are not supported by the file system.
+     *
+     * @param source Source file
+     * @param target Target file, must not exist
+     * @throws IOException On I/O error
+     */
+    private static void link(@NotNull Path source, @NotNull Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Copy and sync it to the disk.
+            LOGGER.debug("IAS: Hard links are not supported for {}, copying.", target, e);
+            Files.copy(source, target, LinkOption.NOFOLLOW_LINKS);
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the target file with the source file, if supported by the file system.
+     *
+     * @param source Source file
+     * @param target Target file
+     * @throws IOException On I/O error
+     */
+    private static void move(@NotNull Path source, @NotNull Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.debug("IAS: Atomic move is not supported for {}, replacing non-atomically.", target, e);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Syncs the folder entries to the disk, so the renames survive the power loss.
+     * Does nothing if not supported. (e.g. on Windows, where directories can't be opened)
+     *
+     * @param folder Target folder
+     */
+    private static void sync(@NotNull Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
         } catch (Throwable t) {
-            // Rethrow.
-            throw new RuntimeException("Unable to save IAS storage.", t);
+            LOGGER.trace("IAS: Unable to sync folder {}.", folder, t);
+        }
+    }
+
+    /**
+     * Replays the journal over the snapshot records. Stops at the first torn or corrupted record.
+     *
+     * @param journal  Journal file
+     * @param snapshot Snapshot generation
+     * @param records  Snapshot records, will be modified
+     * @return Amount of replayed records
+     * @throws IOException On I/O error
+     */
+    private static int replay(@NotNull Path journal, long snapshot, @NotNull List<ByteBuffer> records) throws IOException {
+        // Reset the journal state.
+        journalSize = 0L;
+        journalRecords = 0;
+
+        // Skip if there's no journal.
+        if (!Files.isRegularFile(journal, LinkOption.NOFOLLOW_LINKS)) return 0;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journal));
+
+        // Skip if the journal belongs to another snapshot.
+        if (buffer.remaining() < JOURNAL_HEADER || buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != JOURNAL_VERSION || buffer.getLong() != snapshot) {
+            LOGGER.debug("IAS: Journal {} doesn't match the snapshot, ignoring.", journal);
+            return 0;
+        }
+
+        // Replay the records.
+        CRC32C crc = new CRC32C();
+        int replayed = 0;
+        while (buffer.hasRemaining()) {
+            // Read the record.
+            int start = buffer.position();
+            ByteBuffer op;
+            try {
+                int length = IUtils.getVarInt(buffer);
+                if (length <= 0 || buffer.remaining() < length + 4) {
+                    buffer.position(start);
+                    break;
+                }
+                op = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                crc.reset();
+                crc.update(op.duplicate());
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    buffer.position(start);
+                    break;
+                }
+            } catch (BufferUnderflowException | IOException e) {
+                // Torn length.
+                buffer.position(start);
+                break;
+            }
+
+            // Apply the record.
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(op.array(), op.arrayOffset(), op.remaining()))) {
+                apply(records, in);
+            } catch (Throwable t) {
+                LOGGER.warn("IAS: Unable to apply journal record #{} from {}, ignoring the rest.", replayed, journal, t);
+                buffer.position(start);
+                break;
+            }
+            replayed++;
+        }
+
+        // Log the torn tail.
+        if (buffer.hasRemaining()) {
+            LOGGER.warn("IAS: Journal {} has {} trailing bytes that can't be replayed, ignoring.", journal, buffer.remaining());
+        }
+
+        // Remember the valid journal state.
+        journalSize = buffer.position();
+        journalRecords = replayed;
+        return replayed;
+    }
+
+    /**
+     * Applies the journal operation to the records.
+     *
+     * @param records Target records
+     * @param in      Operation input
+     * @throws IOException               On I/O error
+     * @throws IndexOutOfBoundsException If the operation doesn't match the records
+     * @throws IllegalArgumentException  On unknown operation
+     */
+    private static void apply(@NotNull List<ByteBuffer> records, @NotNull DataInputStream in) throws IOException {
+        int op = in.readUnsignedByte();
+        switch (op) {
+            case OP_ADD -> {
+                int index = IUtils.readVarInt(in);
+                records.add(index, ByteBuffer.wrap(in.readAllBytes()));
+            }
+            case OP_REMOVE -> records.remove(IUtils.readVarInt(in));
+            case OP_MOVE -> {
+                int from = IUtils.readVarInt(in);
+                int to = IUtils.readVarInt(in);
+                records.add(to, records.remove(from));
+            }
+            case OP_SET -> {
+                int index = IUtils.readVarInt(in);
+                records.set(index, ByteBuffer.wrap(in.readAllBytes()));
+            }
+            default -> throw new IllegalArgumentException("Unknown journal operation: " + op);
+        }
+    }
+
+    /**
+     * Computes the journal operations that transform the persisted records into the current ones.
+     *
+     * @param work    Persisted records, will be transformed
+     * @param records Current records
+     * @param out     Target output for the framed operations
+     * @return Amount of written operations
+     * @throws IOException On I/O error
+     */
+    private static int diff(@NotNull List<ByteBuffer> work, @NotNull List<ByteBuffer> records, @NotNull ByteArrayOutputStream out) throws IOException {
+        Set<ByteBuffer> current = new HashSet<>(records);
+        int count = 0;
+        for (int i = 0, size = records.size(); i < size; ) {
+            ByteBuffer record = records.get(i);
+
+            // Already in place.
+            if (i < work.size() && work.get(i).equals(record)) {
+                i++;
+                continue;
+            }
+
+            // Find the record later in the persisted list.
+            int found = -1;
+            for (int j = i + 1, workSize = work.size(); j < workSize; j++) {
+                if (!work.get(j).equals(record)) continue;
+                found = j;
+                break;
+            }
+
+            // Removed record - remove it (and retry at this index), or replace it in place if the current record is new.
+            if (i < work.size() && !current.contains(work.get(i))) {
+                if (found != -1) {
+                    work.remove(i);
+                    frame(out, OP_REMOVE, i, -1, null);
+                } else {
+                    work.set(i, record);
+                    frame(out, OP_SET, i, -1, record);
+                    i++;
+                }
+                count++;
+                continue;
+            }
+
+            // Moved or added record.
+            if (found != -1) {
+                work.add(i, work.remove(found));
+                frame(out, OP_MOVE, found, i, null);
+            } else {
+                work.add(i, record);
+                frame(out, OP_ADD, i, -1, record);
+            }
+            count++;
+            i++;
+        }
+
+        // Remove the trailing records.
+        for (int i = work.size() - 1; i >= records.size(); i--) {
+            work.remove(i);
+            frame(out, OP_REMOVE, i, -1, null);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the framed journal operation: VarInt length, operation, CRC32C of operation.
+     *
+     * @param out    Target output
+     * @param op     Operation code
+     * @param index  Operation index
+     * @param to     Move target index, ignored for other operations
+     * @param record Operation record, {@code null} for operations without the record
+     * @throws IOException On I/O error
+     */
+    private static void frame(@NotNull ByteArrayOutputStream out, int op, int index, int to, @Nullable ByteBuffer record) throws IOException {
+        // Encode the operation.
+        byte[] data;
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+             DataOutputStream opOut = new DataOutputStream(byteOut)) {
+            opOut.writeByte(op);
+            IUtils.writeVarInt(opOut, index);
+            if (op == OP_MOVE) {
+                IUtils.writeVarInt(opOut, to);
+            }
+            if (record != null) {
+                opOut.write(record.array());
+            }
+            data = byteOut.toByteArray();
+        }
+
+        // Frame it.
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        DataOutputStream frameOut = new DataOutputStream(out);
+        IUtils.writeVarInt(frameOut, data.length);
+        frameOut.write(data);
+        frameOut.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Encodes the typed account. Accounts with data stored in the snapshot payloads area are encoded
+     * as the {@link #STORED} records, without loading the data.
+     *
+     * @param account Target account
+     * @return Encoded account
+     * @throws IOException On I/O error
+     */
+    private static byte @NotNull [] encode(@NotNull Account account) throws IOException {
+        if (account instanceof MicrosoftAccount microsoft && microsoft.payload() instanceof StoredPayload stored) {
+            return encode(microsoft, stored);
+        }
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(byteOut)) {
+            Account.writeTyped(out, account);
+            return byteOut.toByteArray();
+        }
+    }
+
+    /**
+     * Encodes the account header as the {@link #STORED} record: type, insecure, UUID, name, skin UUID, payload ID, VarInt length and CRC32C.
+     *
+     * @param account Target account
+     * @param stored  Account data payload
+     * @return Encoded account
+     * @throws IOException On I/O error
+     */
+    private static byte @NotNull [] encode(@NotNull MicrosoftAccount account, @NotNull StoredPayload stored) throws IOException {
+        try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(byteOut)) {
+            out.writeUTF(STORED);
+            out.writeUTF(account.type());
+            out.writeBoolean(account.insecure());
+            UUID uuid = account.uuid();
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            out.writeUTF(account.name());
+            UUID skin = account.skin();
+            out.writeLong(skin.getMostSignificantBits());
+            out.writeLong(skin.getLeastSignificantBits());
+            out.writeLong(stored.id);
+            IUtils.writeVarInt(out, stored.length);
+            out.writeInt(stored.crc);
+            return byteOut.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes the typed or {@link #STORED} account.
+     *
+     * @param record Encoded account
+     * @return Decoded account
+     * @throws IOException              On I/O error
+     * @throws IllegalArgumentException On unknown account type
+     */
+    @CheckReturnValue
+    @NotNull
+    private static Account decode(@NotNull ByteBuffer record) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array(), record.arrayOffset() + record.position(), record.remaining()))) {
+            // Decode typed.
+            if (!STORED.equals(IUtils.getUTF(record.duplicate()))) {
+                return Account.readTyped(in);
+            }
+
+            // Decode stored.
+            in.readUTF();
+            String type = in.readUTF();
+            if (!"ias:microsoft_v1".equals(type) && !"ias:microsoft_v2".equals(type)) {
+                throw new IllegalArgumentException("Unknown stored account type: " + type);
+            }
+            boolean insecure = in.readBoolean();
+            UUID uuid = new UUID(in.readLong(), in.readLong());
+            String name = in.readUTF();
+            in.skipNBytes(16L); // <- Skin, always the account UUID for Microsoft accounts.
+            long id = in.readLong();
+            int length = IUtils.readVarInt(in);
+            int crc = in.readInt();
+            return new MicrosoftAccount(insecure, uuid, name, new StoredPayload(id, length, crc));
+        }
+    }
+
+    /**
+     * Gets the payload of the {@link #STORED} record.
+     *
+     * @param record Encoded account
+     * @return Account data payload, {@code null} if the record is not {@link #STORED}
+     * @throws IOException On malformed record
+     */
+    @Contract(pure = true)
+    @Nullable
+    private static StoredPayload stored(@NotNull ByteBuffer record) throws IOException {
+        ByteBuffer buffer = record.duplicate();
+        if (!STORED.equals(IUtils.getUTF(buffer))) return null;
+        IUtils.getUTF(buffer); // <- Type.
+        buffer.position(buffer.position() + 1 + 16); // <- Insecure, UUID.
+        IUtils.getUTF(buffer); // <- Name.
+        buffer.position(buffer.position() + 16); // <- Skin.
+        long id = buffer.getLong();
+        int length = IUtils.getVarInt(buffer);
+        if (length < 0 || length > MicrosoftAccount.MAX_DATA) {
+            throw new IOException("Invalid payload length: " + length);
+        }
+        return new StoredPayload(id, length, buffer.getInt());
+    }
+
+    /**
+     * Reads the payload from the snapshot payloads area.
+     *
+     * @param stored Target payload
+     * @param verify Whether to verify the payload checksum
+     * @return Read payload
+     * @throws RuntimeException If unable to read the payload or if the payload is damaged
+     */
+    private static byte @NotNull [] payload(@NotNull StoredPayload stored, boolean verify) {
+        synchronized (IASStorage.class) {
+            try {
+                // Find the payload.
+                Path file = snapshotFile;
+                Long offset = OFFSETS.get(stored.id);
+                if (file == null || offset == null) {
+                    throw new IllegalStateException("Payload is not in the storage: " + stored);
+                }
+
+                // Read the payload.
+                ByteBuffer buffer = ByteBuffer.allocate(stored.length);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+                    read(channel, buffer, offset);
+                }
+
+                // Verify the payload.
+                if (verify) {
+                    CRC32C crc = new CRC32C();
+                    crc.update(buffer.array());
+                    if ((int) crc.getValue() != stored.crc) {
+                        throw new IOException("Payload checksum mismatch: " + stored);
+                    }
+                }
+
+                // Return it.
+                return buffer.array();
+            } catch (Throwable t) {
+                // Rethrow.
+                throw new RuntimeException("Unable to read IAS storage payload: " + stored, t);
+            }
+        }
+    }
+
+    /**
+     * Reads the channel until the buffer is full.
+     *
+     * @param channel  Source channel
+     * @param buffer   Target buffer
+     * @param position Channel position to read from
+     * @throws IOException On I/O error or if the channel ends before the buffer is full
+     */
+    private static void read(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + channel + " at " + (position + buffer.position()) + ", need " + buffer.remaining() + " more bytes.");
+            }
+        }
+    }
+
+    /**
+     * Gets the vault header of the storage, creating it if it's missing. The header is created only
+     * once per storage, the game instances sharing the storage always get the same header.
+     *
+     * @param path   Game directory
+     * @param header Header to create if missing, {@code null} to only read the header
+     * @return Stored vault header, {@code null} if missing and {@code header} is {@code null}
+     * @throws RuntimeException If unable to read or write the vault header
+     */
+    public static byte @Nullable [] vault(@NotNull Path path, byte @Nullable [] header) {
+        synchronized (IASStorage.class) {
+            try {
+                // Lock the storage, so other game instances don't create the header in between.
+                Path folder = folder(path);
+                FileLock lock = lock(folder);
+                try {
+                    // Read the existing header.
+                    Path file = folder.resolve(VAULT);
+                    if (Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                        return Files.readAllBytes(file);
+                    }
+
+                    // Skip if not creating.
+                    if (header == null) return null;
+
+                    // Create the header.
+                    move(temp(folder, VAULT, header), file);
+                    sync(folder);
+
+                    // Log it.
+                    LOGGER.info("IAS: Created vault header in {}.", file);
+                    return header.clone();
+                } finally {
+                    unlock(lock);
+                }
+            } catch (Throwable t) {
+                // Rethrow.
+                throw new RuntimeException("Unable to get vault header.", t);
+            }
         }
     }
 
@@ -312,4 +1711,50 @@ public final class IASStorage {
             throw new RuntimeException("Unable to mark game disclaimer as shown.", t);
         }
     }
+
+    /**
+     * Account data stored in the snapshot payloads area. The ID stays the same across the snapshot rewrites.
+     *
+     * @param id     Payload ID
+     * @param length Payload length in bytes
+     * @param crc    Payload CRC32C
+     * @author VidTu
+     */
+    private record StoredPayload(long id, int length, int crc) implements Payload {
+        @Override
+        public byte @NotNull [] load() {
+            return payload(this, true);
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "IASStorage.StoredPayload{" +
+                    "id=" + this.id +
+                    ", length=" + this.length +
+                    ", crc=" + this.crc +
+                    '}';
+        }
+    }
+
+    /**
+     * Merge key of the account record.
+     *
+     * @param uuid       Account UUID
+     * @param occurrence Occurrence index of the UUID, starting from {@code 1}
+     * @author VidTu
+     * @see #keys(List)
+     */
+    private record Key(@NotNull UUID uuid, int occurrence) {
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "IASStorage.Key{" +
+                    "uuid=" + this.uuid +
+                    ", occurrence=" + this.occurrence +
+                    '}';
+        }
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.config;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind storage saver. Coalesces the rapid changes into a single write and writes the {@link IASStorage#ACCOUNTS}
+ * on the background thread. The snapshot is taken at the write time, so the accounts merged from other game
+ * instances in between are never overwritten by the stale snapshot.
+ *
+ * @author VidTu
+ */
+public final class StorageSaver {
+    /**
+     * Delay between the first save request and the write, in milliseconds. Requests within this delay are coalesced.
+     */
+    private static final long DEBOUNCE_MILLIS = Math.max(0L, Long.getLong("ias.storage.debounceMillis", 500L));
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/StorageSaver");
+
+    /**
+     * Saver executor, {@code null} if not started or closed. Guarded by the class.
+     */
+    @Nullable
+    private static ScheduledExecutorService executor;
+
+    /**
+     * Game directory of the pending save, {@code null} if none. Guarded by the class.
+     */
+    @Nullable
+    private static Path pending;
+
+    /**
+     * Failure listener, {@code null} if none.
+     */
+    @Nullable
+    private static volatile Consumer<Throwable> listener;
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private StorageSaver() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Starts the saver thread.
+     */
+    public static void start() {
+        synchronized (StorageSaver.class) {
+            if (executor != null) return;
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "IAS Storage");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Sets the listener for the background save failures. The listener is called from the saver thread.
+     *
+     * @param listener Failure listener, {@code null} to remove
+     */
+    public static void listener(@Nullable Consumer<Throwable> listener) {
+        StorageSaver.listener = listener;
+    }
+
+    /**
+     * Requests the storage save. Writes the storage (along with the disclaimers) later.
+     * Saves synchronously if the saver is not started.
+     *
+     * @param path Game directory
+     */
+    public static void request(@NotNull Path path) {
+        try {
+            synchronized (StorageSaver.class) {
+                // Coalesce with the already scheduled write.
+                ScheduledExecutorService executor = StorageSaver.executor;
+                if (executor != null) {
+                    boolean scheduled = pending != null;
+                    pending = path;
+                    if (!scheduled) {
+                        executor.schedule(StorageSaver::write, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+            }
+
+            // Save synchronously if not started.
+            IASStorage.disclaimers(path);
+            IASStorage.save(path);
+        } catch (Throwable t) {
+            // Log and report.
+            report(t);
+        }
+    }
+
+    /**
+     * Stops the saver thread and writes the pending save, if any, on the calling thread.
+     */
+    public static void close() {
+        // Stop the executor.
+        ScheduledExecutorService executor;
+        synchronized (StorageSaver.class) {
+            executor = StorageSaver.executor;
+            StorageSaver.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+                    LOGGER.error("IAS: Unable to shutdown IAS storage saver in time.");
+                }
+            } catch (InterruptedException e) {
+                // Log and preserve interruption.
+                LOGGER.error("IAS: IAS storage saver interrupted while shutting down.", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Flush.
+        write();
+    }
+
+    /**
+     * Writes the pending save, if any.
+     */
+    private static void write() {
+        // Take the pending save.
+        Path pending;
+        synchronized (StorageSaver.class) {
+            pending = StorageSaver.pending;
+            StorageSaver.pending = null;
+        }
+        if (pending == null) return;
+
+        // Write it.
+        try {
+            IASStorage.disclaimers(pending);
+            IASStorage.save(pending);
+        } catch (Throwable t) {
+            // Log and report.
+            report(t);
+        }
+    }
+
+    /**
+     * Logs and reports the save failure.
+     *
+     * @param t Save failure
+     */
+    private static void report(@NotNull Throwable t) {
+        LOGGER.error("IAS: Unable to save storage.", t);
+        Consumer<Throwable> listener = StorageSaver.listener;
+        if (listener == null) return;
+        try {
+            listener.accept(t);
+        } catch (Throwable th) {
+            // Log.
+            LOGGER.error("IAS: Unable to report storage save failure.", th);
+        }
+    }
+}
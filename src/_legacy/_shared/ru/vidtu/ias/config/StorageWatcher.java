@@ -0,0 +1,167 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.config;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage watcher. Reloads the {@link IASStorage} when it's changed by another game instance
+ * sharing the same game directory, so the changes are merged without waiting for the next save.
+ *
+ * @author VidTu
+ * @see IASStorage#reload(Path)
+ */
+public final class StorageWatcher {
+    /**
+     * Delay after the last file change before the reload, in milliseconds. Changes within this delay are coalesced.
+     */
+    private static final long DEBOUNCE_MILLIS = Math.max(0L, Long.getLong("ias.storage.watchDebounceMillis", 250L));
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/StorageWatcher");
+
+    /**
+     * Current watch service, {@code null} if not started or closed. Guarded by the class.
+     */
+    @Nullable
+    private static WatchService service;
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private StorageWatcher() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Starts watching the storage. Does nothing if already started. If watching is not supported,
+     * the changes of other instances are still merged on every save.
+     *
+     * @param path Game directory
+     */
+    public static void start(@NotNull Path path) {
+        synchronized (StorageWatcher.class) {
+            // Skip if already started.
+            if (service != null) return;
+
+            try {
+                // Register the folder.
+                Path folder = IASStorage.folder(path);
+                Files.createDirectories(folder);
+                WatchService watcher = folder.getFileSystem().newWatchService();
+                try {
+                    folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (Throwable t) {
+                    watcher.close();
+                    throw t;
+                }
+
+                // Start the thread.
+                Thread thread = new Thread(() -> watch(path, watcher), "IAS Storage Watcher");
+                thread.setDaemon(true);
+                thread.start();
+                service = watcher;
+
+                // Log it.
+                LOGGER.debug("IAS: Watching storage in {}.", folder);
+            } catch (Throwable t) {
+                // Log.
+                LOGGER.warn("IAS: Unable to watch storage in {}, changes of other game instances will be merged on save.", path, t);
+            }
+        }
+    }
+
+    /**
+     * Stops watching the storage.
+     */
+    public static void close() {
+        // Take the service.
+        WatchService watcher;
+        synchronized (StorageWatcher.class) {
+            watcher = service;
+            service = null;
+        }
+        if (watcher == null) return;
+
+        // Close it. (the thread stops itself)
+        try {
+            watcher.close();
+        } catch (Throwable t) {
+            // Log.
+            LOGGER.error("IAS: Unable to close storage watcher.", t);
+        }
+    }
+
+    /**
+     * Waits for the storage changes and reloads it until the watcher is closed.
+     *
+     * @param path    Game directory
+     * @param watcher Watch service
+     */
+    private static void watch(@NotNull Path path, @NotNull WatchService watcher) {
+        try {
+            while (true) {
+                // Wait for the changes, coalescing the burst. (e.g. the snapshot compaction changes multiple files)
+                WatchKey key = watcher.take();
+                do {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        LOGGER.warn("IAS: Storage folder for {} is no longer available, not watching it anymore.", path);
+                        return;
+                    }
+                    key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                // Reload. (our own writes are skipped by the storage)
+                try {
+                    IASStorage.reload(path);
+                } catch (Throwable t) {
+                    // Log.
+                    LOGGER.error("IAS: Unable to reload storage changed by another game instance.", t);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Log.
+            LOGGER.debug("IAS: Storage watcher has been closed.", e);
+        } catch (InterruptedException e) {
+            // Log and preserve interruption.
+            LOGGER.debug("IAS: Storage watcher has been interrupted.", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
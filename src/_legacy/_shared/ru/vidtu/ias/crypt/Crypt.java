@@ -29,12 +29,10 @@ import ru.vidtu.ias.utils.exceptions.FriendlyException;
 import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.DataInput;
-import java.security.spec.KeySpec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
@@ -43,7 +41,7 @@ import java.util.function.Supplier;
  *
  * @author VidTu
  */
-public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
+public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt, VaultCrypt {
     /**
      * Gets whether this crypt is insecure.
      *
@@ -62,11 +60,11 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
     String type();
 
     /**
-     * Gets the account preferred migration.
+     * Gets the account preferred migration. Might hash the password (e.g. to verify it against the vault),
+     * so it shouldn't be called from the render thread.
      *
      * @return Account preferred migration, {@code null} if it shouldn't be migrated
      */
-    @Contract(pure = true)
     @Nullable
     Crypt migrate();
 
@@ -90,6 +88,56 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
     @Contract(pure = true)
     byte @NotNull [] decrypt(byte @NotNull [] encrypted);
 
+    /**
+     * Gets the maximum amount of bytes added by the encryption.
+     *
+     * @return Maximum encrypted length minus decrypted length
+     * @see #encrypt(ByteBuffer, ByteBuffer)
+     */
+    @Contract(pure = true)
+    int overhead();
+
+    /**
+     * Encrypts the value from the buffer into another buffer. The remaining decrypted bytes are consumed
+     * and wiped, the encrypted value is put into the {@code encrypted} buffer at its position.
+     *
+     * @param decrypted Decrypted data buffer, must be writable
+     * @param encrypted Target buffer, must have at least {@link #overhead()} bytes remaining more than the decrypted data
+     * @throws RuntimeException On encryption error
+     */
+    default void encrypt(@NotNull ByteBuffer decrypted, @NotNull ByteBuffer encrypted) {
+        int start = decrypted.position();
+        int end = decrypted.limit();
+        byte[] data = new byte[decrypted.remaining()];
+        try {
+            decrypted.get(data);
+            encrypted.put(this.encrypt(data));
+        } finally {
+            Arrays.fill(data, (byte) 0);
+            wipe(decrypted, start, end);
+        }
+    }
+
+    /**
+     * Decrypts the value from the buffer into another buffer. The remaining encrypted bytes are consumed,
+     * the decrypted value is put into the {@code decrypted} buffer at its position. The caller should
+     * {@link #wipe(ByteBuffer) wipe} the decrypted buffer after use.
+     *
+     * @param encrypted Encrypted data buffer
+     * @param decrypted Target buffer, must have at least as many bytes remaining as the encrypted data
+     * @throws RuntimeException On decryption error
+     */
+    default void decrypt(@NotNull ByteBuffer encrypted, @NotNull ByteBuffer decrypted) {
+        byte[] data = new byte[encrypted.remaining()];
+        encrypted.get(data);
+        byte[] value = this.decrypt(data);
+        try {
+            decrypted.put(value);
+        } finally {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+
     /**
      * Reads the typed crypt.
      *
@@ -109,7 +157,16 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
                 case "ias:dummy_crypt_v1" -> CompletableFuture.completedFuture(DummyCrypt.INSTANCE);
                 case "ias:hardware_crypt_v1" -> CompletableFuture.completedFuture(HardwareCrypt.INSTANCE_V1);
                 case "ias:hardware_crypt_v2" -> CompletableFuture.completedFuture(HardwareCrypt.INSTANCE_V2);
-                case "ias:password_crypt_v1" -> password.get().thenApplyAsync(pass -> pass == null ? null : new PasswordCrypt(pass), IAS.executor());
+                case "ias:hardware_crypt_v3" -> CompletableFuture.completedFuture(HardwareCrypt.INSTANCE_V3);
+                case "ias:hardware_crypt_v4" -> CompletableFuture.completedFuture(HardwareCrypt.INSTANCE_V4);
+                case "ias:password_crypt_v1" -> password.get().thenApplyAsync(pass -> pass == null ? null : new PasswordCrypt(pass, 1), IAS.executor());
+                case "ias:password_crypt_v2" -> password.get().thenApplyAsync(pass -> pass == null ? null : new PasswordCrypt(pass), IAS.executor());
+                case "ias:vault_crypt_v1" -> {
+                    // Don't ask for the password if the vault is unlocked.
+                    VaultCrypt vault = VaultCrypt.unlocked();
+                    if (vault != null) yield CompletableFuture.completedFuture(vault);
+                    yield password.get().thenApplyAsync(pass -> pass == null ? null : VaultCrypt.of(pass), IAS.executor());
+                }
                 default -> CompletableFuture.failedFuture(new IllegalArgumentException("Unknown crypt type: " + type));
             };
         } catch (Throwable t) {
@@ -118,7 +175,7 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
     }
 
     /**
-     * Encrypts the data using password and salt.
+     * Encrypts the data using password and salt with {@link Kdf#LEGACY} parameters.
      *
      * @param decrypted Decrypted data
      * @param password  Target password
@@ -130,12 +187,26 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
     @Contract(pure = true)
     static byte @NotNull [] pbkdfAesEncrypt(byte @NotNull [] decrypted, @NotNull String password,
                                             byte @NotNull [] salt, byte @NotNull [] iv) {
+        return pbkdfAesEncrypt(decrypted, password, salt, iv, Kdf.LEGACY);
+    }
+
+    /**
+     * Encrypts the data using password and salt.
+     *
+     * @param decrypted Decrypted data
+     * @param password  Target password
+     * @param salt      Target salt
+     * @param iv        IV for AES
+     * @param kdf       Key derivation parameters
+     * @return Encrypted data
+     * @throws RuntimeException If unable to encrypt the data
+     */
+    @Contract(pure = true)
+    static byte @NotNull [] pbkdfAesEncrypt(byte @NotNull [] decrypted, @NotNull String password,
+                                            byte @NotNull [] salt, byte @NotNull [] iv, @NotNull Kdf kdf) {
         try {
-            // Create the key.
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-            KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 500_000, 256);
-            byte[] secret = factory.generateSecret(spec).getEncoded();
-            SecretKey key = new SecretKeySpec(secret, "AES");
+            // Create (or get the cached) key.
+            SecretKey key = KeyCache.key(password, salt, kdf);
             Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
             cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
 
@@ -148,7 +219,7 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
     }
 
     /**
-     * Decrypts the data using password and salt.
+     * Decrypts the data using password and salt with {@link Kdf#LEGACY} parameters.
      *
      * @param encrypted Encrypted data
      * @param password  Target password
@@ -160,12 +231,26 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
     @Contract(pure = true)
     static byte @NotNull [] pbkdfAesDecrypt(byte @NotNull [] encrypted, @NotNull String password,
                                             byte @NotNull [] salt, byte @NotNull [] iv) {
+        return pbkdfAesDecrypt(encrypted, password, salt, iv, Kdf.LEGACY);
+    }
+
+    /**
+     * Decrypts the data using password and salt.
+     *
+     * @param encrypted Encrypted data
+     * @param password  Target password
+     * @param salt      Target salt
+     * @param iv        IV for AES
+     * @param kdf       Key derivation parameters
+     * @return Decrypted data
+     * @throws RuntimeException If unable to decrypt the data
+     */
+    @Contract(pure = true)
+    static byte @NotNull [] pbkdfAesDecrypt(byte @NotNull [] encrypted, @NotNull String password,
+                                            byte @NotNull [] salt, byte @NotNull [] iv, @NotNull Kdf kdf) {
         try {
-            // Create the key.
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-            KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 500_000, 256);
-            byte[] secret = factory.generateSecret(spec).getEncoded();
-            SecretKey key = new SecretKeySpec(secret, "AES");
+            // Create (or get the cached) key.
+            SecretKey key = KeyCache.key(password, salt, kdf);
             Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
             cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
 
@@ -181,4 +266,96 @@ public sealed interface Crypt permits DummyCrypt, HardwareCrypt, PasswordCrypt {
             throw new RuntimeException("Unable to decrypt data using AES via PBKDF2-hashed password.", t);
         }
     }
+
+    /**
+     * Encrypts the buffer using password and salt. The remaining decrypted bytes are consumed and wiped.
+     *
+     * @param decrypted Decrypted data buffer
+     * @param encrypted Target buffer
+     * @param password  Target password
+     * @param salt      Target salt
+     * @param iv        IV for AES
+     * @param kdf       Key derivation parameters
+     * @throws RuntimeException If unable to encrypt the data
+     */
+    static void pbkdfAesEncrypt(@NotNull ByteBuffer decrypted, @NotNull ByteBuffer encrypted, @NotNull String password,
+                                byte @NotNull [] salt, byte @NotNull [] iv, @NotNull Kdf kdf) {
+        int start = decrypted.position();
+        int end = decrypted.limit();
+        try {
+            // Create (or get the cached) key.
+            SecretKey key = KeyCache.key(password, salt, kdf);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+
+            // Encrypt.
+            cipher.doFinal(decrypted, encrypted);
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to encrypt data using AES via PBKDF2-hashed password.", t);
+        } finally {
+            // Wipe the decrypted data.
+            wipe(decrypted, start, end);
+        }
+    }
+
+    /**
+     * Decrypts the buffer using password and salt.
+     *
+     * @param encrypted Encrypted data buffer
+     * @param decrypted Target buffer
+     * @param password  Target password
+     * @param salt      Target salt
+     * @param iv        IV for AES
+     * @param kdf       Key derivation parameters
+     * @throws RuntimeException If unable to decrypt the data
+     */
+    static void pbkdfAesDecrypt(@NotNull ByteBuffer encrypted, @NotNull ByteBuffer decrypted, @NotNull String password,
+                                byte @NotNull [] salt, byte @NotNull [] iv, @NotNull Kdf kdf) {
+        try {
+            // Create (or get the cached) key.
+            SecretKey key = KeyCache.key(password, salt, kdf);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+
+            // Decrypt.
+            try {
+                cipher.doFinal(encrypted, decrypted);
+            } catch (AEADBadTagException e) {
+                // Probable case - bad password.
+                throw new FriendlyException("Unable to do AES final decrypt.", e, "ias.error.decrypt");
+            }
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to decrypt data using AES via PBKDF2-hashed password.", t);
+        }
+    }
+
+    /**
+     * Wipes (fills with zeroes) the whole buffer, ignoring its position and limit.
+     *
+     * @param buffer Target buffer, must be writable
+     */
+    static void wipe(@NotNull ByteBuffer buffer) {
+        wipe(buffer, 0, buffer.capacity());
+    }
+
+    /**
+     * Wipes (fills with zeroes) the buffer region.
+     *
+     * @param buffer Target buffer, must be writable
+     * @param from   Region start index, inclusive
+     * @param to     Region end index, exclusive
+     */
+    private static void wipe(@NotNull ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset();
+            Arrays.fill(buffer.array(), offset + from, offset + to, (byte) 0);
+            return;
+        }
+        ByteBuffer target = buffer.duplicate().clear();
+        for (int i = from; i < to; i++) {
+            target.put(i, (byte) 0);
+        }
+    }
 }
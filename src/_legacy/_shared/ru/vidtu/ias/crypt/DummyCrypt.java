@@ -67,6 +67,12 @@ public final class DummyCrypt implements Crypt {
         return true;
     }
 
+    @Contract(value = "-> 0", pure = true)
+    @Override
+    public int overhead() {
+        return 0;
+    }
+
     @Contract(value = "_ -> param1", pure = true)
     @Override
     public byte @NotNull [] encrypt(byte @NotNull [] decrypted) {
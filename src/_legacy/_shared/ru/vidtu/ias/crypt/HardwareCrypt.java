@@ -26,7 +26,6 @@ import org.jetbrains.annotations.Unmodifiable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -36,8 +35,10 @@ import java.lang.management.OperatingSystemMXBean;
 import java.lang.reflect.Method;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
@@ -48,17 +49,29 @@ import java.util.Objects;
  * @author VidTu
  */
 public final class HardwareCrypt implements Crypt {
+    /**
+     * Shared "hardware ID" crypt version 4. Uses the {@link HardwareFingerprint} digest with the KDF header.
+     */
+    @NotNull
+    public static final HardwareCrypt INSTANCE_V4 = new HardwareCrypt(4, "ias:hardware_crypt_v4", null, null);
+
+    /**
+     * Shared "hardware ID" crypt version 3. Uses the version 2 "hardware ID" with the KDF header.
+     */
+    @NotNull
+    public static final HardwareCrypt INSTANCE_V3 = new HardwareCrypt(3, "ias:hardware_crypt_v3", INSTANCE_V4, null);
+
     /**
      * Shared "hardware ID" crypt version 2.
      */
     @NotNull
-    public static final HardwareCrypt INSTANCE_V2 = new HardwareCrypt(2, "ias:hardware_crypt_v2", null);
+    public static final HardwareCrypt INSTANCE_V2 = new HardwareCrypt(2, "ias:hardware_crypt_v2", INSTANCE_V4, INSTANCE_V3);
 
     /**
      * Shared "hardware ID" crypt version 1.
      */
     @NotNull
-    public static final HardwareCrypt INSTANCE_V1 = new HardwareCrypt(1, "ias:hardware_crypt_v1", INSTANCE_V2);
+    public static final HardwareCrypt INSTANCE_V1 = new HardwareCrypt(1, "ias:hardware_crypt_v1", INSTANCE_V4, null);
 
     /**
      * Logger for this class.
@@ -108,18 +121,31 @@ public final class HardwareCrypt implements Crypt {
     @Nullable
     private final HardwareCrypt migrate;
 
+    /**
+     * Crypt with the same "hardware ID" that holds the memoized one, {@code null} if this crypt holds its own.
+     */
+    @Nullable
+    private final HardwareCrypt owner;
+
+    /**
+     * Memoized "hardware ID", {@code null} if not computed yet or invalidated. Guarded by {@code this}.
+     */
+    private byte @Nullable [] fingerprint;
+
     /**
      * Creates a new "hardware ID" crypt.
      *
      * @param version Crypt version
      * @param type    Crypt type
      * @param migrate Crypt migration, {@code null} if it shouldn't be migrated
+     * @param owner   Crypt with the same "hardware ID" that holds the memoized one, {@code null} if this crypt holds its own
      */
     @Contract(pure = true)
-    private HardwareCrypt(int version, @NotNull String type, @Nullable HardwareCrypt migrate) {
+    private HardwareCrypt(int version, @NotNull String type, @Nullable HardwareCrypt migrate, @Nullable HardwareCrypt owner) {
         this.version = version;
         this.type = type;
         this.migrate = migrate;
+        this.owner = owner;
     }
 
     @Contract(pure = true)
@@ -143,62 +169,87 @@ public final class HardwareCrypt implements Crypt {
         return false;
     }
 
+    @Contract(pure = true)
+    @Override
+    public int overhead() {
+        Kdf kdf = this.version < 3 ? Kdf.LEGACY : Kdf.current();
+        return (this.version < 3 ? 0 : kdf.headerLength()) + kdf.saltLength() + 16 + 16;
+    }
+
     @Contract(pure = true)
     @Override
     public byte @NotNull [] encrypt(byte @NotNull [] decrypted) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            // Generate and write salt.
+        ByteBuffer encrypted = ByteBuffer.allocate(decrypted.length + this.overhead());
+        this.encrypt(ByteBuffer.wrap(decrypted.clone()), encrypted);
+        return Arrays.copyOf(encrypted.array(), encrypted.position());
+    }
+
+    @Contract(pure = true)
+    @Override
+    public byte @NotNull [] decrypt(byte @NotNull [] encrypted) {
+        ByteBuffer decrypted = ByteBuffer.allocate(encrypted.length);
+        try {
+            this.decrypt(ByteBuffer.wrap(encrypted), decrypted);
+            return Arrays.copyOf(decrypted.array(), decrypted.position());
+        } finally {
+            Crypt.wipe(decrypted);
+        }
+    }
+
+    @Override
+    public void encrypt(@NotNull ByteBuffer decrypted, @NotNull ByteBuffer encrypted) {
+        try {
+            // Generate the password.
+            String pwd = this.hardwarePassword();
+
+            // Write the KDF header, if versioned.
+            Kdf kdf = this.version < 3 ? Kdf.LEGACY : Kdf.current();
+            if (this.version >= 3) {
+                kdf.write(encrypted);
+            }
+
+            // Reuse the salt of the cached key or generate and write the new salt.
             SecureRandom random = SecureRandom.getInstanceStrong();
-            byte[] salt = new byte[128];
-            random.nextBytes(salt);
-            out.write(salt);
+            byte[] salt = KeyCache.salt(pwd, kdf);
+            if (salt == null) {
+                salt = new byte[kdf.saltLength()];
+                random.nextBytes(salt);
+            }
+            encrypted.put(salt);
 
             // Generate and write IV.
             byte[] iv = new byte[16];
             random.nextBytes(iv);
-            out.write(iv);
-
-            // Generate the password.
-            String pwd = this.hardwarePassword();
+            encrypted.put(iv);
 
             // Encrypt and write the data.
-            byte[] data = Crypt.pbkdfAesEncrypt(decrypted, pwd, salt, iv);
-            out.write(data);
-
-            // Return data.
-            return out.toByteArray();
+            Crypt.pbkdfAesEncrypt(decrypted, encrypted, pwd, salt, iv, kdf);
         } catch (Throwable t) {
             // Rethrow.
             throw new RuntimeException("Unable to encrypt using HardwareCrypt.", t);
         }
     }
 
-    @Contract(pure = true)
     @Override
-    public byte @NotNull [] decrypt(byte @NotNull [] encrypted) {
-        try (ByteArrayInputStream in = new ByteArrayInputStream(encrypted)) {
-            // Read the salt.
-            byte[] salt = new byte[128];
-            int read = in.read(salt);
-            if (read != 128) {
-                throw new EOFException("Not enough salt bytes: " + read);
-            }
+    public void decrypt(@NotNull ByteBuffer encrypted, @NotNull ByteBuffer decrypted) {
+        try {
+            // Read the KDF header, if versioned.
+            Kdf kdf = this.version < 3 ? Kdf.LEGACY : Kdf.read(encrypted);
 
-            // Read the IV.
-            byte[] iv = new byte[16];
-            read = in.read(iv);
-            if (read != 16) {
-                throw new EOFException("Not enough IV bytes: " + read);
+            // Read the salt and the IV.
+            if (encrypted.remaining() < kdf.saltLength() + 16) {
+                throw new EOFException("Not enough salt and IV bytes: " + encrypted.remaining());
             }
+            byte[] salt = new byte[kdf.saltLength()];
+            encrypted.get(salt);
+            byte[] iv = new byte[16];
+            encrypted.get(iv);
 
             // Generate the password.
             String pwd = this.hardwarePassword();
 
-            // Read the data.
-            byte[] data = in.readAllBytes();
-
-            // Decrypt and return.
-            return Crypt.pbkdfAesDecrypt(data, pwd, salt, iv);
+            // Decrypt the data.
+            Crypt.pbkdfAesDecrypt(encrypted, decrypted, pwd, salt, iv, kdf);
         } catch (Throwable t) {
             // Rethrow.
             throw new RuntimeException("Unable to decrypt using HardwareCrypt.", t);
@@ -236,14 +287,68 @@ public final class HardwareCrypt implements Crypt {
     }
 
     /**
-     * Creates a key from various hardware things.
+     * Gets the memoized "hardware ID" password or creates it from various hardware things.
      *
      * @return Created password
      * @throws RuntimeException If unable to create the password
      */
-    @Contract(pure = true)
     @NotNull
     private String hardwarePassword() {
+        // Delegate to the owner, if any.
+        HardwareCrypt owner = this.owner;
+        if (owner != null) return owner.hardwarePassword();
+
+        synchronized (this) {
+            // Compute the "hardware ID", if not memoized yet.
+            byte[] fingerprint = this.fingerprint;
+            if (fingerprint == null) {
+                long start = System.nanoTime();
+                fingerprint = this.version >= 4 ? HardwareFingerprint.collect() : this.fingerprint();
+                this.fingerprint = fingerprint;
+                LOGGER.debug("IAS: Computed hardware ID for {} in {} ms.", this.type, (System.nanoTime() - start) / 1_000_000L);
+            }
+
+            // Bake the password.
+            return Base64.getEncoder().encodeToString(fingerprint);
+        }
+    }
+
+    /**
+     * Computes the "hardware ID" in the background, so the first login won't wait for it.
+     * Logs and ignores any errors, as they will be rethrown on actual usage.
+     */
+    public void prewarm() {
+        try {
+            this.hardwarePassword();
+        } catch (Throwable t) {
+            // Log.
+            LOGGER.warn("IAS: Unable to pre-compute the hardware ID.", t);
+        }
+    }
+
+    /**
+     * Wipes the memoized "hardware ID". It will be recomputed on next usage.
+     */
+    public void invalidate() {
+        if (this.version >= 4) {
+            HardwareFingerprint.invalidate();
+        }
+        synchronized (this) {
+            byte[] fingerprint = this.fingerprint;
+            if (fingerprint == null) return;
+            Arrays.fill(fingerprint, (byte) 0);
+            this.fingerprint = null;
+        }
+    }
+
+    /**
+     * Collects various hardware things into the legacy (version 1 to 3) "hardware ID".
+     *
+     * @return Created "hardware ID"
+     * @throws RuntimeException If unable to create the "hardware ID"
+     */
+    @Contract(pure = true)
+    private byte @NotNull [] fingerprint() {
         try {
             // Calculate the "hardware ID".
             try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
@@ -406,8 +511,8 @@ public final class HardwareCrypt implements Crypt {
                     LOGGER.trace("Unable to write OSHI data.", t);
                 }
 
-                // Bake and return the "HWID".
-                return Base64.getEncoder().encodeToString(byteOut.toByteArray());
+                // Return the "HWID".
+                return byteOut.toByteArray();
             }
         } catch (Throwable t) {
             // Rethrow.
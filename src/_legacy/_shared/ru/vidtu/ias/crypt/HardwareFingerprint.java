@@ -0,0 +1,483 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.crypt;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Versioned "hardware ID" collected concurrently from the independent providers.
+ * <p>
+ * Every provider runs on its own thread with its own time limit. A provider that is not available in this
+ * environment (e.g. OSHI is missing) is deterministically recorded as absent, while a provider that fails or
+ * times out fails the whole collection, because the digest without it would be different. The failed provider
+ * is run again by the next collection attempt, while the timed-out provider keeps running and its result is
+ * reused by the next attempt. Provider results are memoized until {@link #invalidate()}.
+ *
+ * @author VidTu
+ * @see HardwareCrypt#INSTANCE_V4
+ */
+final class HardwareFingerprint {
+    /**
+     * Digest version tag. Changing the providers or their output requires a new tag (and a new crypt version).
+     */
+    @NotNull
+    private static final String VERSION = "ias:hardware_fingerprint_v1";
+
+    /**
+     * Base provider timeout in milliseconds.
+     */
+    private static final long TIMEOUT_MILLIS = Math.max(100L, Long.getLong("ias.fingerprint.timeoutMillis", 5000L));
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/HardwareFingerprint");
+
+    /**
+     * Empty byte array for unknown MAC.
+     */
+    private static final byte @NotNull [] EMPTY_MAC = {};
+
+    /**
+     * List of environmental keys used for hardware password.
+     */
+    @NotNull
+    @Unmodifiable
+    private static final List<String> ENV = List.of("COMPUTERNAME", "PROCESSOR_ARCHITECTURE",
+            "PROCESSOR_REVISION", "PROCESSOR_IDENTIFIER", "PROCESSOR_LEVEL", "NUMBER_OF_PROCESSORS", "OS", "USERNAME",
+            "USERDOMAIN", "USERDOMAIN_ROAMINGPROFILE", "APPDATA", "HOMEPATH", "LOGONSERVER", "LOCALAPPDATA", "TEMP", "TMP",
+            "MINECRAFT_IN_GAME_ACCOUNT_SWITCHER_VERY_NERDY_SYSTEM_ENV");
+
+    /**
+     * List of system properties used for hardware password.
+     */
+    @NotNull
+    @Unmodifiable
+    private static final List<String> PROPS = List.of("java.io.tmpdir", "native.encoding", "user.name",
+            "user.home", "user.country", "sun.io.unicode.encoding", "stderr.encoding", "sun.cpu.endian",
+            "sun.cpu.isalist", "sun.jnu.encoding", "stdout.encoding", "sun.arch.data.model",
+            "user.language", "user.variant", "minecraft.inGameAccountSwitcher.veryNerdySystemProperty");
+
+    /**
+     * Fingerprint providers, sorted by ID.
+     */
+    @NotNull
+    @Unmodifiable
+    private static final List<Provider> PROVIDERS = providers();
+
+    /**
+     * Provider threads counter.
+     */
+    @NotNull
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    /**
+     * Provider executor. Threads are daemons, so the stuck provider won't prevent the game from closing.
+     */
+    @NotNull
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "IAS Fingerprint #" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Memoized provider results, by provider ID.
+     */
+    @NotNull
+    private static final Map<String, CompletableFuture<byte[]>> RESULTS = new ConcurrentHashMap<>(PROVIDERS.size());
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private HardwareFingerprint() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Collects the "hardware ID" digest from all providers. Blocks for up to the longest provider timeout.
+     *
+     * @return SHA-256 digest of the versioned provider data
+     * @throws RuntimeException If any provider has failed or timed out or unable to digest the data
+     */
+    static byte @NotNull [] collect() {
+        try {
+            // Start (or reuse) all providers at once.
+            long start = System.nanoTime();
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>(PROVIDERS.size());
+            for (Provider provider : PROVIDERS) {
+                futures.add(RESULTS.computeIfAbsent(provider.id, id -> CompletableFuture.supplyAsync(provider::collect, EXECUTOR)));
+            }
+
+            // Write the versioned provider data.
+            try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+                 DataOutputStream out = new DataOutputStream(byteOut)) {
+                out.writeUTF(VERSION);
+                List<String> timedOut = new ArrayList<>(0);
+                List<Throwable> failed = new ArrayList<>(0);
+                for (int i = 0, size = PROVIDERS.size(); i < size; i++) {
+                    Provider provider = PROVIDERS.get(i);
+                    CompletableFuture<byte[]> future = futures.get(i);
+
+                    // Wait for the provider until its deadline.
+                    byte[] data;
+                    try {
+                        long left = Math.max(0L, TimeUnit.MILLISECONDS.toNanos(provider.timeout) - (System.nanoTime() - start));
+                        data = future.get(left, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        timedOut.add(provider.id);
+                        continue;
+                    } catch (ExecutionException e) {
+                        // Forget the failed result, so the provider will be run again on next attempt.
+                        RESULTS.remove(provider.id, future);
+                        failed.add(e.getCause());
+                        continue;
+                    }
+
+                    // Write the provider data.
+                    out.writeUTF(provider.id);
+                    out.writeBoolean(data != null);
+                    if (data == null) continue;
+                    out.writeInt(data.length);
+                    out.write(data);
+                }
+
+                // Fail if any provider has failed. It will be run again on next attempt.
+                if (!failed.isEmpty()) {
+                    IOException e = new IOException("Fingerprint providers failed: " + failed.size() +
+                            (timedOut.isEmpty() ? "" : ", timed out: " + timedOut));
+                    failed.forEach(e::addSuppressed);
+                    throw e;
+                }
+
+                // Fail if any provider has timed out. It will be reused on next attempt.
+                if (!timedOut.isEmpty()) {
+                    throw new TimeoutException("Fingerprint providers timed out: " + timedOut);
+                }
+
+                // Digest the data.
+                byte[] raw = byteOut.toByteArray();
+                try {
+                    return MessageDigest.getInstance("SHA-256").digest(raw);
+                } finally {
+                    Arrays.fill(raw, (byte) 0);
+                }
+            }
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to collect the hardware fingerprint.", t);
+        }
+    }
+
+    /**
+     * Forgets the memoized provider results. Providers will be run again on next collection.
+     */
+    static void invalidate() {
+        for (CompletableFuture<byte[]> future : RESULTS.values()) {
+            future.thenAccept(data -> Arrays.fill(data, (byte) 0));
+            future.cancel(false);
+        }
+        RESULTS.clear();
+    }
+
+    /**
+     * Creates the providers list.
+     *
+     * @return Providers, sorted by ID
+     */
+    @Contract(pure = true)
+    @NotNull
+    @Unmodifiable
+    private static List<Provider> providers() {
+        List<Provider> providers = new ArrayList<>(9);
+
+        // Basic system info.
+        providers.add(new Provider("system", TIMEOUT_MILLIS, out -> {
+            OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+            // Not using OS name - Windows 10/11 can be updated.
+            // Not using OS version - Linux kernels can be updated with most package managers.
+            out.writeUTF(system.getArch());
+            out.writeInt(system.getAvailableProcessors());
+            out.writeChar(File.separatorChar);
+            out.writeChar(File.pathSeparatorChar);
+            out.writeUTF(System.lineSeparator());
+        }));
+
+        // System properties.
+        providers.add(new Provider("properties", TIMEOUT_MILLIS, out -> {
+            for (String key : PROPS) {
+                writeNullable(out, System.getProperty(key));
+            }
+        }));
+
+        // Environmental info.
+        providers.add(new Provider("environment", TIMEOUT_MILLIS, out -> {
+            for (String key : ENV) {
+                writeNullable(out, System.getenv(key));
+            }
+        }));
+
+        // Network interfaces.
+        providers.add(new Provider("network", TIMEOUT_MILLIS, out -> {
+            List<NetworkInterface> nets = new ArrayList<>(NetworkInterface.networkInterfaces().toList());
+            nets.sort(Comparator.comparing(NetworkInterface::getName));
+            for (NetworkInterface net : nets) {
+                if (net.isVirtual() || net.isLoopback()) continue;
+                out.writeUTF(net.getName());
+                writeNullable(out, net.getDisplayName());
+                byte[] mac = EMPTY_MAC;
+                try {
+                    mac = Objects.requireNonNullElse(net.getHardwareAddress(), EMPTY_MAC);
+                } catch (SocketException e) {
+                    // Log into trace. (disabled for MOST users)
+                    LOGGER.trace("IAS: Unable to get MAC: {}", net, e);
+                }
+                out.writeShort(mac.length);
+                out.write(mac);
+                int mtu = -1;
+                try {
+                    mtu = net.getMTU();
+                } catch (SocketException e) {
+                    // Log into trace. (disabled for MOST users)
+                    LOGGER.trace("IAS: Unable to get MTU: {}", net, e);
+                }
+                out.writeInt(mtu);
+            }
+        }));
+
+        // OSHI OS data.
+        providers.add(new Provider("oshi_os", TIMEOUT_MILLIS, out -> {
+            Object os = oshi("getOperatingSystem");
+            Class<?> osClass = Class.forName("oshi.software.os.OperatingSystem");
+            out.writeInt((int) osClass.getMethod("getBitness").invoke(os));
+            writeNullable(out, (String) osClass.getMethod("getFamily").invoke(os));
+            writeNullable(out, (String) osClass.getMethod("getManufacturer").invoke(os));
+        }));
+
+        // OSHI computer system data.
+        providers.add(new Provider("oshi_system", TIMEOUT_MILLIS, out -> {
+            Object sys = computerSystem();
+            Class<?> sysClass = Class.forName("oshi.hardware.ComputerSystem");
+            writeNullable(out, (String) sysClass.getMethod("getHardwareUUID").invoke(sys));
+            writeNullable(out, (String) sysClass.getMethod("getManufacturer").invoke(sys));
+            writeNullable(out, (String) sysClass.getMethod("getModel").invoke(sys));
+        }));
+
+        // OSHI baseboard data.
+        providers.add(new Provider("oshi_baseboard", TIMEOUT_MILLIS, out -> {
+            Class<?> sysClass = Class.forName("oshi.hardware.ComputerSystem");
+            Object board = sysClass.getMethod("getBaseboard").invoke(computerSystem());
+            Class<?> boardClass = Class.forName("oshi.hardware.Baseboard");
+            writeNullable(out, (String) boardClass.getMethod("getSerialNumber").invoke(board));
+            writeNullable(out, (String) boardClass.getMethod("getManufacturer").invoke(board));
+            writeNullable(out, (String) boardClass.getMethod("getModel").invoke(board));
+            writeNullable(out, (String) boardClass.getMethod("getVersion").invoke(board));
+        }));
+
+        // OSHI firmware data.
+        providers.add(new Provider("oshi_firmware", TIMEOUT_MILLIS, out -> {
+            Class<?> sysClass = Class.forName("oshi.hardware.ComputerSystem");
+            Object firmware = sysClass.getMethod("getFirmware").invoke(computerSystem());
+            Class<?> firmwareClass = Class.forName("oshi.hardware.Firmware");
+            // Not using BIOS version and release date - can be updated.
+            writeNullable(out, (String) firmwareClass.getMethod("getName").invoke(firmware));
+            writeNullable(out, (String) firmwareClass.getMethod("getDescription").invoke(firmware));
+            writeNullable(out, (String) firmwareClass.getMethod("getManufacturer").invoke(firmware));
+        }));
+
+        // OSHI disks data. Can be really slow with network drives, so it has the doubled timeout.
+        // Not using partitions - can be changed.
+        // Not using graphics cards - OSHI changed the video card data on Windows. (https://github.com/oshi/oshi/pull/2533)
+        // Not using displays - some cheap ones report unplugging when turned off.
+        providers.add(new Provider("oshi_disks", TIMEOUT_MILLIS * 2L, out -> {
+            Class<?> hwLayerClass = Class.forName("oshi.hardware.HardwareAbstractionLayer");
+            List<?> disks = (List<?>) hwLayerClass.getMethod("getDiskStores").invoke(oshi("getHardware"));
+            Class<?> diskClass = Class.forName("oshi.hardware.HWDiskStore");
+            Method nameMethod = diskClass.getMethod("getName");
+            Method modelMethod = diskClass.getMethod("getModel");
+            Method serialMethod = diskClass.getMethod("getSerial");
+            Method sizeMethod = diskClass.getMethod("getSize");
+            List<byte[]> entries = new ArrayList<>(disks.size());
+            for (Object disk : disks) {
+                try (ByteArrayOutputStream diskByteOut = new ByteArrayOutputStream();
+                     DataOutputStream diskOut = new DataOutputStream(diskByteOut)) {
+                    writeNullable(diskOut, (String) nameMethod.invoke(disk));
+                    writeNullable(diskOut, (String) modelMethod.invoke(disk));
+                    writeNullable(diskOut, (String) serialMethod.invoke(disk));
+                    diskOut.writeLong((long) sizeMethod.invoke(disk));
+                    entries.add(diskByteOut.toByteArray());
+                }
+            }
+            entries.sort(Arrays::compare);
+            out.writeInt(entries.size());
+            for (byte[] entry : entries) {
+                out.write(entry);
+            }
+        }));
+
+        // Sort and return.
+        providers.sort(Comparator.comparing(Provider::id));
+        return List.copyOf(providers);
+    }
+
+    /**
+     * Invokes the getter on the new OSHI {@code SystemInfo}.
+     *
+     * @param getter Getter name
+     * @return Getter result
+     * @throws ReflectiveOperationException If OSHI is not available or the call has failed
+     */
+    @NotNull
+    private static Object oshi(@NotNull String getter) throws ReflectiveOperationException {
+        Class<?> sysInfoClass = Class.forName("oshi.SystemInfo");
+        Object sysInfo = sysInfoClass.getConstructor().newInstance();
+        return sysInfoClass.getMethod(getter).invoke(sysInfo);
+    }
+
+    /**
+     * Gets the OSHI {@code ComputerSystem}.
+     *
+     * @return Computer system
+     * @throws ReflectiveOperationException If OSHI is not available or the call has failed
+     */
+    @NotNull
+    private static Object computerSystem() throws ReflectiveOperationException {
+        Class<?> hwLayerClass = Class.forName("oshi.hardware.HardwareAbstractionLayer");
+        return hwLayerClass.getMethod("getComputerSystem").invoke(oshi("getHardware"));
+    }
+
+    /**
+     * Writes the nullable string with the presence marker, so the adjacent values can't be shifted into each other.
+     *
+     * @param out   Target output
+     * @param value Target value
+     * @throws IOException On I/O error
+     */
+    private static void writeNullable(@NotNull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value == null) return;
+        out.writeUTF(value);
+    }
+
+    /**
+     * Fingerprint data source.
+     *
+     * @author VidTu
+     */
+    @FunctionalInterface
+    private interface Source {
+        /**
+         * Writes the source data.
+         *
+         * @param out Target output
+         * @throws Exception On any error, the collection will fail (the provider will be recorded as absent
+         *                   if it's not available in this environment, see {@link Provider#unavailable(Throwable)})
+         */
+        void write(@NotNull DataOutputStream out) throws Exception;
+    }
+
+    /**
+     * Fingerprint provider.
+     *
+     * @param id      Provider ID, part of the digest
+     * @param timeout Provider timeout in milliseconds
+     * @param source  Provider data source
+     * @author VidTu
+     */
+    private record Provider(@NotNull String id, long timeout, @NotNull Source source) {
+        /**
+         * Collects the provider data. Blocks the thread.
+         *
+         * @return Collected data, {@code null} if the provider is not available in this environment
+         * @throws RuntimeException If unable to collect the data
+         */
+        private byte @Nullable [] collect() {
+            long start = System.nanoTime();
+            try (ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+                 DataOutputStream out = new DataOutputStream(byteOut)) {
+                this.source.write(out);
+                return byteOut.toByteArray();
+            } catch (Throwable t) {
+                // Record as absent, if not available.
+                if (unavailable(t)) {
+                    // Log into trace. (disabled for MOST users)
+                    LOGGER.trace("IAS: Fingerprint provider {} is not available.", this.id, t);
+                    return null;
+                }
+
+                // Rethrow.
+                throw new RuntimeException("Unable to collect fingerprint provider data: " + this.id, t);
+            } finally {
+                LOGGER.debug("IAS: Fingerprint provider {} took {} ms.", this.id, (System.nanoTime() - start) / 1_000_000L);
+            }
+        }
+
+        /**
+         * Checks whether the error means that the provider is not available in this environment, i.e. the
+         * required classes or methods (of OSHI or its native bindings) are missing. This never changes between the attempts.
+         *
+         * @param t Provider error
+         * @return Whether the provider is not available
+         */
+        @Contract(pure = true)
+        private static boolean unavailable(@NotNull Throwable t) {
+            for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ClassNotFoundException || cause instanceof NoSuchMethodException
+                        || cause instanceof LinkageError) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.crypt;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.utils.IUtils;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Set;
+
+/**
+ * Password-based key derivation parameters, stored in the header of versioned crypt payloads.
+ *
+ * @param algorithm  PBKDF2 algorithm name
+ * @param iterations PBKDF2 iterations count
+ * @param saltLength Salt length in bytes
+ * @author VidTu
+ * @see Crypt#pbkdfAesEncrypt(byte[], String, byte[], byte[], Kdf)
+ */
+public record Kdf(@NotNull String algorithm, int iterations, int saltLength) {
+    /**
+     * Allowed algorithms.
+     */
+    @NotNull
+    @Unmodifiable
+    private static final Set<String> ALGORITHMS = Set.of("PBKDF2WithHmacSHA512", "PBKDF2WithHmacSHA256");
+
+    /**
+     * Parameters used by the unversioned crypts. (must be declared after {@link #ALGORITHMS})
+     */
+    @NotNull
+    public static final Kdf LEGACY = new Kdf("PBKDF2WithHmacSHA512", 500_000, 128);
+
+    /**
+     * Minimum calibrated iterations. (OWASP recommendation for {@code PBKDF2WithHmacSHA512})
+     */
+    private static final int MIN_ITERATIONS = 210_000;
+
+    /**
+     * Maximum accepted iterations. Protects from the payloads that would take forever to derive.
+     */
+    private static final int MAX_ITERATIONS = 20_000_000;
+
+    /**
+     * Iterations used to measure the derivation speed.
+     */
+    private static final int PROBE_ITERATIONS = 50_000;
+
+    /**
+     * Target derivation latency in milliseconds.
+     */
+    private static final long TARGET_MILLIS = Math.max(1L, Long.getLong("ias.kdf.targetMillis", 500L));
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/Kdf");
+
+    /**
+     * Calibrated parameters, {@code null} if not yet calibrated.
+     */
+    @Nullable
+    private static volatile Kdf calibrated;
+
+    /**
+     * Creates new KDF parameters.
+     *
+     * @param algorithm  PBKDF2 algorithm name
+     * @param iterations PBKDF2 iterations count
+     * @param saltLength Salt length in bytes
+     * @throws IllegalArgumentException If any of the parameters is unsupported or out of bounds
+     */
+    public Kdf {
+        if (!ALGORITHMS.contains(algorithm)) {
+            throw new IllegalArgumentException("Unsupported KDF algorithm: " + algorithm);
+        }
+        if (iterations < 1000 || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("KDF iterations out of bounds: " + iterations);
+        }
+        if (saltLength < 16 || saltLength > 1024) {
+            throw new IllegalArgumentException("KDF salt length out of bounds: " + saltLength);
+        }
+    }
+
+    /**
+     * Gets the parameters calibrated for this machine, calibrating them if required.
+     *
+     * @return Calibrated parameters
+     */
+    @NotNull
+    public static Kdf current() {
+        // Return already calibrated.
+        Kdf kdf = calibrated;
+        if (kdf != null) return kdf;
+
+        // Calibrate.
+        synchronized (Kdf.class) {
+            kdf = calibrated;
+            if (kdf != null) return kdf;
+            kdf = calibrate();
+            calibrated = kdf;
+            return kdf;
+        }
+    }
+
+    /**
+     * Calibrates the iterations count to take around {@code ias.kdf.targetMillis} (500 by default) milliseconds
+     * on this machine, but not less than {@link #MIN_ITERATIONS}.
+     *
+     * @return Calibrated parameters, {@link #LEGACY} if unable to calibrate
+     */
+    @NotNull
+    private static Kdf calibrate() {
+        try {
+            // Prepare the probe.
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(LEGACY.algorithm);
+            byte[] salt = new byte[LEGACY.saltLength];
+            new SecureRandom().nextBytes(salt);
+            PBEKeySpec spec = new PBEKeySpec("IAS calibration".toCharArray(), salt, PROBE_ITERATIONS, 256);
+
+            // Warm up and measure the best of few runs.
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                factory.generateSecret(spec);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            // Scale and round to 10_000.
+            double scale = (TARGET_MILLIS * 1_000_000.0D) / Math.max(1L, best);
+            long iterations = Math.round(PROBE_ITERATIONS * scale / 10_000.0D) * 10_000L;
+            int clamped = (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+            Kdf kdf = new Kdf(LEGACY.algorithm, clamped, LEGACY.saltLength);
+
+            // Log and return.
+            LOGGER.debug("IAS: Calibrated KDF to {} iterations ({} ns per {} iterations).", clamped, best, PROBE_ITERATIONS);
+            return kdf;
+        } catch (Throwable t) {
+            // Log and fall back.
+            LOGGER.warn("IAS: Unable to calibrate KDF, using legacy parameters.", t);
+            return LEGACY;
+        }
+    }
+
+    /**
+     * Writes the parameters header.
+     *
+     * @param out Target output
+     * @throws IOException On I/O error
+     */
+    public void write(@NotNull DataOutput out) throws IOException {
+        out.writeUTF(this.algorithm);
+        out.writeInt(this.iterations);
+        out.writeShort(this.saltLength);
+    }
+
+    /**
+     * Reads the parameters header.
+     *
+     * @param in Target input
+     * @return Read parameters
+     * @throws IOException              On I/O error
+     * @throws IllegalArgumentException If any of the parameters is unsupported or out of bounds
+     */
+    @NotNull
+    public static Kdf read(@NotNull DataInput in) throws IOException {
+        String algorithm = in.readUTF();
+        int iterations = in.readInt();
+        int saltLength = in.readUnsignedShort();
+        return new Kdf(algorithm, iterations, saltLength);
+    }
+
+    /**
+     * Gets the length of the parameters header.
+     *
+     * @return Header length in bytes
+     */
+    @Contract(pure = true)
+    public int headerLength() {
+        return 2 + IUtils.utfLength(this.algorithm) + 4 + 2;
+    }
+
+    /**
+     * Puts the parameters header into the buffer.
+     *
+     * @param buffer Target buffer
+     */
+    public void write(@NotNull ByteBuffer buffer) {
+        IUtils.putUTF(buffer, this.algorithm);
+        buffer.putInt(this.iterations);
+        buffer.putShort((short) this.saltLength);
+    }
+
+    /**
+     * Gets the parameters header from the buffer.
+     *
+     * @param buffer Target buffer
+     * @return Read parameters
+     * @throws IOException              On malformed header
+     * @throws IllegalArgumentException If any of the parameters is unsupported or out of bounds
+     */
+    @NotNull
+    public static Kdf read(@NotNull ByteBuffer buffer) throws IOException {
+        String algorithm = IUtils.getUTF(buffer);
+        int iterations = buffer.getInt();
+        int saltLength = Short.toUnsignedInt(buffer.getShort());
+        return new Kdf(algorithm, iterations, saltLength);
+    }
+}
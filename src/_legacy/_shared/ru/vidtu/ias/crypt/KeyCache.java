@@ -0,0 +1,282 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.crypt;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of PBKDF2-derived AES keys.
+ * <p>
+ * Keys are stored by the crypt identity (hashed password) and salt, are evicted after being idle
+ * for some time or when the cache is full, and are wiped from the memory on eviction.
+ *
+ * @author VidTu
+ * @see Crypt#pbkdfAesEncrypt(byte[], String, byte[], byte[])
+ * @see Crypt#pbkdfAesDecrypt(byte[], String, byte[], byte[])
+ */
+public final class KeyCache {
+    /**
+     * Maximum amount of cached keys.
+     */
+    private static final int MAX_KEYS = Math.max(1, Integer.getInteger("ias.keyCache.size", 32));
+
+    /**
+     * Idle time after which the key is evicted, in nanoseconds.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(Math.max(1L, Long.getLong("ias.keyCache.idleMinutes", 15L)));
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/KeyCache");
+
+    /**
+     * Cached keys, in access order. Guarded by itself.
+     */
+    @NotNull
+    private static final LinkedHashMap<String, Entry> KEYS = new LinkedHashMap<>(MAX_KEYS, 0.75F, true);
+
+    /**
+     * Last used salt for each crypt identity. Guarded by {@link #KEYS}.
+     */
+    @NotNull
+    private static final Map<String, String> SALTS = new LinkedHashMap<>(MAX_KEYS);
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private KeyCache() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Gets the cached AES key or derives it using PBKDF2.
+     *
+     * @param password Target password
+     * @param salt     Target salt
+     * @param kdf      Derivation parameters
+     * @return Derived AES key
+     * @throws RuntimeException If unable to derive the key
+     */
+    @NotNull
+    static SecretKey key(@NotNull String password, byte @NotNull [] salt, @NotNull Kdf kdf) {
+        // Get the cached key.
+        String identity = identity(password, kdf);
+        String id = identity + ':' + HexFormat.of().formatHex(salt);
+        synchronized (KEYS) {
+            Entry entry = KEYS.get(id);
+            if (entry != null) {
+                entry.used = System.nanoTime();
+                SALTS.put(identity, id);
+                return new SecretKeySpec(entry.key, "AES");
+            }
+        }
+
+        // Derive the key. (outside the lock, this is slow)
+        byte[] secret = derive(password, salt, kdf);
+
+        // Cache and return the key.
+        try {
+            synchronized (KEYS) {
+                Entry old = KEYS.put(id, new Entry(secret.clone(), System.nanoTime()));
+                if (old != null) {
+                    Arrays.fill(old.key, (byte) 0);
+                }
+                SALTS.put(identity, id);
+                trim();
+            }
+            return new SecretKeySpec(secret, "AES");
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Derives the raw key using PBKDF2 bypassing the cache.
+     *
+     * @param password Target password
+     * @param salt     Target salt
+     * @param kdf      Derivation parameters
+     * @return Derived raw 256-bit key
+     * @throws RuntimeException If unable to derive the key
+     */
+    static byte @NotNull [] derive(@NotNull String password, byte @NotNull [] salt, @NotNull Kdf kdf) {
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(kdf.algorithm());
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, kdf.iterations(), 256);
+            try {
+                return factory.generateSecret(spec).getEncoded();
+            } finally {
+                spec.clearPassword();
+            }
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to derive the key using PBKDF2.", t);
+        }
+    }
+
+    /**
+     * Gets the last salt used with the password and parameters, if its key is still cached.
+     * Reusing it allows to encrypt the data without deriving the key again.
+     *
+     * @param password Target password
+     * @param kdf      Derivation parameters
+     * @return Salt copy, {@code null} if there's no cached key for this password
+     */
+    @Contract(pure = true)
+    static byte @Nullable [] salt(@NotNull String password, @NotNull Kdf kdf) {
+        String identity = identity(password, kdf);
+        synchronized (KEYS) {
+            String id = SALTS.get(identity);
+            if (id == null || !KEYS.containsKey(id)) return null;
+            return HexFormat.of().parseHex(id, identity.length() + 1, id.length());
+        }
+    }
+
+    /**
+     * Evicts and wipes every key that has not been used for a while.
+     */
+    public static void purge() {
+        synchronized (KEYS) {
+            // Remove idle keys.
+            long now = System.nanoTime();
+            int removed = 0;
+            for (Iterator<Entry> iterator = KEYS.values().iterator(); iterator.hasNext(); ) {
+                Entry entry = iterator.next();
+                if ((now - entry.used) < IDLE_NANOS) continue;
+                Arrays.fill(entry.key, (byte) 0);
+                iterator.remove();
+                removed++;
+            }
+
+            // Remove dangling salts.
+            SALTS.values().removeIf(id -> !KEYS.containsKey(id));
+
+            // Log.
+            if (removed == 0) return;
+            LOGGER.debug("IAS: Evicted {} idle keys.", removed);
+        }
+    }
+
+    /**
+     * Evicts and wipes every cached key.
+     */
+    public static void clear() {
+        synchronized (KEYS) {
+            for (Entry entry : KEYS.values()) {
+                Arrays.fill(entry.key, (byte) 0);
+            }
+            KEYS.clear();
+            SALTS.clear();
+        }
+    }
+
+    /**
+     * Evicts the least recently used keys until the cache fits the limit. Must be called while holding the lock.
+     */
+    private static void trim() {
+        for (Iterator<Entry> iterator = KEYS.values().iterator(); KEYS.size() > MAX_KEYS && iterator.hasNext(); ) {
+            Arrays.fill(iterator.next().key, (byte) 0);
+            iterator.remove();
+        }
+        SALTS.values().removeIf(id -> !KEYS.containsKey(id));
+    }
+
+    /**
+     * Creates the crypt identity for the password and parameters. Doesn't store the password in the cache as-is.
+     *
+     * @param password Target password
+     * @param kdf      Derivation parameters
+     * @return Password identity
+     * @throws RuntimeException If SHA-256 is not available
+     */
+    @Contract(pure = true)
+    @NotNull
+    private static String identity(@NotNull String password, @NotNull Kdf kdf) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String hash = HexFormat.of().formatHex(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+            return hash + '/' + kdf.algorithm() + '/' + kdf.iterations();
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to hash the crypt identity.", t);
+        }
+    }
+
+    /**
+     * Cached key entry.
+     *
+     * @author VidTu
+     */
+    private static final class Entry {
+        /**
+         * Raw AES key.
+         */
+        private final byte @NotNull [] key;
+
+        /**
+         * Last usage time, in {@link System#nanoTime()}.
+         */
+        private long used;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param key  Raw AES key
+         * @param used Last usage time, in {@link System#nanoTime()}
+         */
+        @Contract(pure = true)
+        private Entry(byte @NotNull [] key, long used) {
+            this.key = key;
+            this.used = used;
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "KeyCache.Entry{" +
+                    "key=[KEY]" +
+                    ", used=" + this.used +
+                    '}';
+        }
+    }
+}
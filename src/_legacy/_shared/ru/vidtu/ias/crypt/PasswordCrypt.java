@@ -22,11 +22,12 @@ package ru.vidtu.ias.crypt;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import ru.vidtu.ias.config.IASConfig;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * Encryption with password.
@@ -40,6 +41,11 @@ public final class PasswordCrypt implements Crypt {
     @NotNull
     private final String password;
 
+    /**
+     * Password crypt version.
+     */
+    private final int version;
+
     /**
      * Creates a new password encryption encryptor.
      *
@@ -48,24 +54,40 @@ public final class PasswordCrypt implements Crypt {
      */
     @Contract(pure = true)
     public PasswordCrypt(@NotNull String password) {
+        this(password, 2);
+    }
+
+    /**
+     * Creates a new password encryption encryptor.
+     *
+     * @param password Encryption password
+     * @param version  Crypt version, {@code 1} for fixed {@link Kdf#LEGACY} parameters, {@code 2} for the KDF header
+     * @throws IllegalArgumentException If {@code password} is blank
+     */
+    @Contract(pure = true)
+    PasswordCrypt(@NotNull String password, int version) {
         if (password.isBlank()) {
             throw new IllegalArgumentException("Password is blank.");
         }
         this.password = password;
+        this.version = version;
     }
 
     @Contract(pure = true)
     @Override
     @NotNull
     public String type() {
-        return "ias:password_crypt_v1";
+        return this.version < 2 ? "ias:password_crypt_v1" : "ias:password_crypt_v2";
     }
 
-    @Contract(value = "-> null", pure = true)
     @Override
     @Nullable
     public Crypt migrate() {
-        return null;
+        // Move to the shared vault, if enabled and this password is the vault password.
+        if (IASConfig.passwordVault && VaultCrypt.accepts(this.password)) return VaultCrypt.of(this.password);
+
+        // Move to the versioned crypt.
+        return this.version < 2 ? new PasswordCrypt(this.password) : null;
     }
 
     @Contract(value = "-> false", pure = true)
@@ -74,56 +96,81 @@ public final class PasswordCrypt implements Crypt {
         return false;
     }
 
+    @Contract(pure = true)
+    @Override
+    public int overhead() {
+        Kdf kdf = this.version < 2 ? Kdf.LEGACY : Kdf.current();
+        return (this.version < 2 ? 0 : kdf.headerLength()) + kdf.saltLength() + 16 + 16;
+    }
+
     @Contract(pure = true)
     @Override
     public byte @NotNull [] encrypt(byte @NotNull [] decrypted) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            // Generate and write salt.
+        ByteBuffer encrypted = ByteBuffer.allocate(decrypted.length + this.overhead());
+        this.encrypt(ByteBuffer.wrap(decrypted.clone()), encrypted);
+        return Arrays.copyOf(encrypted.array(), encrypted.position());
+    }
+
+    @Contract(pure = true)
+    @Override
+    public byte @NotNull [] decrypt(byte @NotNull [] encrypted) {
+        ByteBuffer decrypted = ByteBuffer.allocate(encrypted.length);
+        try {
+            this.decrypt(ByteBuffer.wrap(encrypted), decrypted);
+            return Arrays.copyOf(decrypted.array(), decrypted.position());
+        } finally {
+            Crypt.wipe(decrypted);
+        }
+    }
+
+    @Override
+    public void encrypt(@NotNull ByteBuffer decrypted, @NotNull ByteBuffer encrypted) {
+        try {
+            // Write the KDF header, if versioned.
+            Kdf kdf = this.version < 2 ? Kdf.LEGACY : Kdf.current();
+            if (this.version >= 2) {
+                kdf.write(encrypted);
+            }
+
+            // Reuse the salt of the cached key or generate and write the new salt.
             SecureRandom random = SecureRandom.getInstanceStrong();
-            byte[] salt = new byte[128];
-            random.nextBytes(salt);
-            out.write(salt);
+            byte[] salt = KeyCache.salt(this.password, kdf);
+            if (salt == null) {
+                salt = new byte[kdf.saltLength()];
+                random.nextBytes(salt);
+            }
+            encrypted.put(salt);
 
             // Generate and write IV.
             byte[] iv = new byte[16];
             random.nextBytes(iv);
-            out.write(iv);
+            encrypted.put(iv);
 
             // Encrypt and write the data.
-            byte[] data = Crypt.pbkdfAesEncrypt(decrypted, this.password, salt, iv);
-            out.write(data);
-
-            // Return data.
-            return out.toByteArray();
+            Crypt.pbkdfAesEncrypt(decrypted, encrypted, this.password, salt, iv, kdf);
         } catch (Throwable t) {
             // Rethrow.
             throw new RuntimeException("Unable to encrypt using PasswordCrypt.", t);
         }
     }
 
-    @Contract(pure = true)
     @Override
-    public byte @NotNull [] decrypt(byte @NotNull [] encrypted) {
-        try (ByteArrayInputStream in = new ByteArrayInputStream(encrypted)) {
-            // Read the salt.
-            byte[] salt = new byte[128];
-            int read = in.read(salt);
-            if (read != 128) {
-                throw new EOFException("Not enough salt bytes: " + read);
+    public void decrypt(@NotNull ByteBuffer encrypted, @NotNull ByteBuffer decrypted) {
+        try {
+            // Read the KDF header, if versioned.
+            Kdf kdf = this.version < 2 ? Kdf.LEGACY : Kdf.read(encrypted);
+
+            // Read the salt and the IV.
+            if (encrypted.remaining() < kdf.saltLength() + 16) {
+                throw new EOFException("Not enough salt and IV bytes: " + encrypted.remaining());
             }
-
-            // Read the IV.
+            byte[] salt = new byte[kdf.saltLength()];
+            encrypted.get(salt);
             byte[] iv = new byte[16];
-            read = in.read(iv);
-            if (read != 16) {
-                throw new EOFException("Not enough IV bytes: " + read);
-            }
-
-            // Read the data.
-            byte[] data = in.readAllBytes();
+            encrypted.get(iv);
 
-            // Decrypt and return the data.
-            return Crypt.pbkdfAesDecrypt(data, this.password, salt, iv);
+            // Decrypt the data.
+            Crypt.pbkdfAesDecrypt(encrypted, decrypted, this.password, salt, iv, kdf);
         } catch (Throwable t) {
             // Rethrow.
             throw new RuntimeException("Unable to decrypt using PasswordCrypt.", t);
@@ -136,6 +183,7 @@ public final class PasswordCrypt implements Crypt {
     public String toString() {
         return "PasswordCrypt{" +
                 "password='[PASSWORD]'" +
+                ", version=" + this.version +
                 '}';
     }
 }
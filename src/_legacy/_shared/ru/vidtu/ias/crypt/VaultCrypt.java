@@ -0,0 +1,708 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.crypt;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.IAS;
+import ru.vidtu.ias.config.IASConfig;
+import ru.vidtu.ias.utils.exceptions.FriendlyException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption with a password shared by the whole account storage.
+ * <p>
+ * The password is hashed only once per unlock into the master key (bound to the vault salt) and
+ * every account is encrypted using its own subkey quickly derived from the master key via HKDF.
+ * The KDF parameters, the vault salt, and the password check value are created once per storage and stored in
+ * its vault header, so every vault account shares the single master key and the vault rejects any other password.
+ * The vault stays unlocked until it's idle for {@link IASConfig#vaultAutoLock} minutes or until the game is closed.
+ *
+ * @author VidTu
+ */
+public final class VaultCrypt implements Crypt {
+    /**
+     * Vault crypt type.
+     */
+    @NotNull
+    private static final String TYPE = "ias:vault_crypt_v1";
+
+    /**
+     * HKDF info prefix.
+     */
+    private static final byte @NotNull [] INFO = TYPE.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * HMAC input of the password check value.
+     */
+    private static final byte @NotNull [] CHECK = "ias:vault_check_v1".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Vault header magic, {@code IASV}.
+     */
+    private static final int HEADER_MAGIC = 0x49415356;
+
+    /**
+     * Vault header version.
+     */
+    private static final int HEADER_VERSION = 1;
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/VaultCrypt");
+
+    /**
+     * Current unlocked vault, {@code null} if locked.
+     */
+    @Nullable
+    private static volatile VaultCrypt unlocked;
+
+    /**
+     * Last created vault that is not yet unlocked, {@code null} if none. Allows the concurrent
+     * decryptions with the same password to share the single master key derivation.
+     */
+    @Nullable
+    private static volatile VaultCrypt pending;
+
+    /**
+     * Cached vault header of the storage, {@code null} if not read yet.
+     */
+    @Nullable
+    private static volatile Header header;
+
+    /**
+     * Vault password.
+     */
+    @NotNull
+    private final String password;
+
+    /**
+     * Vault salt from the vault header, {@code null} if not unlocked yet. Guarded by {@code this}.
+     */
+    private byte @Nullable [] salt;
+
+    /**
+     * Vault master key for {@link #salt}, {@code null} if not yet derived or wiped. Guarded by {@code this}.
+     */
+    private byte @Nullable [] master;
+
+    /**
+     * Current master key derivation, {@code null} if none. Lets the concurrent callers wait for
+     * the single derivation without holding the monitor. Guarded by {@code this}.
+     */
+    @Nullable
+    private CompletableFuture<Void> unlocking;
+
+    /**
+     * Last vault usage time, in {@link System#nanoTime()}.
+     */
+    private volatile long used;
+
+    /**
+     * Creates a new vault encryptor.
+     *
+     * @param password Vault password
+     * @throws IllegalArgumentException If {@code password} is blank
+     */
+    @Contract(pure = true)
+    private VaultCrypt(@NotNull String password) {
+        if (password.isBlank()) {
+            throw new IllegalArgumentException("Password is blank.");
+        }
+        this.password = password;
+        this.used = System.nanoTime();
+    }
+
+    /**
+     * Gets the unlocked (or pending) vault with this password or creates a new vault.
+     *
+     * @param password Vault password
+     * @return Vault crypt
+     * @throws IllegalArgumentException If {@code password} is blank
+     */
+    @NotNull
+    public static synchronized VaultCrypt of(@NotNull String password) {
+        byte[] bytes = password.getBytes(StandardCharsets.UTF_8);
+        VaultCrypt vault = unlocked;
+        if (vault != null && MessageDigest.isEqual(vault.password.getBytes(StandardCharsets.UTF_8), bytes)) {
+            return vault;
+        }
+        vault = pending;
+        if (vault != null && MessageDigest.isEqual(vault.password.getBytes(StandardCharsets.UTF_8), bytes)) {
+            return vault;
+        }
+        vault = new VaultCrypt(password);
+        pending = vault;
+        return vault;
+    }
+
+    /**
+     * Gets the currently unlocked vault.
+     *
+     * @return Unlocked vault, {@code null} if the vault is locked
+     */
+    @Contract(pure = true)
+    @Nullable
+    public static VaultCrypt unlocked() {
+        return unlocked;
+    }
+
+    /**
+     * Gets the last usage time of this vault.
+     *
+     * @return Last usage time, in {@link System#nanoTime()}
+     * @see #rewind(long)
+     */
+    @Contract(pure = true)
+    public long used() {
+        return this.used;
+    }
+
+    /**
+     * Rewinds the usage time of this vault back, so the background usage doesn't keep the vault unlocked.
+     *
+     * @param used Usage time before the background usage, in {@link System#nanoTime()}
+     * @see #used()
+     */
+    public void rewind(long used) {
+        if ((this.used - used) <= 0L) return;
+        this.used = used;
+    }
+
+    /**
+     * Locks the vault and wipes its master key.
+     */
+    public static void lock() {
+        synchronized (VaultCrypt.class) {
+            pending = null;
+        }
+        VaultCrypt vault = unlocked;
+        if (vault == null) return;
+        unlocked = null;
+        vault.wipe();
+        LOGGER.info("IAS: Vault has been locked.");
+    }
+
+    /**
+     * Locks the vault if it has been idle for too long.
+     *
+     * @see IASConfig#vaultAutoLock
+     */
+    public static void autoLock() {
+        VaultCrypt vault = unlocked;
+        int minutes = IASConfig.vaultAutoLock;
+        if (vault == null || minutes <= 0) return;
+        if ((System.nanoTime() - vault.used) < TimeUnit.MINUTES.toNanos(minutes)) return;
+        lock();
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public String type() {
+        return TYPE;
+    }
+
+    @Contract(value = "-> null", pure = true)
+    @Override
+    @Nullable
+    public Crypt migrate() {
+        return null;
+    }
+
+    @Contract(value = "-> false", pure = true)
+    @Override
+    public boolean insecure() {
+        return false;
+    }
+
+    @Contract(value = "-> 192", pure = true)
+    @Override
+    public int overhead() {
+        return 128 + 32 + 16 + 16;
+    }
+
+    @Contract(pure = true)
+    @Override
+    public byte @NotNull [] encrypt(byte @NotNull [] decrypted) {
+        ByteBuffer encrypted = ByteBuffer.allocate(decrypted.length + this.overhead());
+        this.encrypt(ByteBuffer.wrap(decrypted.clone()), encrypted);
+        return Arrays.copyOf(encrypted.array(), encrypted.position());
+    }
+
+    @Contract(pure = true)
+    @Override
+    public byte @NotNull [] decrypt(byte @NotNull [] encrypted) {
+        ByteBuffer decrypted = ByteBuffer.allocate(encrypted.length);
+        try {
+            this.decrypt(ByteBuffer.wrap(encrypted), decrypted);
+            return Arrays.copyOf(decrypted.array(), decrypted.position());
+        } finally {
+            Crypt.wipe(decrypted);
+        }
+    }
+
+    @Override
+    public void encrypt(@NotNull ByteBuffer decrypted, @NotNull ByteBuffer encrypted) {
+        ByteBuffer consumed = decrypted.slice();
+        try {
+            // Get the vault salt and master key, creating the vault header if it's missing.
+            SecureRandom random = SecureRandom.getInstanceStrong();
+            byte[] master = this.master(true);
+            byte[] salt;
+            synchronized (this) {
+                salt = Objects.requireNonNull(this.salt, "salt");
+            }
+            encrypted.put(salt);
+
+            // Generate and write the subkey nonce.
+            byte[] nonce = new byte[32];
+            random.nextBytes(nonce);
+            encrypted.put(nonce);
+
+            // Generate and write IV.
+            byte[] iv = new byte[16];
+            random.nextBytes(iv);
+            encrypted.put(iv);
+
+            // Encrypt and write the data.
+            try {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, subkey(master, salt, nonce), new GCMParameterSpec(128, iv));
+                cipher.doFinal(decrypted, encrypted);
+            } finally {
+                Arrays.fill(master, (byte) 0);
+            }
+
+            // Keep the vault unlocked.
+            this.touch();
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to encrypt using VaultCrypt.", t);
+        } finally {
+            // Wipe the decrypted data.
+            Crypt.wipe(consumed);
+        }
+    }
+
+    @Override
+    public void decrypt(@NotNull ByteBuffer encrypted, @NotNull ByteBuffer decrypted) {
+        try {
+            // Read the salt, the subkey nonce and the IV.
+            if (encrypted.remaining() < 128 + 32 + 16) {
+                throw new EOFException("Not enough salt, nonce and IV bytes: " + encrypted.remaining());
+            }
+            byte[] salt = new byte[128];
+            encrypted.get(salt);
+            byte[] nonce = new byte[32];
+            encrypted.get(nonce);
+            byte[] iv = new byte[16];
+            encrypted.get(iv);
+
+            // Get the master key.
+            byte[] master = this.master(false);
+
+            // Decrypt the data.
+            try {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, subkey(master, salt, nonce), new GCMParameterSpec(128, iv));
+                cipher.doFinal(encrypted, decrypted);
+            } catch (AEADBadTagException e) {
+                // The password is verified by the vault header, so the data is damaged or has been sealed under another password.
+                throw new FriendlyException("Unable to do AES final decrypt.", e, "ias.error.decrypt");
+            } finally {
+                // Wipe the key copy.
+                Arrays.fill(master, (byte) 0);
+            }
+
+            // Keep the vault unlocked.
+            this.touch();
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to decrypt using VaultCrypt.", t);
+        }
+    }
+
+    @Contract(pure = true)
+    @Override
+    @NotNull
+    public String toString() {
+        return "VaultCrypt{" +
+                "password='[PASSWORD]'" +
+                '}';
+    }
+
+    /**
+     * Gets the master key of this vault, deriving and verifying it against the vault header if this vault is not unlocked yet.
+     * Only one caller derives the key, other callers wait for it without holding the monitor.
+     *
+     * @param create Whether to create the vault header if it's missing
+     * @return Copy of the master key, should be wiped after use
+     * @throws FriendlyException If the password doesn't match the vault
+     * @throws RuntimeException  If unable to derive the key or read (or create) the vault header
+     */
+    private byte @NotNull [] master(boolean create) {
+        while (true) {
+            // Return the derived key or join (or start) the derivation.
+            CompletableFuture<Void> future;
+            boolean owner = false;
+            synchronized (this) {
+                if (this.master != null) return this.master.clone();
+                future = this.unlocking;
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    this.unlocking = future;
+                    owner = true;
+                }
+            }
+
+            // Wait for the derivation of the other caller. (and retry, the vault might have been locked in between)
+            if (!owner) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException re) throw re;
+                    throw e;
+                }
+                continue;
+            }
+
+            // Derive the key. (outside the monitor, this is slow)
+            try {
+                this.unlock(create);
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+                throw t;
+            } finally {
+                synchronized (this) {
+                    this.unlocking = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Derives the master key using the KDF parameters and the salt from the vault header, creating the header
+     * with this password and the calibrated KDF parameters if it's missing and {@code create} is {@code true},
+     * and verifies the key against the header password check value.
+     *
+     * @param create Whether to create the vault header if it's missing
+     * @throws FriendlyException If the password doesn't match the vault
+     * @throws RuntimeException  If unable to derive the key or read (or create) the vault header
+     */
+    private void unlock(boolean create) {
+        try {
+            // Read the header.
+            Header header = header();
+            byte[] master = null;
+            if (header == null) {
+                // Fail if not creating. (there's no vault data without the header)
+                if (!create) {
+                    throw new IOException("Vault header is missing.");
+                }
+
+                // Create the header with this password. (another game instance might create it first)
+                Kdf kdf = Kdf.current();
+                byte[] salt = new byte[kdf.saltLength()];
+                SecureRandom.getInstanceStrong().nextBytes(salt);
+                master = KeyCache.derive(this.password, salt, kdf);
+                byte[] stored = IAS.vaultStorage(new Header(kdf, salt, check(master)).write());
+                header = Header.read(Objects.requireNonNull(stored, "stored"));
+                VaultCrypt.header = header;
+            }
+
+            // Derive the key, unless it was derived when creating the header.
+            if (master == null || !MessageDigest.isEqual(check(master), header.check)) {
+                if (master != null) {
+                    Arrays.fill(master, (byte) 0);
+                }
+                master = KeyCache.derive(this.password, header.salt, header.kdf);
+            }
+
+            // Verify the password.
+            if (!MessageDigest.isEqual(check(master), header.check)) {
+                Arrays.fill(master, (byte) 0);
+                synchronized (VaultCrypt.class) {
+                    if (pending == this) {
+                        pending = null;
+                    }
+                }
+                throw new FriendlyException("Vault password mismatch.", "ias.error.vaultPassword");
+            }
+
+            // Set the key.
+            synchronized (this) {
+                this.salt = header.salt.clone();
+                this.master = master;
+            }
+        } catch (FriendlyException e) {
+            // Rethrow as-is.
+            throw e;
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to unlock VaultCrypt.", t);
+        }
+    }
+
+    /**
+     * Checks whether the password matches the vault of the storage. Every password matches if the storage
+     * has no vault yet. Doesn't unlock the vault or create its header, but the password is hashed if it's
+     * not the password of the unlocked vault.
+     *
+     * @param password Target password
+     * @return Whether the vault accepts the password
+     * @throws RuntimeException If unable to derive the key or read the vault header
+     */
+    public static boolean accepts(@NotNull String password) {
+        try {
+            // Accept any password if there's no vault yet.
+            Header header = header();
+            if (header == null) return true;
+
+            // Accept the password of the unlocked vault.
+            VaultCrypt vault = unlocked;
+            if (vault != null && MessageDigest.isEqual(vault.password.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8))) {
+                return true;
+            }
+
+            // Derive and verify the key.
+            byte[] master = KeyCache.derive(password, header.salt, header.kdf);
+            try {
+                return MessageDigest.isEqual(check(master), header.check);
+            } finally {
+                Arrays.fill(master, (byte) 0);
+            }
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to check the vault password.", t);
+        }
+    }
+
+    /**
+     * Gets the vault header of the storage, reading it if it's not read yet.
+     *
+     * @return Vault header, {@code null} if the storage has no vault yet
+     * @throws IOException      If the header is malformed
+     * @throws RuntimeException If unable to read the vault header
+     */
+    @Nullable
+    private static Header header() throws IOException {
+        // Return the cached header.
+        Header header = VaultCrypt.header;
+        if (header != null) return header;
+
+        // Read the header, if any.
+        byte[] stored = IAS.vaultStorage(null);
+        if (stored == null) return null;
+        header = Header.read(stored);
+        VaultCrypt.header = header;
+        return header;
+    }
+
+    /**
+     * Computes the password check value of the master key.
+     *
+     * @param master Vault master key
+     * @return Password check value
+     * @throws RuntimeException If unable to compute the value
+     */
+    @Contract(pure = true)
+    private static byte @NotNull [] check(byte @NotNull [] master) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(master, "HmacSHA256"));
+            return mac.doFinal(CHECK);
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to compute the vault check value.", t);
+        }
+    }
+
+    /**
+     * Marks this vault as the unlocked one and refreshes its usage time.
+     */
+    private void touch() {
+        this.used = System.nanoTime();
+        VaultCrypt old = unlocked;
+        if (old == this) return;
+        synchronized (VaultCrypt.class) {
+            if (pending == this) {
+                pending = null;
+            }
+        }
+        unlocked = this;
+        if (old != null) {
+            old.wipe();
+        }
+        LOGGER.info("IAS: Vault has been unlocked.");
+    }
+
+    /**
+     * Wipes the vault master key.
+     */
+    private void wipe() {
+        synchronized (this) {
+            byte[] master = this.master;
+            if (master == null) return;
+            Arrays.fill(master, (byte) 0);
+            this.master = null;
+        }
+    }
+
+    /**
+     * Derives the per-account AES key from the master key using HKDF (RFC 5869) with {@code HmacSHA512}:
+     * HKDF-Extract with the vault salt, then HKDF-Expand with the type and the account nonce as the info.
+     *
+     * @param master Vault master key
+     * @param salt   Vault salt
+     * @param nonce  Account nonce
+     * @return Account AES key
+     * @throws RuntimeException If unable to derive the key
+     */
+    @Contract(pure = true)
+    @NotNull
+    private static SecretKeySpec subkey(byte @NotNull [] master, byte @NotNull [] salt, byte @NotNull [] nonce) {
+        try {
+            // Extract the pseudorandom key.
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(salt, "HmacSHA512"));
+            byte[] prk = mac.doFinal(master);
+
+            // Expand the first (and only required) HKDF block.
+            byte[] block;
+            try {
+                mac.init(new SecretKeySpec(prk, "HmacSHA512"));
+                mac.update(INFO);
+                mac.update(nonce);
+                mac.update((byte) 1);
+                block = mac.doFinal();
+            } finally {
+                Arrays.fill(prk, (byte) 0);
+            }
+
+            // Truncate to AES-256 key.
+            try {
+                return new SecretKeySpec(block, 0, 32, "AES");
+            } finally {
+                Arrays.fill(block, (byte) 0);
+            }
+        } catch (Throwable t) {
+            // Rethrow.
+            throw new RuntimeException("Unable to derive the vault subkey.", t);
+        }
+    }
+
+    /**
+     * Vault header of the storage.
+     *
+     * @param kdf   Master key derivation parameters
+     * @param salt  Vault salt
+     * @param check Password check value
+     * @author VidTu
+     */
+    private record Header(@NotNull Kdf kdf, byte @NotNull [] salt, byte @NotNull [] check) {
+        /**
+         * Reads the header.
+         *
+         * @param data Header data
+         * @return Read header
+         * @throws IOException If the header is malformed
+         */
+        @Contract(value = "_ -> new", pure = true)
+        @NotNull
+        private static Header read(byte @NotNull [] data) throws IOException {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                if (buffer.getInt() != HEADER_MAGIC) {
+                    throw new IOException("Malformed vault header: " + data.length + " bytes");
+                }
+                int version = buffer.getInt();
+                if (version != HEADER_VERSION) {
+                    throw new IOException("Unknown vault header version: " + version);
+                }
+                Kdf kdf = Kdf.read(buffer);
+                if (kdf.saltLength() != 128) {
+                    throw new IOException("Unsupported vault salt length: " + kdf.saltLength());
+                }
+                byte[] salt = new byte[128];
+                buffer.get(salt);
+                byte[] check = new byte[32];
+                buffer.get(check);
+                if (buffer.hasRemaining()) {
+                    throw new IOException("Malformed vault header: " + data.length + " bytes");
+                }
+                return new Header(kdf, salt, check);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated vault header: " + data.length + " bytes", e);
+            }
+        }
+
+        /**
+         * Writes the header.
+         *
+         * @return Header data
+         */
+        @Contract(pure = true)
+        private byte @NotNull [] write() {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + this.kdf.headerLength() + this.salt.length + this.check.length);
+            buffer.putInt(HEADER_MAGIC);
+            buffer.putInt(HEADER_VERSION);
+            this.kdf.write(buffer);
+            return buffer.put(this.salt)
+                    .put(this.check)
+                    .array();
+        }
+
+        @Contract(pure = true)
+        @Override
+        @NotNull
+        public String toString() {
+            return "VaultCrypt.Header{" +
+                    "kdf=" + this.kdf +
+                    ", salt=[SALT]" +
+                    ", check=[CHECK]" +
+                    '}';
+        }
+    }
+}
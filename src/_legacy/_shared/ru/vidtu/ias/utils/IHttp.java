@@ -0,0 +1,194 @@
+/*
+ * In-Game Account Switcher is a mod for Minecraft that allows you to change your logged in account in-game, without restarting Minecraft.
+ * Copyright (C) 2015-2022 The_Fireplace
+ * Copyright (C) 2021-2026 VidTu
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>
+ */
+
+package ru.vidtu.ias.utils;
+
+import com.google.errorprone.annotations.CheckReturnValue;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.IAS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * IAS HTTP client manager. Owns the single pooled HTTP/2 client, so the connections to the auth servers
+ * are reused across all the IAS requests instead of doing the cold TLS handshakes for every client.
+ *
+ * @author VidTu
+ */
+public final class IHttp {
+    /**
+     * Auth hosts to pre-warm.
+     *
+     * @see #prewarm()
+     */
+    @NotNull
+    private static final List<URI> PREWARM = List.of(
+            URI.create("https://login.live.com/"),
+            URI.create("https://user.auth.xboxlive.com/"),
+            URI.create("https://xsts.auth.xboxlive.com/"),
+            URI.create("https://api.minecraftservices.com/")
+    );
+
+    /**
+     * Minimum delay between the pre-warms, in nanoseconds. The pooled connections outlive it.
+     */
+    private static final long PREWARM_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1L);
+
+    /**
+     * Shared client. Uses its own executor, so it can be used synchronously from the IAS executor thread.
+     */
+    @NotNull
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(IAS.TIMEOUT)
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    /**
+     * Logger for this class.
+     */
+    @NotNull
+    private static final Logger LOGGER = LoggerFactory.getLogger("IAS/IHttp");
+
+    /**
+     * Last pre-warm time in {@link System#nanoTime()}, {@code 0} if never.
+     */
+    @NotNull
+    private static final AtomicLong LAST_PREWARM = new AtomicLong();
+
+    /**
+     * An instance of this class cannot be created.
+     *
+     * @throws AssertionError Always
+     */
+    @Contract(value = "-> fail", pure = true)
+    private IHttp() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Sends the request asynchronously with the shared client, accepting the gzip-compressed response.
+     *
+     * @param request Target request
+     * @return Future that will complete with the response or exceptionally
+     */
+    @CheckReturnValue
+    @NotNull
+    public static CompletableFuture<HttpResponse<String>> sendAsync(@NotNull HttpRequest request) {
+        return CLIENT.sendAsync(gzip(request), IHttp::ofString);
+    }
+
+    /**
+     * Sends the request synchronously with the shared client, accepting the gzip-compressed response.
+     *
+     * @param request Target request
+     * @return Response
+     * @throws IOException          On I/O error
+     * @throws InterruptedException If interrupted
+     */
+    @CheckReturnValue
+    @NotNull
+    public static HttpResponse<String> send(@NotNull HttpRequest request) throws IOException, InterruptedException {
+        return CLIENT.send(gzip(request), IHttp::ofString);
+    }
+
+    /**
+     * Opens the connections to the auth hosts in the background, so the next login skips the DNS lookups
+     * and the TLS handshakes. Does nothing if called recently or if the {@code ias.skipPrewarm} system property is set.
+     */
+    public static void prewarm() {
+        // Skip if not allowed.
+        if (Boolean.getBoolean("ias.skipPrewarm")) return;
+
+        // Skip if pre-warmed recently.
+        long now = System.nanoTime();
+        long last = LAST_PREWARM.get();
+        if (last != 0L && now - last < PREWARM_INTERVAL_NANOS) return;
+        if (!LAST_PREWARM.compareAndSet(last, now)) return;
+
+        // Send the cheap requests. (the response itself doesn't matter)
+        for (URI uri : PREWARM) {
+            CLIENT.sendAsync(HttpRequest.newBuilder(uri)
+                    .header("User-Agent", IAS.USER_AGENT)
+                    .timeout(IAS.TIMEOUT)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.discarding()).whenComplete((response, t) -> {
+                // Log.
+                if (t != null) {
+                    LOGGER.debug("IAS: Unable to pre-warm {}.", uri, t);
+                    return;
+                }
+                LOGGER.debug("IAS: Pre-warmed {} in {} ms. ({})", uri, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - now), response.version());
+            });
+        }
+    }
+
+    /**
+     * Copies the request, accepting the gzip-compressed response.
+     *
+     * @param request Target request
+     * @return New request
+     */
+    @Contract(value = "_ -> new", pure = true)
+    @NotNull
+    private static HttpRequest gzip(@NotNull HttpRequest request) {
+        return HttpRequest.newBuilder(request, (name, value) -> true)
+                .setHeader("Accept-Encoding", "gzip")
+                .build();
+    }
+
+    /**
+     * Creates the string body subscriber, decompressing the gzip-compressed body as UTF-8.
+     *
+     * @param info Response info
+     * @return String body subscriber
+     */
+    @Contract(pure = true)
+    @NotNull
+    private static HttpResponse.BodySubscriber<String> ofString(@NotNull HttpResponse.ResponseInfo info) {
+        // Use the default subscriber if not compressed.
+        if (!info.headers().firstValue("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false)) {
+            return HttpResponse.BodyHandlers.ofString().apply(info);
+        }
+
+        // Decompress otherwise.
+        return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), body -> {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to decompress response.", e);
+            }
+        });
+    }
+}
@@ -26,11 +26,17 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UTFDataFormatException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Collections;
@@ -269,4 +275,136 @@ public final class IUtils {
             throw new AssertionError("No instances.");
         }
     }
+
+    /**
+     * Gets the length of the string in modified UTF-8, as written by {@link java.io.DataOutput#writeUTF(String)}.
+     *
+     * @param value Target string
+     * @return Encoded length in bytes, excluding the 2-byte length prefix
+     */
+    @Contract(pure = true)
+    public static int utfLength(@NotNull String value) {
+        int length = 0;
+        for (int i = 0, size = value.length(); i < size; i++) {
+            char c = value.charAt(i);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF ? 3 : 2);
+        }
+        return length;
+    }
+
+    /**
+     * Puts the string into the buffer in the {@link java.io.DataOutput#writeUTF(String)} format.
+     *
+     * @param buffer Target buffer
+     * @param value  Target string
+     * @throws IllegalArgumentException If the string is too long
+     * @throws java.nio.BufferOverflowException If the buffer doesn't have enough space
+     */
+    public static void putUTF(@NotNull ByteBuffer buffer, @NotNull String value) {
+        int length = utfLength(value);
+        if (length > 65535) {
+            throw new IllegalArgumentException("String is too long: " + length);
+        }
+        buffer.putShort((short) length);
+        for (int i = 0, size = value.length(); i < size; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buffer.put((byte) c);
+            } else if (c > 0x07FF) {
+                buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Gets the string from the buffer in the {@link java.io.DataInput#readUTF()} format.
+     *
+     * @param buffer Target buffer
+     * @return Read string
+     * @throws UTFDataFormatException If the string is malformed
+     * @throws java.nio.BufferUnderflowException If the buffer doesn't have enough data
+     */
+    @CheckReturnValue
+    @NotNull
+    public static String getUTF(@NotNull ByteBuffer buffer) throws UTFDataFormatException {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        int end = buffer.position() + length;
+        StringBuilder builder = new StringBuilder(length);
+        while (buffer.position() < end) {
+            int a = buffer.get() & 0xFF;
+            if (a < 0x80) {
+                builder.append((char) a);
+            } else if ((a & 0xE0) == 0xC0 && buffer.position() < end) {
+                int b = buffer.get() & 0xFF;
+                if ((b & 0xC0) != 0x80) throw new UTFDataFormatException("Malformed input around byte " + buffer.position());
+                builder.append((char) (((a & 0x1F) << 6) | (b & 0x3F)));
+            } else if ((a & 0xF0) == 0xE0 && buffer.position() + 1 < end) {
+                int b = buffer.get() & 0xFF;
+                int c = buffer.get() & 0xFF;
+                if ((b & 0xC0) != 0x80 || (c & 0xC0) != 0x80) throw new UTFDataFormatException("Malformed input around byte " + buffer.position());
+                builder.append((char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F)));
+            } else {
+                throw new UTFDataFormatException("Malformed input around byte " + buffer.position());
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the unsigned variable-length (LEB128) integer.
+     *
+     * @param out   Target output
+     * @param value Target value
+     * @throws IOException On I/O error
+     */
+    public static void writeVarInt(@NotNull DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads the unsigned variable-length (LEB128) integer.
+     *
+     * @param in Target input
+     * @return Read value
+     * @throws IOException On I/O error or if the value is malformed
+     */
+    public static int readVarInt(@NotNull DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt is too long.");
+    }
+
+    /**
+     * Gets the unsigned variable-length (LEB128) integer from the buffer.
+     *
+     * @param buffer Target buffer
+     * @return Read value
+     * @throws IOException                       If the value is malformed
+     * @throws java.nio.BufferUnderflowException If the buffer doesn't have enough data
+     */
+    public static int getVarInt(@NotNull ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt is too long.");
+    }
 }
@@ -52,8 +52,10 @@ import net.minecraft.network.chat.Component;
 import net.minecraft.server.Services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.vidtu.ias.account.AccountRefresher;
 import ru.vidtu.ias.auth.LoginData;
 import ru.vidtu.ias.config.IASConfig;
+import ru.vidtu.ias.config.StorageSaver;
 import ru.vidtu.ias.extension.MinecraftExtension;
 import ru.vidtu.ias.mixins.MinecraftAccessor;
 import ru.vidtu.ias.platform.IStonecutter;
@@ -83,6 +85,11 @@ public final class IASMinecraft {
      */
     public static final SystemToast.SystemToastId NICK_WARN = new SystemToast.SystemToastId(10000L);
 
+    /**
+     * Toast for storage save error.
+     */
+    public static final SystemToast.SystemToastId STORAGE_ERROR = new SystemToast.SystemToastId(10001L);
+
     /**
      * Button widget sprites.
      */
@@ -127,6 +134,31 @@ public final class IASMinecraft {
     public static void init() {
         // Initialize the IAS.
         IAS.init(IStonecutter.GAME_DIRECTORY, IStonecutter.CONFIG_DIRECTORY);
+
+        // Refresh the tokens in background only while in menus.
+        AccountRefresher.idle(() -> {
+            Minecraft minecraft = Minecraft.getInstance();
+            return minecraft.level == null && minecraft.getConnection() == null;
+        });
+
+        // Report background storage save failures.
+        StorageSaver.listener(t -> {
+            Minecraft minecraft = Minecraft.getInstance();
+            minecraft.execute(() -> {
+                //? if >=26.2 {
+                ToastManager manager = minecraft.gui.toastManager();
+                //?} else {
+                /*ToastManager manager = minecraft.getToastManager();
+                *///?}
+                if (manager.getToast(SystemToast.class, STORAGE_ERROR) != null) return;
+                //? if >=26.2 {
+                final SystemToast toast = new SystemToast(STORAGE_ERROR, Component.literal("In-Game Account Switcher"), Component.translatable("ias.error.storage"));
+                //?} else {
+                /*final SystemToast toast = SystemToast.multiline(minecraft, STORAGE_ERROR, Component.literal("In-Game Account Switcher"), Component.translatable("ias.error.storage"));
+                *///?}
+                manager.addToast(toast);
+            });
+        });
     }
 
     /**
@@ -138,6 +170,9 @@ public final class IASMinecraft {
      */
     @SuppressWarnings({"ChainOfInstanceofChecks", "ConstantValue"}) // <- Abstraction for Minecraft is not possible, mods break user non-nullness.
     public static void onInit(Minecraft minecraft, Screen screen, Consumer<Button> buttonAdder) {
+        // Wait for the config. (usually loaded long before the first screen)
+        IAS.awaitConfig();
+
         // Add title button.
         if (IASConfig.titleButton && screen instanceof TitleScreen) {
             // Calculate the position.
@@ -46,6 +46,7 @@ import ru.vidtu.ias.auth.microsoft.MSAuthServer;
 import ru.vidtu.ias.config.IASConfig;
 import ru.vidtu.ias.crypt.Crypt;
 import ru.vidtu.ias.crypt.PasswordCrypt;
+import ru.vidtu.ias.crypt.VaultCrypt;
 import ru.vidtu.ias.platform.IStonecutter;
 import ru.vidtu.ias.utils.exceptions.FriendlyException;
 
@@ -184,7 +185,7 @@ final class MicrosoftPopupScreen extends Screen implements CreateHandler {
                 if (value.isBlank()) return;
 
                 // Complete the future.
-                this.crypt = new PasswordCrypt(value);
+                this.crypt = IASConfig.passwordVault ? VaultCrypt.of(value) : new PasswordCrypt(value);
                 this.password = null;
                 this.cryptPasswordTip = null;
 
@@ -210,7 +211,7 @@ final class MicrosoftPopupScreen extends Screen implements CreateHandler {
                 if (value.isBlank()) return;
 
                 // Complete the future.
-                this.crypt = new PasswordCrypt(value);
+                this.crypt = IASConfig.passwordVault ? VaultCrypt.of(value) : new PasswordCrypt(value);
                 this.password = null;
                 this.cryptPasswordTip = null;
 